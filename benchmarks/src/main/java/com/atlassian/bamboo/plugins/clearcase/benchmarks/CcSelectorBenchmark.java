@@ -0,0 +1,42 @@
+package com.atlassian.bamboo.plugins.clearcase.benchmarks;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.CcSelector;
+import com.atlassian.bamboo.plugins.clearcase.utils.ValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and formatting ClearCase object selectors, done for every activity
+ * and baseline the plugin reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CcSelectorBenchmark {
+
+    @Param({"activity:deliver.dev_stream.20080102.123456@/pvob", "act_1", "activity:act_1@\\pvob"})
+    public String selector;
+
+    @Benchmark
+    public CcSelector setAsString() throws ValidationException {
+        return new CcSelector(CcSelector.KIND_ACTIVITY, selector);
+    }
+
+    @Benchmark
+    public String roundTrip() throws ValidationException {
+        return new CcSelector(CcSelector.KIND_ACTIVITY, selector).asSelector();
+    }
+}
@@ -0,0 +1,73 @@
+package com.atlassian.bamboo.plugins.clearcase.benchmarks;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.ClearCaseDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the %Nd dates of a 100k line lshistory, {@link SimpleDateFormat}
+ * as the plugin used to against {@link ClearCaseDate}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClearCaseDateBenchmark {
+
+    private static final int LINES = 100000;
+
+    private final String[] dates = new String[LINES];
+
+    private final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMdd.kkmmss");
+
+    private final ClearCaseDate clearCaseDate = ClearCaseDate.getInstance();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < LINES; i++) {
+            dates[i] = String.format("2008%02d%02d.%02d%02d%02d", i % 12 + 1, i % 28 + 1,
+                    i % 24, i % 60, (i * 7) % 60);
+        }
+    }
+
+    @Benchmark
+    public long simpleDateFormat() throws ParseException {
+        long sum = 0;
+        for (String date : dates) {
+            sum += simpleDateFormat.parse(date).getTime();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long clearCaseDate() throws ParseException {
+        long sum = 0;
+        for (String date : dates) {
+            sum += clearCaseDate.parseMillis(date);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long clearCaseDateToDate() throws ParseException {
+        long sum = 0;
+        for (String date : dates) {
+            sum += clearCaseDate.parse(date).getTime();
+        }
+        return sum;
+    }
+}
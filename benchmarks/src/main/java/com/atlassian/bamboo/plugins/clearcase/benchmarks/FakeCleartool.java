@@ -0,0 +1,200 @@
+package com.atlassian.bamboo.plugins.clearcase.benchmarks;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Installs the fake cleartool script into a temporary directory and writes
+ * the recorded style outputs it replays. Point the plugin's cleartool home
+ * at {@link #getHome()} to use it.
+ */
+public class FakeCleartool {
+
+    private static final String SCRIPT = "/fake-cleartool/cleartool";
+
+    private static final String PVOB = "@/pvob";
+
+    private final File home;
+
+    private final File data;
+
+    private final Random random = new Random(1);
+
+    /**
+     * Install the script into a new temporary directory.
+     */
+    public FakeCleartool() throws IOException {
+        home = File.createTempFile("fake-cleartool", "");
+        if (!home.delete() || !home.mkdirs()) {
+            throw new IOException("Unable to create " + home);
+        }
+        data = new File(home, "data");
+        data.mkdirs();
+
+        File script = new File(home, "cleartool");
+        InputStream in = FakeCleartool.class.getResourceAsStream(SCRIPT);
+        OutputStream out = new FileOutputStream(script);
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        script.setExecutable(true);
+    }
+
+    /**
+     * @return the directory holding the cleartool script.
+     */
+    public String getHome() {
+        return home.getAbsolutePath();
+    }
+
+    /**
+     * @param millis the time each command takes before producing output.
+     */
+    public void setLatency(int millis) throws IOException {
+        write("latency_ms", String.valueOf(millis));
+    }
+
+    /**
+     * Write lshistory output in the plugin's format with the given number of
+     * events.
+     */
+    public void writeLsHistory(int events) throws IOException {
+        write("lshistory.out", lsHistory(events));
+    }
+
+    /**
+     * @return lshistory output in the plugin's format.
+     */
+    public String lsHistory(int events) {
+        String d = ClearCaseUtils.LSHISTORY_DELIM;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < events; i++) {
+            sb.append(date(i)).append(d)
+                    .append("user").append(i % 17).append(d)
+                    .append("/vobs/project/src/dir").append(i % 50)
+                    .append("/File").append(i).append(".java").append(d)
+                    .append("/main/dev/").append(i % 9 + 1).append(d)
+                    .append("checkin").append(d)
+                    .append(i % 3 == 0 ? "" : "Fix for defect " + i)
+                    .append(ClearCaseUtils.LSHISTORY_END_OF_RESULT_DELIM)
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the lshistory lines as split by the plugin, without the end of
+     *         result delimiter.
+     */
+    public String[] lsHistoryLines(int events) {
+        String[] lines = lsHistory(events).split(
+                ClearCaseUtils.LSHISTORY_END_OF_RESULT_DELIM);
+        String[] rval = new String[events];
+        for (int i = 0; i < events; i++) {
+            rval[i] = lines[i].trim();
+        }
+        return rval;
+    }
+
+    /**
+     * Write ClearCase 7 style diffbl -activities -versions output.
+     */
+    public void writeDiffbl(int activities, int versionsPerActivity)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Comparing the following:\n  baseline:bl_1").append(PVOB)
+                .append("\n  baseline:bl_2").append(PVOB).append("\nDifferences:\n");
+        for (int a = 0; a < activities; a++) {
+            sb.append(">> activity:act_").append(a).append(PVOB)
+                    .append(" \"Headline for activity ").append(a).append("\"\n");
+            for (int v = 0; v < versionsPerActivity; v++) {
+                sb.append("  /vobs/project/src/dir").append(v % 20)
+                        .append("/File").append(a).append('_').append(v)
+                        .append(".java@@/main/int/").append(random.nextInt(30) + 1)
+                        .append('\n');
+            }
+        }
+        write("diffbl.out", sb.toString());
+    }
+
+    /**
+     * Write an lsbl listing, date then baseline, of the given length.
+     */
+    public void writeLsbl(int baselines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < baselines; i++) {
+            sb.append(date(i)).append(",baseline:bl_").append(i).append(PVOB)
+                    .append('\n');
+        }
+        write("lsbl.out", sb.toString());
+    }
+
+    /**
+     * Answer describe -fmt "%Xn|%[owner]p|%Nd\n" for any selectors passed, and
+     * single attribute describes with a fixed value.
+     */
+    public void writeDescribe() throws IOException {
+        write("describe.sh", "fmt=\"\"\n"
+                + "while [ $# -gt 0 ]; do\n"
+                + "  case \"$1\" in\n"
+                + "    -fmt) fmt=\"$2\"; shift 2 ;;\n"
+                + "    -*) shift ;;\n"
+                + "    *) case \"$fmt\" in\n"
+                + "         *'|'*) echo \"$1|builder|20080102.030405\" ;;\n"
+                + "         %Nd) printf '20080102.030405' ;;\n"
+                + "         *) printf 'builder' ;;\n"
+                + "       esac\n"
+                + "       shift ;;\n"
+                + "  esac\n"
+                + "done\n");
+    }
+
+    /**
+     * Remove the temporary directory.
+     */
+    public void delete() {
+        delete(home);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private String date(int i) {
+        // one change a minute going back from the start of 2008
+        int minute = 59 - i % 60;
+        int hour = 23 - (i / 60) % 24;
+        int day = 28 - (i / 1440) % 28;
+        return String.format("200801%02d.%02d%02d00", day, hour, minute);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(data, name)));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.atlassian.bamboo.plugins.clearcase.benchmarks;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.AbstractTokenProcessor;
+import com.atlassian.bamboo.plugins.clearcase.utils.StringSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting cleartool output into lines and whitespace separated selectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int lines;
+
+    private String lineOutput;
+
+    private String selectorOutput;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder sel = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("  /vobs/project/src/File").append(i).append(".java@@/main/int/3\r\n");
+            sel.append("baseline:bl_").append(i).append("@/pvob ");
+        }
+        lineOutput = sb.toString();
+        selectorOutput = sel.toString();
+    }
+
+    @Benchmark
+    public List<String> splitLines() {
+        return new StringSplitter(lineOutput).getItems();
+    }
+
+    @Benchmark
+    public List<String> splitWhitespace() {
+        StringSplitter sp = new StringSplitter(selectorOutput, "\\s", false);
+        sp.setIgnoreEmptyToken(true);
+        return sp.getItems();
+    }
+
+    @Benchmark
+    public int countLines() {
+        AbstractTokenProcessor processor = new AbstractTokenProcessor(lineOutput) {
+            @Override
+            protected void processToken(String token) {
+                // count only
+            }
+        };
+        processor.process();
+        return processor.getTokenCount();
+    }
+
+    @Benchmark
+    public int countLinesWithoutCopies() {
+        AbstractTokenProcessor processor = new AbstractTokenProcessor(lineOutput) {
+            @Override
+            protected void processToken(CharSequence token) {
+                // count only
+            }
+
+            @Override
+            protected void processToken(String token) {
+                processToken((CharSequence) token);
+            }
+        };
+        processor.process();
+        return processor.getTokenCount();
+    }
+}
@@ -0,0 +1,154 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils;
+import com.atlassian.bamboo.plugins.clearcase.ant.LsHistoryEvent;
+import com.atlassian.bamboo.plugins.clearcase.ant.LsHistoryHandler;
+import com.atlassian.bamboo.plugins.clearcase.benchmarks.FakeCleartool;
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both ways {@link CcRepository} builds the change list, from lshistory for
+ * date based polling and from diffbl for baseline based polling, run against
+ * the fake cleartool. In the same package as the repository as
+ * addChangeSummary is not public.
+ * <p/>
+ * The diffbl and activity caches are kept in a temporary bamboo.home for
+ * each trial. Cold runs clear them before every invocation so diffbl and
+ * describe are run each time, warm runs measure answering from the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddChangeSummaryBenchmark {
+
+    /**
+     * Number of lshistory events, and of diffbl activities.
+     */
+    @Param({"100", "5000"})
+    public int changes;
+
+    /**
+     * Milliseconds each fake cleartool command takes.
+     */
+    @Param({"0", "50"})
+    public int latency;
+
+    /**
+     * Whether the caches are cleared before each invocation.
+     */
+    @Param({"true", "false"})
+    public boolean cold;
+
+    private FakeCleartool cleartool;
+
+    private File view;
+
+    private CcRepository repository;
+
+    private List<String> lsHistoryLines;
+
+    private String bambooHome;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cleartool = new FakeCleartool();
+        bambooHome = System.getProperty(PluginStorage.PROP_BAMBOO_HOME);
+        File home = new File(cleartool.getHome(), "bamboo-home");
+        home.mkdirs();
+        System.setProperty(PluginStorage.PROP_BAMBOO_HOME, home.getAbsolutePath());
+
+        cleartool.setLatency(latency);
+        cleartool.writeLsHistory(changes);
+        cleartool.writeDiffbl(changes, 3);
+        cleartool.writeDescribe();
+
+        view = new File(cleartool.getHome(), "view");
+        view.mkdirs();
+
+        repository = new CcRepository();
+        repository.setCleartoolHome(cleartool.getHome());
+        repository.setViewLocation(view.getAbsolutePath());
+
+        lsHistoryLines = Arrays.asList(cleartool.lsHistoryLines(changes));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCaches() {
+        if (cold) {
+            DiffblCache.getInstance().clear();
+            ActivityMetadataCache.getInstance().clear();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DiffblCache.getInstance().clear();
+        ActivityMetadataCache.getInstance().clear();
+        if (bambooHome != null) {
+            System.setProperty(PluginStorage.PROP_BAMBOO_HOME, bambooHome);
+        } else {
+            System.clearProperty(PluginStorage.PROP_BAMBOO_HOME);
+        }
+        cleartool.delete();
+    }
+
+    /**
+     * Parse lshistory lines already read into memory.
+     */
+    @Benchmark
+    public List<Commit> lsHistoryLines() throws Exception {
+        List<Commit> commits = new ArrayList<Commit>();
+        repository.addChangeSummary(lsHistoryLines, commits);
+        return commits;
+    }
+
+    /**
+     * Run lshistory and parse its output as it is read.
+     */
+    @Benchmark
+    public int lsHistoryStreamed() {
+        final int[] count = new int[1];
+        ClearCaseUtils.getLatestChanges("01-Jan-08.00:00:00", null,
+                view.getAbsolutePath(), ClearCaseUtils.getAntProject(),
+                cleartool.getHome(), new LsHistoryHandler() {
+                    public void onEvent(LsHistoryEvent event) {
+                        count[0]++;
+                    }
+                });
+        return count[0];
+    }
+
+    /**
+     * Run diffbl, parse the activities and versions and describe the
+     * activities.
+     */
+    @Benchmark
+    public List<Commit> diffbl() throws Exception {
+        List<Commit> commits = new ArrayList<Commit>();
+        repository.addChangeSummary("baseline:bl_1@/pvob", "baseline:bl_2@/pvob", commits, "PLAN-1");
+        return commits;
+    }
+}
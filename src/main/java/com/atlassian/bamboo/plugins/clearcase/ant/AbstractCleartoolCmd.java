@@ -1,12 +1,16 @@
 package com.atlassian.bamboo.plugins.clearcase.ant;
 
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
-import org.apache.tools.ant.taskdefs.ExecTask;
-import org.apache.tools.ant.taskdefs.Execute;
 import org.apache.tools.ant.taskdefs.optional.clearcase.ClearCase;
 import org.apache.tools.ant.types.Commandline;
 
@@ -14,11 +18,23 @@ import org.apache.tools.ant.types.Commandline;
  * Class that defines standard behaviour for executing a ClearCase cleartool
  * command from Ant.
  * <p/>
+ * The Ant task is only an adapter, the command is run by
+ * {@link CleartoolExecutor} or a {@link CleartoolSession} without using Ant
+ * to start the process.
+ * <p/>
  * Command behaviour provided is:
  * <ul>
  * <li>Always support failOnError attribute, ie command fails then throw error.</li>
- * <li>support storing command output in to 'output' property and making it
- * Available by {{@link #getCommandOutput()}</li>
+ * <li>capture command output in a {@link CommandOutput} owned by the command
+ * and make it available by {{@link #getCommandOutput()}, it is also stored in
+ * the 'output' project property when one is specified.</li>
+ * <li>capture standard error separately and make it available by
+ * {{@link #getErrorOutput()}.</li>
+ * <li>run on a pooled interactive cleartool session when
+ * {@link CleartoolSessionPool} is enabled, otherwise a new process is started
+ * for each execution.</li>
+ * <li>kill the cleartool process if it runs longer than its timeout, see
+ * {@link CleartoolTimeouts}, or if the calling thread is interrupted.</li>
  * </ul>
  * <p/>
  * Add the following line to log4j configuration file to turn on debug logging
@@ -48,23 +64,24 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
      * The 'lsstream' command
      */
     public static final String COMMAND_LSSTREAM = "lsstream";
+
     /**
-     * The 'lshistory' command
+     * The 'lscomp' command
      */
-    public static final String COMMAND_LSHISTORY = "lshistory";
-
-    public static final String FLAG_FORCE = "-force";
+    public static final String COMMAND_LSCOMP = "lscomp";
 
     /**
-     * A unique number to append to properties for saving output. *
+     * The 'lshistory' command
      */
-    private static int pcnt = 0;
+    public static final String COMMAND_LSHISTORY = "lshistory";
 
-    private String exitCodeProp;
+    public static final String FLAG_FORCE = "-force";
 
     private String output;
 
-    private String outputProp = "";
+    private transient CommandOutput commandOutput = null;
+
+    private transient CommandOutput errorOutput = null;
 
     private String mobjSelect = null;
 
@@ -72,6 +89,10 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
 
     private String cleartoolHome;
 
+    private transient OutputStream outputStream;
+
+    private long timeout = -1;
+
     /**
      * Constructor specify the cleartool command to run.
      *
@@ -131,7 +152,7 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
         int result = 0;
 
         // For debugging
-        getProject().log(commandLine.toString(), Project.MSG_DEBUG);
+        getProject().log(commandLine.describeCommand(), Project.MSG_DEBUG);
 
         if (!getFailOnErr()) {
             getProject().log(
@@ -139,7 +160,7 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
                             + getViewPathBasename(), Project.MSG_VERBOSE);
         }
         result = runI(commandLine);
-        if (Execute.isFailure(result) && getFailOnErr()) {
+        if (result != 0 && getFailOnErr()) {
             String msg = "Failed executing: " + commandLine.toString() + " output[" + getLastOutput() + "]";
             throw new BuildException(msg, getLocation());
         }
@@ -148,19 +169,56 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
     /**
      * Get the output of the last executed command.
      *
-     * @return the output as string.
+     * @return the output as string, null if the command has not been run.
      */
     public String getCommandOutput() {
-        return getProject().getProperty(outputProp);
+        return commandOutput == null ? null : commandOutput.toString();
     }
 
     /**
-     * Return the output of the last executed command.
+     * Get the standard error of the last executed command. Commands run in a
+     * {@link CleartoolSession} have their errors in the command output, when
+     * such a command fails the whole output is also returned here.
+     *
+     * @return the errors as string, null if the command has not been run.
+     */
+    public String getErrorOutput() {
+        return errorOutput == null ? null : errorOutput.toString();
+    }
+
+    /**
+     * Return the output of the last executed command that explains a
+     * failure, the errors if there were any otherwise the command output.
      *
      * @return the last command output.
      */
     public String getLastOutput() {
-        return getProject().getProperty(outputProp);
+        String errors = getErrorOutput();
+        return errors == null || errors.length() == 0 ? getCommandOutput() : errors;
+    }
+
+    /**
+     * Release the output of the last executed command, removing any
+     * temporary file it was written to. Call once the output has been read
+     * when the command is not run again, the output is empty afterwards.
+     */
+    public void dispose() {
+        if (commandOutput != null) {
+            commandOutput.dispose();
+        }
+        if (errorOutput != null) {
+            errorOutput.dispose();
+        }
+    }
+
+    /**
+     * Get the buffer holding the output of the last executed command, use
+     * this to read very large outputs without converting them to a string.
+     *
+     * @return the output, null if the command has not been run.
+     */
+    public CommandOutput getCommandOutputBuffer() {
+        return commandOutput;
     }
 
     /**
@@ -175,54 +233,223 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
     /**
      * Execute the given command, save output and return success or failure.
      * <p/>
-     * The output is save to specified project property or generated on if not
-     * specified. The output is also accessible from {@link #getOutput()}.
+     * The output is captured in a new {@link CommandOutput} for each
+     * execution and is accessible from {@link #getCommandOutput()}, it is
+     * also saved to the project property named by {@link #getOutput()} if
+     * one is specified.
      *
      * @param cmdline command line to execute
-     * @return output of the command line
+     * @return exit code of the command line, -1 if it could not be run
+     * @throws CleartoolTimeoutException if the command ran past its timeout
+     * @throws BuildException if the thread was interrupted while the command ran
      */
     protected int runI(Commandline cmdline) {
-        // set each time teh command is executed to ensure the p
+        // a new buffer each time the command is executed so output from
+        // previous executions is released
         setExecuteOutput();
 
-        ExecTask exe = new ExecTask();
-        exe.setProject(this.getProject());
-        Commandline.Argument arg = exe.createArg();
+        int result = -1;
+        CountingOutputStream streamed = null;
+        long start = System.nanoTime();
+        CleartoolSessionPool pool = CleartoolSessionPool.getInstance();
+        try {
+            if (outputStream != null) {
+                streamed = new CountingOutputStream(outputStream);
+                result = runProcess(cmdline, streamed);
+            } else if (pool.isEnabled() && CleartoolSession.canExecute(cmdline.getArguments())) {
+                result = runInSession(pool, cmdline);
+            } else {
+                result = runProcess(cmdline, commandOutput);
+            }
+        } finally {
+            CleartoolMetrics.getInstance().record(command, System.nanoTime() - start,
+                    result, commandOutput.getSize() + errorOutput.getSize()
+                            + (streamed == null ? 0 : streamed.count));
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new BuildException("Interrupted running cleartool " + command, getLocation());
+        }
+
+        if (getOutput() != null) {
+            getProject().setNewProperty(getOutput(), getCommandOutput());
+        }
+        if (commandOutput.isSpilled()) {
+            getProject().log("Command Ouput: " + commandOutput.getSize() + " bytes",
+                    Project.MSG_DEBUG);
+        } else {
+            getProject().log("Command Ouput: " + getCommandOutput(),
+                    Project.MSG_DEBUG);
+        }
+        return result;
+    }
+
+    /**
+     * Run the command as a new process. Standard error is always written to
+     * the error output, standard output is written to <code>out</code>
+     * which is the command output unless the output is being streamed.
+     *
+     * @param cmdline command line to execute
+     * @param out     the stream standard output is written to
+     * @return the exit code of the command, -1 if it could not be run
+     */
+    private int runProcess(Commandline cmdline, OutputStream out) {
+        File dir = null;
+        if (getViewPath() != null) {
+            File viewDir = new File(getViewPath());
+            if (viewDir.exists()) {
+                dir = viewDir;
+            }
+        }
+
+        try {
+            CleartoolResult result = CleartoolExecutor.getInstance().execute(
+                    Arrays.asList(cmdline.getCommandline()), dir, out, getTimeout());
+            errorOutput.dispose();
+            errorOutput = result.getErrors();
+            return result.getExitCode();
+        } catch (IOException e) {
+            getProject().log("Unable to run " + cmdline.getExecutable() + ": " + e.getMessage(),
+                    Project.MSG_ERR);
+            writeLine(errorOutput, e.getMessage());
+            return -1;
+        } finally {
+            closeOutput();
+        }
+    }
 
+    /**
+     * Run the command on a pooled interactive cleartool session.
+     *
+     * @param pool    the session pool to run on.
+     * @param cmdline command line to execute
+     * @return the exit code of the command, -1 if the session failed.
+     */
+    private int runInSession(CleartoolSessionPool pool, Commandline cmdline) {
+        File dir = null;
         if (getViewPath() != null) {
             File viewDir = new File(getViewPath());
             if (viewDir.exists()) {
-                exe.setDir(viewDir);
+                dir = viewDir;
+            }
+        }
+
+        List<String> lines = new ArrayList<String>();
+        int result;
+        try {
+            result = pool.execute(cmdline.getExecutable(), cmdline.getArguments(), dir, lines,
+                    getTimeout());
+        } catch (IOException e) {
+            getProject().log("cleartool session failed: " + e.getMessage(), Project.MSG_ERR);
+            lines.add(e.getMessage());
+            result = -1;
+        }
+        for (String line : lines) {
+            writeLine(commandOutput, line);
+            if (result != 0) {
+                // errors are merged with the output in a session
+                writeLine(errorOutput, line);
             }
         }
-        exe.setExecutable(cmdline.getExecutable());
-        exe.setResultProperty(exitCodeProp);
-        arg.setLine(Commandline.toString(cmdline.getArguments()));
-        exe.setOutputproperty(outputProp);
-        exe.setFailonerror(false);
-        exe.setFailIfExecutionFails(false);
-        exe.execute();
-
-        getProject().log("Command Ouput: " + getCommandOutput(),
-                Project.MSG_DEBUG);
-
-        return Integer.parseInt(getProject().getProperty(exitCodeProp));
+        closeOutput();
+        return result;
+    }
+
+    /**
+     * Counts the bytes of streamed output for {@link CleartoolMetrics}.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private void writeLine(CommandOutput target, String line) {
+        try {
+            target.writeLine(line);
+        } catch (IOException e) {
+            getProject().log("Unable to store command output: " + e.getMessage(), Project.MSG_ERR);
+        }
+    }
+
+    private void closeOutput() {
+        try {
+            commandOutput.close();
+            errorOutput.close();
+        } catch (IOException e) {
+            getProject().log("Unable to store command output: " + e.getMessage(), Project.MSG_ERR);
+        }
     }
 
     /**
-     * Called by {@link #runI(Commandline)} to set project property to store
-     * output command output in. A new propetry is is generated each time if
-     * the {{@link #getOutput()} property is not set to avoid then name being
-     * the same between executions.
+     * Called by {@link #runI(Commandline)} to create the buffer the command
+     * output is stored in, releasing the output of the previous execution.
      */
     protected void setExecuteOutput() {
-        outputProp = (getOutput() == null) ? "opts.cc.runI.output" + pcnt
-                : getOutput();
-        exitCodeProp = "opts.cc.runI.exitcode" + pcnt++;
+        if (commandOutput != null) {
+            commandOutput.dispose();
+        }
+        if (errorOutput != null) {
+            errorOutput.dispose();
+        }
+        commandOutput = new CommandOutput();
+        errorOutput = new CommandOutput();
+    }
+
+    /**
+     * Set the time the command may run before it is killed, overriding the
+     * default for the command from {@link CleartoolTimeouts}.
+     *
+     * @param timeout the timeout in milliseconds, zero to wait forever.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the time in milliseconds the command may run before it is
+     *         killed, zero if it may run forever.
+     */
+    public long getTimeout() {
+        return timeout < 0 ? CleartoolTimeouts.getTimeout(command) : timeout;
+    }
+
+    /**
+     * Stream standard output of the command to the given stream instead of
+     * storing it, {@link #getCommandOutput()} is then empty and standard
+     * error is still available from {@link #getErrorOutput()}. Streamed
+     * commands always start a new process.
+     *
+     * @param outputStream the stream to write output to, null to store output.
+     */
+    public void setOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * @return the stream output is written to, null if output is stored.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
     }
 
     /**
-     * Store the output prioperty if specified.
+     * Store the output in the named project property after each execution,
+     * as project properties can not be changed only the first execution is
+     * stored.
      *
      * @param output
      */
@@ -250,6 +477,13 @@ public abstract class AbstractCleartoolCmd extends ClearCase implements Serializ
         return mobjSelect;
     }
 
+    /**
+     * @return the cleartool subcommand run.
+     */
+    public String getCommand() {
+        return command;
+    }
+
     /**
      * If true, command will throw an exception on failure.
      *
@@ -0,0 +1,289 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.ValidationException;
+
+/**
+ * Find the root directories of all components needed by a baseline, that is
+ * the component of the baseline and of every baseline it depends on when it
+ * is a composite baseline.
+ * <p>
+ * The <code>depends_on</code> graph is walked breadth first, each level is
+ * described with one <code>lsbl</code> and the components found with one
+ * <code>lscomp</code>, and a baseline shared by several composites is only
+ * visited once. Baselines can not be changed so their component and
+ * dependencies are cached for the life of the server. Component root
+ * directories are cached for the time in milliseconds given by the system
+ * property <code>clearcase.component.roots.ttl</code> (default 12 hours).
+ */
+public class BaselineComponentResolver {
+
+	private static final Logger log = Logger
+			.getLogger(BaselineComponentResolver.class);
+
+	/**
+	 * System property holding the time in milliseconds a component root
+	 * directory is cached.
+	 */
+	public static final String PROP_ROOTS_TTL = "clearcase.component.roots.ttl";
+
+	private static final long ROOTS_TTL = Long.getLong(PROP_ROOTS_TTL,
+			12L * 60 * 60 * 1000).longValue();
+
+	private static final int MAX_CACHED = 10000;
+
+	/**
+	 * Maximum selectors passed to a single command.
+	 */
+	private static final int BATCH_SIZE = 50;
+
+	private static final String DELIM = "|";
+
+	private static final String FMT_BASELINE = "%Xn" + DELIM
+			+ "%[component]Xp" + DELIM + "%[depends_on]Xp\\n";
+
+	private static final String FMT_COMPONENT = "%Xn" + DELIM
+			+ "%[root_dir]p\\n";
+
+	private static final String KIND_COMPONENT = "component";
+
+	private static final Map<String, String> baselineComponents = Collections
+			.synchronizedMap(new LruMap<String, String>());
+
+	private static final Map<String, List<String>> baselineDepends = Collections
+			.synchronizedMap(new LruMap<String, List<String>>());
+
+	private static final Map<String, CachedRoot> componentRoots = Collections
+			.synchronizedMap(new LruMap<String, CachedRoot>());
+
+	private final Project project;
+
+	private final String cleartoolHome;
+
+	/**
+	 * @param project
+	 *            the ant project to run commands against.
+	 * @param cleartoolHome
+	 *            the cleartool installation, may be null.
+	 */
+	public BaselineComponentResolver(Project project, String cleartoolHome) {
+		this.project = project;
+		this.cleartoolHome = cleartoolHome;
+	}
+
+	/**
+	 * Get the root directories of the components required by the baseline.
+	 *
+	 * @param baseline
+	 *            the baseline selector.
+	 * @return the component root directories, rootless components are not
+	 *         included.
+	 * @throws BuildException
+	 *             if an error occurs running the ClearTool command.
+	 */
+	public Set<String> getComponentRoots(String baseline) {
+		Set<String> visited = new HashSet<String>();
+		Set<String> components = new LinkedHashSet<String>();
+		List<String> level = new ArrayList<String>();
+		level.add(normalise(CcSelector.KIND_BASELINE, baseline));
+		visited.addAll(level);
+
+		while (!level.isEmpty()) {
+			describeBaselines(level);
+			List<String> next = new ArrayList<String>();
+			for (String bl : level) {
+				String comp = baselineComponents.get(bl);
+				if (StringUtils.isNotBlank(comp)) {
+					components.add(comp);
+				}
+				List<String> depends = baselineDepends.get(bl);
+				if (depends != null) {
+					for (String child : depends) {
+						if (visited.add(child)) {
+							next.add(child);
+						}
+					}
+				}
+			}
+			level = next;
+		}
+
+		Set<String> roots = new LinkedHashSet<String>();
+		for (Map.Entry<String, String> entry : getRoots(components).entrySet()) {
+			if (StringUtils.isNotBlank(entry.getValue())) {
+				roots.add(entry.getValue());
+			}
+		}
+		return roots;
+	}
+
+	/**
+	 * Make sure the component and dependencies of each baseline are cached.
+	 */
+	private void describeBaselines(List<String> baselines) {
+		List<String> missing = new ArrayList<String>();
+		for (String bl : baselines) {
+			if (!baselineComponents.containsKey(bl)
+					|| !baselineDepends.containsKey(bl)) {
+				missing.add(bl);
+			}
+		}
+		for (List<String> batch : batches(missing)) {
+			for (String[] details : list(AbstractCleartoolCmd.COMMAND_LSBL,
+					FMT_BASELINE, batch)) {
+				String bl = normalise(CcSelector.KIND_BASELINE, details[0]);
+				String comp = details.length > 1
+						&& StringUtils.isNotBlank(details[1]) ? normalise(
+						KIND_COMPONENT, details[1]) : "";
+				List<String> depends = new ArrayList<String>();
+				if (details.length > 2) {
+					for (String child : StringUtils.split(details[2])) {
+						depends.add(normalise(CcSelector.KIND_BASELINE, child));
+					}
+				}
+				baselineComponents.put(bl, comp);
+				baselineDepends.put(bl, Collections.unmodifiableList(depends));
+			}
+		}
+	}
+
+	/**
+	 * Get the root directory of each component using cached values that have
+	 * not expired.
+	 */
+	private Map<String, String> getRoots(Set<String> components) {
+		Map<String, String> rval = new LinkedHashMap<String, String>();
+		List<String> missing = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		for (String comp : components) {
+			CachedRoot cached = componentRoots.get(comp);
+			if (cached != null && now - cached.loaded < ROOTS_TTL) {
+				rval.put(comp, cached.root);
+			} else {
+				missing.add(comp);
+			}
+		}
+		for (List<String> batch : batches(missing)) {
+			Map<String, String> found = new HashMap<String, String>();
+			for (String[] details : list(AbstractCleartoolCmd.COMMAND_LSCOMP,
+					FMT_COMPONENT, batch)) {
+				found.put(normalise(KIND_COMPONENT, details[0]),
+						details.length > 1 ? details[1].trim() : "");
+			}
+			for (String comp : batch) {
+				String root = found.get(normalise(KIND_COMPONENT, comp));
+				if (root == null) {
+					log.warn("No root directory found for component [" + comp
+							+ "]");
+					continue;
+				}
+				componentRoots.put(comp, new CachedRoot(root, now));
+				rval.put(comp, root);
+			}
+		}
+		return rval;
+	}
+
+	/**
+	 * Run a list command on several selectors, returning the output lines
+	 * split on {@link #DELIM}. Package visible so tests can answer without
+	 * ClearCase.
+	 */
+	List<String[]> list(String command, String format,
+			List<String> selectors) {
+		ClearToolListCommand ct = new ClearToolListCommand(command, selectors
+				.toArray(new String[selectors.size()]));
+		ct.setProject(project);
+		ct.setFormat(format);
+		ct.setFailOnErr(true);
+		if (StringUtils.isNotEmpty(cleartoolHome))
+			ct.setClearToolDir(cleartoolHome);
+		String output;
+		try {
+			ct.execute();
+			output = ct.getCommandOutput();
+		} finally {
+			ct.dispose();
+		}
+
+		List<String[]> rval = new ArrayList<String[]>();
+		if (output != null) {
+			for (String line : StringUtils.split(output, "\r\n")) {
+				if (line.trim().length() > 0) {
+					rval.add(line.split("\\|", 3));
+				}
+			}
+		}
+		return rval;
+	}
+
+	private static List<List<String>> batches(List<String> items) {
+		List<List<String>> rval = new ArrayList<List<String>>();
+		for (int i = 0; i < items.size(); i += BATCH_SIZE) {
+			rval.add(items.subList(i, Math.min(items.size(), i + BATCH_SIZE)));
+		}
+		return rval;
+	}
+
+	/**
+	 * Use the fully qualified form of a selector so the same object is
+	 * always found under the same key.
+	 */
+	private static String normalise(String kind, String selector) {
+		try {
+			return new CcSelector(kind, selector.trim()).asSelector();
+		} catch (ValidationException e) {
+			return selector.trim();
+		}
+	}
+
+	/**
+	 * Discard all cached baselines and components.
+	 */
+	public static void clearCache() {
+		baselineComponents.clear();
+		baselineDepends.clear();
+		componentRoots.clear();
+	}
+
+	private static class CachedRoot {
+		private final String root;
+		private final long loaded;
+
+		CachedRoot(String root, long loaded) {
+			this.root = root;
+			this.loaded = loaded;
+		}
+	}
+
+	/**
+	 * Least recently used map limited to {@link #MAX_CACHED} entries.
+	 */
+	private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		LruMap() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > MAX_CACHED;
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package com.atlassian.bamboo.plugins.clearcase.ant;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.BuildException;
@@ -10,12 +14,25 @@ import org.apache.tools.ant.types.Commandline;
  * Add the specified <em>loadRule</em> to the snapshot view specified by
  * <em>viewPath</em>.  The load rule is added by running 
  * <code> cleartool update -add_loadrules {options} ruleToAdd</code>.
+ * <p>
+ * Several rules can be set with {@link #setLoadRules(Collection)}, these are
+ * passed to a single update so the view is only scanned once. If the rules
+ * would make the command line longer than {@link #MAX_RULES_LENGTH}
+ * characters they are split across as few updates as possible.
  */
 public class CcAddLoadRules extends AbstractCleartoolCmd {
 
 	private static final long serialVersionUID = -4169188227948709660L;
 	public static final String FLAG_OVERWRITE = "-overwrite";
-	private String loadRule;
+
+	/**
+	 * Limit on the combined length of the rules passed to one update, kept
+	 * well below the 8191 character Windows command line limit.
+	 */
+	public static final int MAX_RULES_LENGTH = 7000;
+
+	private List<String> loadRules = new ArrayList<String>();
+	private List<String> currentRules = null;
 	private boolean overwrite = true;
 	private boolean force = true;
 	
@@ -26,6 +43,55 @@ public class CcAddLoadRules extends AbstractCleartoolCmd {
 		super(COMMAND_UPDATE);
 	}
 
+	/**
+	 * Run the update for the load rules, one update for each group of rules
+	 * that fits within {@link #MAX_RULES_LENGTH}.
+	 */
+	@Override
+	public void execute() throws BuildException {
+		if(loadRules.isEmpty())
+		{
+			throw new BuildException("loadrule was not specified",getLocation());
+		}
+		try {
+			for (List<String> rules : getRuleGroups()) {
+				currentRules = rules;
+				super.execute();
+			}
+		} finally {
+			currentRules = null;
+		}
+	}
+
+	/**
+	 * Split the load rules into groups that fit on one command line, a rule
+	 * longer than the limit on its own is passed in a group by itself.
+	 */
+	List<List<String>> getRuleGroups() {
+		List<List<String>> groups = new ArrayList<List<String>>();
+		List<String> group = new ArrayList<String>();
+		int length = 0;
+		for (String rule : loadRules) {
+			int ruleLength = getRulePath(rule).length() + 3;
+			if (!group.isEmpty() && length + ruleLength > MAX_RULES_LENGTH) {
+				groups.add(group);
+				group = new ArrayList<String>();
+				length = 0;
+			}
+			group.add(rule);
+			length += ruleLength;
+		}
+		groups.add(group);
+		return groups;
+	}
+
+	/**
+	 * fully qualified path of load rule to add.
+	 */
+	private String getRulePath(String rule) {
+		return getViewPath()+File.separator+rule;
+	}
+
 	/**
 	 * Add the loadrule argument
 	 * @see com.atlassian.bamboo.plugins.clearcase.ant.AbstractCleartoolCmd#setupArguments(org.apache.tools.ant.types.Commandline)
@@ -33,7 +99,8 @@ public class CcAddLoadRules extends AbstractCleartoolCmd {
 	@Override
 	protected void setupArguments(Commandline commandLine)
 			throws BuildException {
-		if(StringUtils.isBlank(loadRule))
+		List<String> rules = currentRules != null ? currentRules : loadRules;
+		if(rules.isEmpty())
 		{
 			throw new BuildException("loadrule was not specified",getLocation());
 		}
@@ -54,22 +121,42 @@ public class CcAddLoadRules extends AbstractCleartoolCmd {
 			commandLine.createArgument().setValue(FLAG_OVERWRITE);
 		}
 		
-		// fully qualified path of load rule to add.
-		commandLine.createArgument().setValue(getViewPath()+File.separator+loadRule);
+		for (String rule : rules) {
+			commandLine.createArgument().setValue(getRulePath(rule));
+		}
 	}
 
 	/**
-	 * @return the loadRule
+	 * @return the first loadRule, null if none are set
 	 */
 	public String getLoadRule() {
-		return loadRule;
+		return loadRules.isEmpty() ? null : loadRules.get(0);
 	}
 
 	/**
-	 * @param loadRule the loadRule to set
+	 * @param loadRule the loadRule to set, replaces any rules already set
 	 */
 	public void setLoadRule(String loadRule) {
-		this.loadRule = loadRule;
+		setLoadRules(Collections.singletonList(loadRule));
+	}
+
+	/**
+	 * @return the load rules to add
+	 */
+	public List<String> getLoadRules() {
+		return Collections.unmodifiableList(loadRules);
+	}
+
+	/**
+	 * @param loadRules the load rules to add, blank rules are ignored
+	 */
+	public void setLoadRules(Collection<String> loadRules) {
+		this.loadRules = new ArrayList<String>();
+		for (String rule : loadRules) {
+			if (StringUtils.isNotBlank(rule)) {
+				this.loadRules.add(rule);
+			}
+		}
 	}
 
 	/**
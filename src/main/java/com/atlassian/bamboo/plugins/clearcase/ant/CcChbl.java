@@ -3,6 +3,10 @@
  */
 package com.atlassian.bamboo.plugins.clearcase.ant;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import org.apache.tools.ant.types.Commandline;
 
 /**
@@ -23,7 +27,13 @@ import org.apache.tools.ant.types.Commandline;
  * <tr>
  * <td>objselect2</td>
  * <td>The ClearCase baseline selector. </td>
- * <td>Yes</td>
+ * <td>Yes, unless baselines are set</td>
+ * </tr>
+ * <tr>
+ * <td>baselines</td>
+ * <td>Several ClearCase baseline selectors changed by one command, used
+ * instead of objselect2.</td>
+ * <td>No</td>
  * </tr>
  * <tr> </table>
  */
@@ -35,6 +45,11 @@ public class CcChbl extends ClearToolListCommand {
 	 * The promotion level to set on the baseline
 	 */
 	private String level;
+
+	/**
+	 * The baselines to change when more than one
+	 */
+	private List<String> baselines = new ArrayList<String>();
 	
 	/**
 	 * The 'chbl' command
@@ -60,7 +75,13 @@ public class CcChbl extends ClearToolListCommand {
 		cmd.createArgument().setValue(OPT_LEVEL);
 		cmd.createArgument().setValue(level);
 		
-		cmd.createArgument().setValue(getObjSelect2());
+		if (baselines.isEmpty()) {
+			cmd.createArgument().setValue(getObjSelect2());
+		} else {
+			for (String baseline : baselines) {
+				cmd.createArgument().setValue(baseline);
+			}
+		}
 	}
 
 	public void setLevel(String level)
@@ -73,4 +94,17 @@ public class CcChbl extends ClearToolListCommand {
 		return this.level;
 	}
 
+	/**
+	 * @param baselines the baseline selectors to change, replaces objselect2.
+	 */
+	public void setBaselines(Collection<String> baselines)
+	{
+		this.baselines = new ArrayList<String>(baselines);
+	}
+
+	public List<String> getBaselines()
+	{
+		return this.baselines;
+	}
+
 }
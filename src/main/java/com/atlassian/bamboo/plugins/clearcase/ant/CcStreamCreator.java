@@ -10,6 +10,9 @@ import org.apache.tools.ant.Task;
 /**
  *  Used to create a build new build stream, by default if the 
  *  stream or view already exist this task has not effect.
+ *  <p>
+ *  Streams and snapshot views recently confirmed to exist are not checked
+ *  with ClearCase again, see {@link ExistenceCache}.
  */
 public class CcStreamCreator extends Task implements CleartoolCommand {
 	
@@ -22,11 +25,17 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 	private boolean readonly = true;
     private boolean dynamicView;
     private String driveLetter;
+    /** the cleartool subcommand last started */
+    private String command;
 
     public void setCleartoolHome(String cleartoolHome) {
         //dummy implementation, not required
     }
 
+    public String getCommand() {
+        return command;
+    }
+
     /**
 	 * Coordinate creating new stream and view if they do not already exist.
 	 * 
@@ -35,14 +44,24 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 	@Override
 	public void execute() throws BuildException {
 		checkSettings();
-		if(!streamExists())
-		{
-			createStream();
+		ExistenceCache cache = ExistenceCache.getInstance();
+		if (!cache.isStreamKnown(getStreamName())) {
+			if(!streamExists())
+			{
+				createStream();
+			}
+			cache.streamExists(getStreamName());
 		}
-		
-		if(!viewExists())
-		{
-			createView();
+
+		if (isDynamicView()
+				|| !cache.isViewKnown(getStreamName(), getViewTag(), getViewLocation())) {
+			if(!viewExists())
+			{
+				createView();
+			}
+			if (!isDynamicView()) {
+				cache.viewExists(getStreamName(), getViewTag(), getViewLocation());
+			}
 		}
 	}
 
@@ -58,6 +77,7 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 		mkview.setViewTag(getViewTag());
 		mkview.setSnapshot(!isDynamicView());
 		mkview.setStream(getStreamName());
+		command = mkview.getCommand();
 		mkview.execute();
 	}
 
@@ -73,6 +93,7 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 		lsview.setProject(getProject());
 		lsview.setObjSelect2(getViewTag());
 		try {
+			command = lsview.getCommand();
 			lsview.execute();
 			rval = true;
 		} catch (BuildException be) {
@@ -100,6 +121,7 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 		mkstream.setObjSelect2(getStreamName());
 		mkstream.setReadOnly(readonly);
 		mkstream.setParentStream(getIntStream());
+		command = mkstream.getCommand();
 		mkstream.execute();
 	}
 
@@ -115,10 +137,11 @@ public class CcStreamCreator extends Task implements CleartoolCommand {
 		lsstream.setProject(getProject());
 		lsstream.setObjSelect2(getStreamName());
 		try {
+			command = lsstream.getCommand();
 			lsstream.execute();
 			rval = true;
 		} catch (BuildException be) {
-			if(lsstream.getCommandOutput().toLowerCase().indexOf(NOT_A_STREAM_MSG) == -1)
+			if(lsstream.getLastOutput().toLowerCase().indexOf(NOT_A_STREAM_MSG) == -1)
 			{
 				throw be;
 			}
@@ -1,6 +1,6 @@
 package com.atlassian.bamboo.plugins.clearcase.ant;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -38,8 +38,12 @@ public class CcUpdateLoadRules extends AbstractCleartoolCmd {
 	private String viewTag;
 	private String explicitLoadRules;
 
+    /**
+     * Load rules are changed by update, it is the command failures are
+     * recorded under.
+     */
     public CcUpdateLoadRules() {
-        super();
+        super(CcUpdateSnapshot.COMMAND_UPDATE);
     }
 
 
@@ -73,30 +77,35 @@ public class CcUpdateLoadRules extends AbstractCleartoolCmd {
 		CcListBlcompRoots listBlRoots = new CcListBlcompRoots();
 		listBlRoots.setProject(getProject());
 		listBlRoots.setBaseline(bl);
+		listBlRoots.setCleartoolHome(getCleartoolHome());
 		listBlRoots.execute();
 		log("Required load rules: " + listBlRoots.getLoadRules(),
 				Project.MSG_VERBOSE);
-		Set<String> toAdd = new HashSet<String>();
+		Set<String> toAdd = new LinkedHashSet<String>();
 		toAdd.addAll(listBlRoots.getLoadRules());
 
-		String[] split = explicitLoadRules.split(System
-				.getProperty("line.separator"));
-		for (String string : split) {
-			toAdd.add(string);
+		if (explicitLoadRules != null) {
+			String[] split = explicitLoadRules.split(System
+					.getProperty("line.separator"));
+			for (String string : split) {
+				toAdd.add(string);
+			}
 		}
 		toAdd.removeAll(currentLoadRules);
+		toAdd.remove("");
 		log("Rules to add to view [" + viewTag + "] : " + toAdd,
 				Project.MSG_DEBUG);
 
-		CcAddLoadRules addLoadRule = new CcAddLoadRules();
-		addLoadRule.setProject(getProject());
-		addLoadRule.setViewPath(getViewPath());
-		addLoadRule.setOverwrite(true);
-		for (String newRule : toAdd) {
-			if (!StringUtils.isEmpty(newRule)) {
-				addLoadRule.setLoadRule(newRule);
-				addLoadRule.execute();
-			}
+		if (!toAdd.isEmpty()) {
+			// all rules in one update so the view is only reloaded once
+			CcAddLoadRules addLoadRule = new CcAddLoadRules();
+			addLoadRule.setProject(getProject());
+			addLoadRule.setViewPath(getViewPath());
+			addLoadRule.setOverwrite(true);
+			if (StringUtils.isNotEmpty(getCleartoolHome()))
+				addLoadRule.setCleartoolHome(getCleartoolHome());
+			addLoadRule.setLoadRules(toAdd);
+			addLoadRule.execute();
 		}
 
 	}
@@ -22,6 +22,8 @@ import com.atlassian.bamboo.plugins.clearcase.utils.StringSplitter;
  */
 public class ClearCaseUtils {
 
+	private static final Log4jListener LOG4J_LISTENER = new Log4jListener();
+
 	public static final String FMT_INTSTREAM = "%[istream]Xp";
 
 	/**
@@ -96,8 +98,9 @@ public class ClearCaseUtils {
 	 */
 	public static Project getAntProject() {
 		Project proj = new Project();
-		// setup a log4j listener to get some feedback
-		proj.addBuildListener(new Log4jListener());
+		// setup a log4j listener to get some feedback, it holds no state so
+		// one is shared by all projects
+		proj.addBuildListener(LOG4J_LISTENER);
 		return proj;
 	}
 
@@ -139,11 +142,17 @@ public class ClearCaseUtils {
 		AbstractTokenProcessor tokenProcessor = new AbstractTokenProcessor(
 				catcs.getCommandOutput()) {
 			@Override
-			protected void processToken(String token) {
-				if (token.startsWith("load ")) {
-					rval.add(token.substring("load ".length()));
+			protected void processToken(CharSequence token) {
+				if (startsWith(token, "load ")) {
+					rval.add(token.subSequence("load ".length(), token.length())
+							.toString());
 				}
 			}
+
+			@Override
+			protected void processToken(String token) {
+				processToken((CharSequence) token);
+			}
 		};
 		tokenProcessor.process();
 		return rval;
@@ -182,6 +191,30 @@ public class ClearCaseUtils {
 		return rval;
 	}
 
+	/**
+	 * Gets the most recently created baseline for a given stream. Only the
+	 * first call for a stream lists all of its baselines, later calls use the
+	 * {@link StreamBaselineIndex}.
+	 * 
+	 * @param stream
+	 *            the stream to find the baseline on.
+	 * @param baselineComp
+	 *            the component storing the baseline that defines this streams
+	 *            configuration normally a non-rooted component.
+	 * @param project
+	 *            the Ant project
+	 * @param cleartoolHome
+	 * @return the latest baseline or null if the stream has no baselines for
+	 *         the component.
+	 * @throws BuildException
+	 *             if an error occurs running the ClearTool command.
+	 */
+	public static String getLatestStreamBaseline(String stream,
+			String baselineComp, Project project, String cleartoolHome) {
+		return StreamBaselineIndex.getInstance().getLatestBaseline(stream,
+				baselineComp, project, cleartoolHome);
+	}
+
 	/**
 	 * Given a snapshot view directory determine the ClearCase view tag.
 	 * 
@@ -241,7 +274,7 @@ public class ClearCaseUtils {
 	 * @throws BuildException
 	 *             if the execution of desc command fails
 	 */
-	private static String runClearToolCommand(Project project, String command,
+	static String runClearToolCommand(Project project, String command,
 			String objectSelector, String fmtString, String viewDir,
 			String cleartoolHome) {
 		return runClearToolCommand(project, command, objectSelector, fmtString,
@@ -278,8 +311,12 @@ public class ClearCaseUtils {
 		ct.setFailOnErr(true);
 		if (StringUtils.isNotEmpty(cleartoolHome))
 			ct.setClearToolDir(cleartoolHome);
-		ct.execute();
-		return ct.getCommandOutput();
+		try {
+			ct.execute();
+			return ct.getCommandOutput();
+		} finally {
+			ct.dispose();
+		}
 	}
 
 	/**
@@ -299,22 +336,9 @@ public class ClearCaseUtils {
 	public static List<String> getLatestChanges(String since, String branch,
 			String vobDir, Project project, String cleartoolHome) {
 
-		// Run the lshistory cleartool command to get the latest changes.
-		// -nco is used so checked out files are ignored.
-		// -r is used so the check will be made recursively from the specified
-		// vobdir down.
-		String[] args;
-		if (StringUtils.isEmpty(branch)) {
-			args = new String[] { "-nco", "-since", since, "-r" };
-		} else {
-
-			args = new String[] { "-nco", "-since", since, "-branch", branch,
-					"-r" };
-		}
-
 		String data = runClearToolCommand(project,
 				ClearToolListCommand.COMMAND_LSHISTORY, "", FMT_LSHISTORY,
-				args, vobDir, cleartoolHome);
+				getLsHistoryArgs(since, branch), vobDir, cleartoolHome);
 
 		StringSplitter stringSplitter = new StringSplitter(data,
 				LSHISTORY_END_OF_RESULT_DELIM, false);
@@ -322,4 +346,65 @@ public class ClearCaseUtils {
 		return stringSplitter.getItems();
 	}
 
+	/**
+	 * Collects the latest changes in a ClearCase base view passing each change
+	 * to the handler as it is read from the lshistory output, unlike
+	 * {@link #getLatestChanges(String, String, String, Project, String)} the
+	 * output is never held in memory as a whole.
+	 * 
+	 * @param since
+	 *            checks for changes since this time.
+	 * @param branch
+	 *            the branch to check.
+	 * @param vobDir
+	 *            checks for changes from this directory.
+	 * @param project
+	 *            ant project to run the command against.
+	 * @param cleartoolHome
+	 * @param handler
+	 *            receives each change.
+	 * @return the number of changes found.
+	 * @throws BuildException
+	 *             if the lshistory command fails.
+	 */
+	public static int getLatestChanges(String since, String branch,
+			String vobDir, Project project, String cleartoolHome,
+			LsHistoryHandler handler) {
+		ClearToolListCommand ct = new ClearToolListCommand(
+				ClearToolListCommand.COMMAND_LSHISTORY, getLsHistoryArgs(
+						since, branch));
+		ct.setProject(project);
+		ct.setFormat(FMT_LSHISTORY);
+		ct.setViewPath(vobDir);
+		ct.setObjSelect2("");
+		ct.setFailOnErr(true);
+		if (StringUtils.isNotEmpty(cleartoolHome))
+			ct.setClearToolDir(cleartoolHome);
+		LsHistoryParser parser = new LsHistoryParser(handler);
+		ct.setOutputStream(parser);
+		ct.execute();
+		parser.close();
+		return parser.getEventCount();
+	}
+
+	/**
+	 * The lshistory arguments to find changes since a date.
+	 * 
+	 * @param since
+	 *            checks for changes since this time.
+	 * @param branch
+	 *            the branch to check, may be empty.
+	 * @return the arguments.
+	 */
+	private static String[] getLsHistoryArgs(String since, String branch) {
+		// Run the lshistory cleartool command to get the latest changes.
+		// -nco is used so checked out files are ignored.
+		// -r is used so the check will be made recursively from the specified
+		// vobdir down.
+		if (StringUtils.isEmpty(branch)) {
+			return new String[] { "-nco", "-since", since, "-r" };
+		}
+		return new String[] { "-nco", "-since", since, "-branch", branch, "-r" };
+	}
+
 }
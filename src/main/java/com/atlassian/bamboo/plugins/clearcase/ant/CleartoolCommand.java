@@ -9,4 +9,10 @@ public interface CleartoolCommand {
     void execute();
 
     String getTaskName();
+
+    /**
+     * @return the cleartool subcommand run, for a task that runs several the
+     *         last one started.
+     */
+    String getCommand();
 }
@@ -0,0 +1,306 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a cleartool process with {@link ProcessBuilder}, without going through
+ * Ant. The command is given as an argument list so nothing is quoted or
+ * parsed again, and standard output and standard error are read separately.
+ * <p>
+ * Both streams are read by shared pool threads while the calling thread
+ * waits for the process. A process that runs past its timeout, or whose
+ * calling thread is interrupted, is killed. Its output is then only read for
+ * a short time more, as a child process may keep the streams open.
+ */
+public class CleartoolExecutor {
+
+	private static final Logger log = Logger.getLogger(CleartoolExecutor.class);
+
+	/**
+	 * How often running commands are checked for timeout or interruption.
+	 */
+	private static final long WATCHDOG_PERIOD = 1000;
+
+	/**
+	 * Milliseconds to keep reading the output of a killed process.
+	 */
+	private static final long DRAIN_TIMEOUT = 2000;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final CleartoolExecutor INSTANCE = new CleartoolExecutor();
+
+	private Timer watchdog = null;
+
+	private ExecutorService readers = null;
+
+	CleartoolExecutor() {
+	}
+
+	/**
+	 * @return the executor shared by all commands.
+	 */
+	public static CleartoolExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Stop the watchdog and output reader threads of the shared executor,
+	 * they are started again by the next command.
+	 */
+	public static void shutdown() {
+		INSTANCE.stop();
+	}
+
+	synchronized void stop() {
+		if (watchdog != null) {
+			watchdog.cancel();
+			watchdog = null;
+		}
+		if (readers != null) {
+			readers.shutdownNow();
+			readers = null;
+		}
+	}
+
+	private synchronized Timer getWatchdog() {
+		if (watchdog == null) {
+			watchdog = new Timer("cleartool-watchdog", true);
+		}
+		return watchdog;
+	}
+
+	private synchronized ExecutorService getReaders() {
+		if (readers == null) {
+			readers = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "cleartool-output");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return readers;
+	}
+
+	/**
+	 * Run a command and wait for it to complete.
+	 *
+	 * @param argv
+	 *            the cleartool executable followed by its arguments.
+	 * @param dir
+	 *            the working directory, null for the current directory.
+	 * @param out
+	 *            the stream standard output is written to, null to store it
+	 *            in the result.
+	 * @param timeout
+	 *            milliseconds to wait before killing the process, zero to
+	 *            wait forever.
+	 * @return the exit code, duration and output of the command. If the
+	 *         calling thread was interrupted the process has been killed, the
+	 *         exit code is -1 and the thread is still interrupted.
+	 * @throws IOException
+	 *             if the process can not be started or its output read.
+	 * @throws CleartoolTimeoutException
+	 *             if the command did not complete in time.
+	 */
+	public CleartoolResult execute(List<String> argv, File dir,
+			OutputStream out, long timeout) throws IOException {
+		String command = argv.size() > 1 ? argv.get(1) : argv.get(0);
+		CommandOutput output = out == null ? new CommandOutput() : null;
+		CommandOutput errors = new CommandOutput();
+		long start = System.nanoTime();
+
+		ProcessBuilder pb = new ProcessBuilder(argv);
+		if (dir != null) {
+			pb.directory(dir);
+		}
+		Process process = pb.start();
+		Watch watch = new Watch(process, Thread.currentThread(), timeout);
+		getWatchdog().schedule(watch, WATCHDOG_PERIOD, WATCHDOG_PERIOD);
+		Pump outPump = new Pump(process.getInputStream(), output != null ? output : out);
+		Pump errorPump = new Pump(process.getErrorStream(), errors);
+		int exitCode;
+		boolean read = false;
+		try {
+			process.getOutputStream().close();
+			ExecutorService readers = getReaders();
+			Future<?> outReader = readers.submit(outPump);
+			Future<?> errorReader = readers.submit(errorPump);
+			try {
+				exitCode = process.waitFor();
+			} catch (InterruptedException e) {
+				log.warn("Killing cleartool " + command + ", thread interrupted");
+				process.destroy();
+				watch.interrupted = true;
+				exitCode = -1;
+			}
+			watch.cancel();
+			boolean killed = watch.timedOut || watch.interrupted;
+			if (!drain(outReader, killed) || !drain(errorReader, killed)) {
+				log.warn("Stopped reading output of killed cleartool " + command);
+			}
+			read = true;
+		} finally {
+			watch.cancel();
+			outPump.stop();
+			errorPump.stop();
+			close(output);
+			close(errors);
+			if (!read) {
+				dispose(output);
+				dispose(errors);
+			}
+		}
+		if (outPump.error != null || watch.timedOut) {
+			dispose(output);
+			dispose(errors);
+			if (outPump.error != null) {
+				throw outPump.error;
+			}
+			throw new CleartoolTimeoutException(command, timeout);
+		}
+		if (watch.interrupted) {
+			Thread.currentThread().interrupt();
+			exitCode = -1;
+		}
+		return new CleartoolResult(exitCode, System.nanoTime() - start,
+				output, errors);
+	}
+
+	/**
+	 * Wait for a stream to be read to its end.
+	 *
+	 * @return false if the process was killed and the stream is still open.
+	 */
+	private static boolean drain(Future<?> reader, boolean killed)
+			throws IOException {
+		try {
+			if (killed) {
+				reader.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+			} else {
+				reader.get();
+			}
+			return true;
+		} catch (TimeoutException e) {
+			reader.cancel(true);
+			return false;
+		} catch (ExecutionException e) {
+			throw (IOException) new IOException("Unable to read cleartool output")
+					.initCause(e.getCause());
+		} catch (InterruptedException e) {
+			// the process has already exited or been killed
+			Thread.currentThread().interrupt();
+			reader.cancel(true);
+			return false;
+		}
+	}
+
+	private static void dispose(CommandOutput output) {
+		if (output != null) {
+			output.dispose();
+		}
+	}
+
+	private static void close(CommandOutput output) {
+		if (output != null) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				log.warn("Unable to store command output: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Copies a stream of the process.
+	 */
+	private static class Pump implements Runnable {
+		private final InputStream in;
+		private final OutputStream out;
+		private volatile boolean stopped = false;
+		private volatile IOException error;
+
+		Pump(InputStream in, OutputStream out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		public void run() {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1 && !stopped) {
+					out.write(buffer, 0, read);
+				}
+				out.flush();
+			} catch (IOException e) {
+				if (!stopped) {
+					error = e;
+				}
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing more to do
+				}
+			}
+		}
+
+		/**
+		 * Discard anything read after the command returned.
+		 */
+		void stop() {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * Kills the process if it runs past its deadline or the calling thread is
+	 * interrupted.
+	 */
+	private static class Watch extends TimerTask {
+		private final Process process;
+		private final Thread caller;
+		private final long deadline;
+		private volatile boolean timedOut = false;
+		private volatile boolean interrupted = false;
+
+		Watch(Process process, Thread caller, long timeout) {
+			this.process = process;
+			this.caller = caller;
+			this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+					: Long.MAX_VALUE;
+		}
+
+		@Override
+		public void run() {
+			if (System.currentTimeMillis() >= deadline) {
+				timedOut = true;
+			} else if (caller.isInterrupted()) {
+				interrupted = true;
+			} else {
+				return;
+			}
+			cancel();
+			log.warn("Killing cleartool process, "
+					+ (timedOut ? "command timed out" : "thread interrupted"));
+			process.destroy();
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counts, wall time histograms, exit codes and output volume of every
+ * cleartool command run, by subcommand and by the plan that ran it.
+ * <p>
+ * The plan is taken from the thread running the command, set with
+ * {@link #enterPlan(String)} by the repository before it runs commands for a
+ * plan. Statistics are available through JMX as
+ * <code>com.atlassian.bamboo.plugins.clearcase:type=CleartoolMetrics</code>
+ * and are logged at info level every <code>clearcase.metrics.interval</code>
+ * seconds (default 900, 0 to turn off) when commands have been run. Both
+ * are started by {@link #start()} when the plugin is set up in Bamboo, so
+ * loading the class elsewhere has no side effects, and stopped by
+ * {@link #shutdown()} when the plugin is disabled.
+ */
+public class CleartoolMetrics implements CleartoolMetricsMBean {
+
+	private static final Logger log = Logger.getLogger(CleartoolMetrics.class);
+
+	/**
+	 * System property holding the seconds between logged summaries.
+	 */
+	public static final String PROP_LOG_INTERVAL = "clearcase.metrics.interval";
+
+	/**
+	 * The name the metrics are registered under with the platform MBean
+	 * server.
+	 */
+	public static final String OBJECT_NAME = "com.atlassian.bamboo.plugins.clearcase:type=CleartoolMetrics";
+
+	/**
+	 * Upper bounds in milliseconds of the histogram buckets, times above the
+	 * last bound go in a final overflow bucket.
+	 */
+	private static final long[] BUCKETS = { 1, 2, 3, 5, 7, 10, 15, 20, 30, 50,
+			75, 100, 150, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000,
+			7500, 10000, 15000, 20000, 30000, 60000, 120000, 300000, 600000,
+			1800000, 3600000 };
+
+	private static final CleartoolMetrics INSTANCE = new CleartoolMetrics();
+
+	private static final ThreadLocal<String> currentPlan = new ThreadLocal<String>();
+
+	private static boolean started = false;
+
+	private static Timer timer = null;
+
+	private final ConcurrentMap<String, Stats> commands = new ConcurrentHashMap<String, Stats>();
+
+	private final ConcurrentMap<String, Stats> plans = new ConcurrentHashMap<String, Stats>();
+
+	private final AtomicLong lastLoggedCount = new AtomicLong();
+
+	CleartoolMetrics() {
+	}
+
+	/**
+	 * @return the metrics shared by all commands.
+	 */
+	public static CleartoolMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Register the metrics with JMX and start logging summaries, does nothing
+	 * if they already are.
+	 */
+	public static synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		INSTANCE.register();
+		timer = scheduleLogging(Long.getLong(PROP_LOG_INTERVAL, 900L)
+				.longValue());
+	}
+
+	/**
+	 * Stop logging summaries and remove the metrics from JMX, so neither
+	 * keeps the classes of a disabled plugin loaded. Statistics are kept and
+	 * are available again after {@link #start()}.
+	 */
+	public static synchronized void shutdown() {
+		if (!started) {
+			return;
+		}
+		started = false;
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		INSTANCE.unregister();
+	}
+
+	/**
+	 * Attribute commands run by this thread to a plan.
+	 *
+	 * @param plan
+	 *            the plan key.
+	 * @return the plan previously set, to be passed to
+	 *         {@link #exitPlan(String)}.
+	 */
+	public static String enterPlan(String plan) {
+		String previous = currentPlan.get();
+		currentPlan.set(plan);
+		return previous;
+	}
+
+	/**
+	 * Restore the plan that was set before {@link #enterPlan(String)}.
+	 *
+	 * @param previous
+	 *            the value returned by {@link #enterPlan(String)}.
+	 */
+	public static void exitPlan(String previous) {
+		if (previous == null) {
+			currentPlan.remove();
+		} else {
+			currentPlan.set(previous);
+		}
+	}
+
+	/**
+	 * @return the plan commands run by this thread are attributed to, null
+	 *         if none.
+	 */
+	public static String getCurrentPlan() {
+		return currentPlan.get();
+	}
+
+	/**
+	 * Record a completed command.
+	 *
+	 * @param command
+	 *            the cleartool subcommand.
+	 * @param nanos
+	 *            the wall time taken.
+	 * @param exitCode
+	 *            the exit code, -1 if the command could not be run.
+	 * @param outputBytes
+	 *            the number of bytes of output.
+	 */
+	public void record(String command, long nanos, int exitCode,
+			long outputBytes) {
+		long millis = nanos / 1000000L;
+		getStats(commands, command).record(millis, exitCode, outputBytes);
+		String plan = currentPlan.get();
+		if (plan != null) {
+			getStats(plans, plan).record(millis, exitCode, outputBytes);
+		}
+	}
+
+	/**
+	 * Record a command failure reported to Bamboo.
+	 *
+	 * @param command
+	 *            the cleartool subcommand.
+	 */
+	public void recordFailure(String command) {
+		getStats(commands, command).failures.incrementAndGet();
+		String plan = currentPlan.get();
+		if (plan != null) {
+			getStats(plans, plan).failures.incrementAndGet();
+		}
+	}
+
+	private static Stats getStats(ConcurrentMap<String, Stats> map,
+			String key) {
+		if (key == null) {
+			key = "unknown";
+		}
+		Stats stats = map.get(key);
+		if (stats == null) {
+			Stats created = new Stats();
+			stats = map.putIfAbsent(key, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	public String[] getCommandNames() {
+		return sortedKeys(commands);
+	}
+
+	public String[] getPlanNames() {
+		return sortedKeys(plans);
+	}
+
+	private static String[] sortedKeys(Map<String, Stats> map) {
+		String[] keys = map.keySet().toArray(new String[0]);
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-24s %8s %6s %10s %8s %8s %8s %8s %12s %s%n",
+				"command/plan", "count", "fail", "total ms", "p50", "p95",
+				"p99", "max", "bytes", "exit codes"));
+		appendRows(sb, commands, "");
+		appendRows(sb, plans, "plan ");
+		return sb.toString();
+	}
+
+	private static void appendRows(StringBuilder sb, Map<String, Stats> map,
+			String prefix) {
+		for (String key : sortedKeys(map)) {
+			Stats s = map.get(key);
+			sb.append(String.format(
+					"%-24s %8d %6d %10d %8d %8d %8d %8d %12d %s%n", prefix
+							+ key, s.count.get(), s.failures.get(), s.total
+							.get(), s.percentile(0.50), s.percentile(0.95), s
+							.percentile(0.99), s.max.get(), s.bytes.get(), s
+							.exitCodes()));
+		}
+	}
+
+	public long getCount(String command) {
+		return find(commands, command).count.get();
+	}
+
+	public long getFailureCount(String command) {
+		return find(commands, command).failures.get();
+	}
+
+	public long getTotalMillis(String command) {
+		return find(commands, command).total.get();
+	}
+
+	public long getP50Millis(String command) {
+		return find(commands, command).percentile(0.50);
+	}
+
+	public long getP95Millis(String command) {
+		return find(commands, command).percentile(0.95);
+	}
+
+	public long getP99Millis(String command) {
+		return find(commands, command).percentile(0.99);
+	}
+
+	public long getMaxMillis(String command) {
+		return find(commands, command).max.get();
+	}
+
+	public long getOutputBytes(String command) {
+		return find(commands, command).bytes.get();
+	}
+
+	public String getExitCodes(String command) {
+		return find(commands, command).exitCodes();
+	}
+
+	public long getPlanCount(String plan) {
+		return find(plans, plan).count.get();
+	}
+
+	public long getPlanTotalMillis(String plan) {
+		return find(plans, plan).total.get();
+	}
+
+	public long getPlanP95Millis(String plan) {
+		return find(plans, plan).percentile(0.95);
+	}
+
+	private static Stats find(Map<String, Stats> map, String key) {
+		Stats stats = map.get(key);
+		return stats == null ? new Stats() : stats;
+	}
+
+	public void reset() {
+		commands.clear();
+		plans.clear();
+		lastLoggedCount.set(0);
+	}
+
+	/**
+	 * Register with the platform MBean server, replacing any instance left
+	 * from a previous load of the plugin.
+	 */
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			log.warn("Unable to register cleartool metrics with JMX", e);
+		}
+	}
+
+	private void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warn("Unable to unregister cleartool metrics from JMX", e);
+		}
+	}
+
+	/**
+	 * @return the timer logging the summary, null if it is not logged.
+	 */
+	private static Timer scheduleLogging(long intervalSeconds) {
+		if (intervalSeconds <= 0) {
+			return null;
+		}
+		long period = intervalSeconds * 1000L;
+		Timer rval = new Timer("cleartool-metrics", true);
+		rval.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				INSTANCE.logSummary();
+			}
+		}, period, period);
+		return rval;
+	}
+
+	/**
+	 * Log the summary if any commands have been run since it was last
+	 * logged.
+	 */
+	void logSummary() {
+		long count = 0;
+		for (Stats stats : commands.values()) {
+			count += stats.count.get();
+		}
+		if (count != lastLoggedCount.getAndSet(count) && log.isInfoEnabled()) {
+			log.info("cleartool command statistics:\n" + getSummary());
+		}
+	}
+
+	/**
+	 * Statistics for one subcommand or plan.
+	 */
+	static class Stats {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(
+				BUCKETS.length + 1);
+		private final ConcurrentMap<Integer, AtomicLong> exitCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+
+		void record(long millis, int exitCode, long outputBytes) {
+			count.incrementAndGet();
+			total.addAndGet(millis);
+			bytes.addAndGet(outputBytes);
+			histogram.incrementAndGet(bucket(millis));
+			long current;
+			while (millis > (current = max.get())
+					&& !max.compareAndSet(current, millis)) {
+				// retry
+			}
+			AtomicLong codeCount = exitCodes.get(exitCode);
+			if (codeCount == null) {
+				AtomicLong created = new AtomicLong();
+				codeCount = exitCodes.putIfAbsent(exitCode, created);
+				if (codeCount == null) {
+					codeCount = created;
+				}
+			}
+			codeCount.incrementAndGet();
+		}
+
+		private static int bucket(long millis) {
+			int i = Arrays.binarySearch(BUCKETS, millis);
+			return i >= 0 ? i : -i - 1;
+		}
+
+		/**
+		 * @return the upper bound of the bucket holding the percentile, or
+		 *         the maximum if it is in the overflow bucket.
+		 */
+		long percentile(double fraction) {
+			long n = 0;
+			for (int i = 0; i < histogram.length(); i++) {
+				n += histogram.get(i);
+			}
+			if (n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				seen += histogram.get(i);
+				if (seen >= rank) {
+					return Math.min(BUCKETS[i], max.get());
+				}
+			}
+			return max.get();
+		}
+
+		String exitCodes() {
+			return new TreeMap<Integer, AtomicLong>(exitCodes).toString();
+		}
+	}
+}
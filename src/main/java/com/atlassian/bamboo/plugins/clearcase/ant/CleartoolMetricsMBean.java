@@ -0,0 +1,57 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+/**
+ * JMX view of {@link CleartoolMetrics}. Times are in milliseconds, the
+ * percentiles are the upper bound of the histogram bucket the percentile
+ * falls in.
+ */
+public interface CleartoolMetricsMBean {
+
+	/**
+	 * @return the cleartool subcommands that have been run.
+	 */
+	String[] getCommandNames();
+
+	/**
+	 * @return the plans that have run cleartool commands.
+	 */
+	String[] getPlanNames();
+
+	/**
+	 * @return a table of the statistics for every subcommand and plan.
+	 */
+	String getSummary();
+
+	long getCount(String command);
+
+	long getFailureCount(String command);
+
+	long getTotalMillis(String command);
+
+	long getP50Millis(String command);
+
+	long getP95Millis(String command);
+
+	long getP99Millis(String command);
+
+	long getMaxMillis(String command);
+
+	long getOutputBytes(String command);
+
+	/**
+	 * @return the number of times each exit code was returned, as
+	 *         <code>code=count</code> pairs.
+	 */
+	String getExitCodes(String command);
+
+	long getPlanCount(String plan);
+
+	long getPlanTotalMillis(String plan);
+
+	long getPlanP95Millis(String plan);
+
+	/**
+	 * Discard all statistics.
+	 */
+	void reset();
+}
@@ -0,0 +1,124 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+/**
+ * An immutable description of a cleartool list command, such as
+ * <code>cleartool describe -fmt %Xn</code>, that is run on a selector.
+ * <p>
+ * A query holds no output, each call creates and runs its own command so one
+ * query can be shared by threads polling or validating at the same time.
+ * Use {@link #newCommand(Project, String, String, String)} to read the error
+ * output of a failed command, or {@link #run(Project, String, String, String)}
+ * when only the output of a successful command is wanted.
+ */
+public final class CleartoolQuery {
+
+	/**
+	 * <code>cleartool describe -fmt %Xn</code>, the qualified selector of an
+	 * object, fails if the object does not exist.
+	 */
+	public static final CleartoolQuery DESCRIBE_NAME = describe("%Xn");
+
+	/**
+	 * <code>cleartool lsproject -fmt %Xn</code>, the qualified selector of a
+	 * project, fails if the project does not exist.
+	 */
+	public static final CleartoolQuery LSPROJECT_NAME = lsproject("%Xn");
+
+	private final String command;
+
+	private final String format;
+
+	/**
+	 * @param command
+	 *            the cleartool command, eg
+	 *            {@link AbstractCleartoolCmd#COMMAND_DESC}.
+	 * @param format
+	 *            the -fmt string, null for the command default.
+	 */
+	public CleartoolQuery(String command, String format) {
+		this.command = command;
+		this.format = format;
+	}
+
+	/**
+	 * @param format the -fmt string, null for the command default.
+	 * @return a query running <code>cleartool describe</code>.
+	 */
+	public static CleartoolQuery describe(String format) {
+		return new CleartoolQuery(AbstractCleartoolCmd.COMMAND_DESC, format);
+	}
+
+	/**
+	 * @param format the -fmt string, null for the command default.
+	 * @return a query running <code>cleartool lsproject</code>.
+	 */
+	public static CleartoolQuery lsproject(String format) {
+		return new CleartoolQuery(CcLsproject.COMMAND_LSPROJECT, format);
+	}
+
+	/**
+	 * Create a command for a single run of this query, the command is not
+	 * shared so its output can be read once it has been executed.
+	 *
+	 * @param project
+	 *            the ant project the command runs in.
+	 * @param cleartoolHome
+	 *            the directory of cleartool, null or empty to use the path.
+	 * @param viewPath
+	 *            the working directory, null for the current directory.
+	 * @param selector
+	 *            the object to list.
+	 * @return a new command that fails on error.
+	 */
+	public ClearToolListCommand newCommand(Project project,
+			String cleartoolHome, String viewPath, String selector) {
+		ClearToolListCommand cmd = new ClearToolListCommand(command);
+		cmd.setProject(project);
+		cmd.setTaskName(command);
+		if (cleartoolHome != null && cleartoolHome.length() > 0) {
+			cmd.setCleartoolHome(cleartoolHome);
+		}
+		if (viewPath != null) {
+			cmd.setViewPath(viewPath);
+		}
+		cmd.setFormat(format);
+		cmd.setFailOnErr(true);
+		cmd.setObjSelect2(selector);
+		return cmd;
+	}
+
+	/**
+	 * Run the query on a selector.
+	 *
+	 * @return the output of the command.
+	 * @throws BuildException
+	 *             if the command failed, the message includes its error output.
+	 * @see #newCommand(Project, String, String, String)
+	 */
+	public String run(Project project, String cleartoolHome, String viewPath,
+			String selector) throws BuildException {
+		ClearToolListCommand cmd = newCommand(project, cleartoolHome, viewPath,
+				selector);
+		try {
+			cmd.execute();
+			return cmd.getCommandOutput();
+		} finally {
+			cmd.dispose();
+		}
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public String toString() {
+		return "cleartool " + command + (format != null ? " -fmt " + format : "");
+	}
+}
@@ -0,0 +1,71 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+/**
+ * The outcome of a cleartool process run by {@link CleartoolExecutor}.
+ */
+public class CleartoolResult {
+
+	private final int exitCode;
+
+	private final long durationNanos;
+
+	private final CommandOutput output;
+
+	private final CommandOutput errors;
+
+	/**
+	 * @param exitCode
+	 *            the process exit code, -1 if it was killed because the
+	 *            calling thread was interrupted.
+	 * @param durationNanos
+	 *            the time the process ran for.
+	 * @param output
+	 *            standard output, null if it was written to a caller's
+	 *            stream.
+	 * @param errors
+	 *            standard error.
+	 */
+	public CleartoolResult(int exitCode, long durationNanos,
+			CommandOutput output, CommandOutput errors) {
+		this.exitCode = exitCode;
+		this.durationNanos = durationNanos;
+		this.output = output;
+		this.errors = errors;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * @return true if cleartool exited with status zero.
+	 */
+	public boolean isSuccess() {
+		return exitCode == 0;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public long getDurationMillis() {
+		return durationNanos / 1000000L;
+	}
+
+	/**
+	 * @return standard output, null if it was written to the stream passed to
+	 *         {@link CleartoolExecutor}. The caller must
+	 *         {@link CommandOutput#dispose()} it when done.
+	 */
+	public CommandOutput getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return standard error, never null. The caller must
+	 *         {@link CommandOutput#dispose()} it when done.
+	 */
+	public CommandOutput getErrors() {
+		return errors;
+	}
+}
@@ -0,0 +1,319 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A long running <code>cleartool</code> process started in interactive mode
+ * that commands are written to via stdin.
+ * <p>
+ * The process is started with the <code>-status</code> flag so cleartool
+ * writes the line <code>Command N returned status S</code> after each
+ * command, this line is used as the sentinel that marks the end of a
+ * command's output and supplies the exit status. Standard error is merged
+ * with standard output so error text is part of the command output as it is
+ * when running via {@link org.apache.tools.ant.taskdefs.ExecTask}.
+ * <p>
+ * A session runs one command at a time, use {@link CleartoolSessionPool} to
+ * share sessions between threads. A command that runs past its timeout or
+ * whose calling thread is interrupted has its session process killed, as
+ * reads from the process can not be interrupted.
+ */
+public class CleartoolSession {
+
+	private static final Logger log = Logger.getLogger(CleartoolSession.class);
+
+	/**
+	 * Matches the status sentinel at the end of a line, output of commands
+	 * using -fmt without a trailing new line is on the same line.
+	 */
+	private static final Pattern STATUS_LINE = Pattern
+			.compile("Command (\\d+) returned status (-?\\d+)\\s*$");
+
+	private static final String PROMPT = "cleartool> ";
+
+	private static final String FLAG_STATUS = "-status";
+
+	private static final String COMMAND_CD = "cd";
+
+	private static final String COMMAND_QUIT = "quit";
+
+	/**
+	 * How often running commands are checked for timeout or interruption.
+	 */
+	private static final long WATCHDOG_PERIOD = 1000;
+
+	private static Timer watchdog = null;
+
+	private final String executable;
+
+	private final Process process;
+
+	private final BufferedReader reader;
+
+	private final Writer writer;
+
+	private int lastCommandNumber = 0;
+
+	/**
+	 * The directory the process was started in, commands without a working
+	 * directory run here as they would in a process of their own.
+	 */
+	private final String startDir = new File("").getAbsolutePath();
+
+	private String currentDir = startDir;
+
+	private volatile boolean broken = false;
+
+	private volatile boolean timedOut = false;
+
+	private volatile boolean interrupted = false;
+
+	/**
+	 * Start a new interactive cleartool process.
+	 *
+	 * @param executable
+	 *            the cleartool executable to run.
+	 * @throws IOException
+	 *             if the process can not be started.
+	 */
+	public CleartoolSession(String executable) throws IOException {
+		this.executable = executable;
+		ProcessBuilder pb = new ProcessBuilder(executable, FLAG_STATUS);
+		pb.redirectErrorStream(true);
+		process = pb.start();
+		reader = new BufferedReader(new InputStreamReader(process
+				.getInputStream()));
+		writer = new BufferedWriter(new OutputStreamWriter(process
+				.getOutputStream()));
+		log.debug("Started cleartool session [" + executable + "]");
+	}
+
+	/**
+	 * Test if the arguments can be sent on a single interactive command line.
+	 *
+	 * @param args
+	 *            the command arguments.
+	 * @return false if any argument contains a line break.
+	 */
+	public static boolean canExecute(String[] args) {
+		for (String arg : args) {
+			if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Run a cleartool command in this session.
+	 *
+	 * @param args
+	 *            the cleartool arguments, first being the command name.
+	 * @param dir
+	 *            the working directory for the command, null for the directory
+	 *            the session was started in.
+	 * @param output
+	 *            the list output lines are added to.
+	 * @param timeout
+	 *            milliseconds to wait for the command before killing the
+	 *            session, zero to wait forever.
+	 * @return the exit status reported by cleartool.
+	 * @throws IOException
+	 *             if the session failed or the calling thread was
+	 *             interrupted, the session must not be reused.
+	 * @throws CleartoolTimeoutException
+	 *             if the command did not complete in time, the session has
+	 *             been killed.
+	 */
+	public synchronized int execute(String[] args, File dir,
+			List<String> output, long timeout) throws IOException {
+		TimerTask task = startWatchdog(Thread.currentThread(), timeout);
+		try {
+			String target = dir != null ? dir.getAbsolutePath() : startDir;
+			if (!target.equals(currentDir)) {
+				List<String> cdOutput = new ArrayList<String>();
+				int status = send(new String[] { COMMAND_CD, target },
+						cdOutput);
+				if (status != 0) {
+					throw new IOException("Unable to change directory to ["
+							+ target + "] " + cdOutput);
+				}
+				currentDir = target;
+			}
+			return send(args, output);
+		} catch (IOException e) {
+			broken = true;
+			if (timedOut) {
+				throw new CleartoolTimeoutException(args[0], timeout);
+			}
+			if (interrupted) {
+				throw new IOException("Interrupted running cleartool " + args[0]);
+			}
+			throw e;
+		} finally {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Kill the process if the command runs past its deadline or the thread
+	 * running it is interrupted.
+	 */
+	private TimerTask startWatchdog(final Thread caller, long timeout) {
+		final long deadline = timeout > 0 ? System.currentTimeMillis()
+				+ timeout : Long.MAX_VALUE;
+		TimerTask task = new TimerTask() {
+			@Override
+			public void run() {
+				if (System.currentTimeMillis() >= deadline) {
+					timedOut = true;
+				} else if (caller.isInterrupted()) {
+					interrupted = true;
+				} else {
+					return;
+				}
+				cancel();
+				broken = true;
+				log.warn("Killing cleartool session [" + executable + "], "
+						+ (timedOut ? "command timed out" : "thread interrupted"));
+				process.destroy();
+			}
+		};
+		getWatchdog().schedule(task, WATCHDOG_PERIOD, WATCHDOG_PERIOD);
+		return task;
+	}
+
+	private static synchronized Timer getWatchdog() {
+		if (watchdog == null) {
+			watchdog = new Timer("cleartool-session-watchdog", true);
+		}
+		return watchdog;
+	}
+
+	/**
+	 * Stop the thread watching commands of all sessions, it is started
+	 * again by the next command.
+	 */
+	static synchronized void stopWatchdog() {
+		if (watchdog != null) {
+			watchdog.cancel();
+			watchdog = null;
+		}
+	}
+
+	/**
+	 * Write the command and read output up to the status sentinel.
+	 */
+	private int send(String[] args, List<String> output) throws IOException {
+		writer.write(toCommandLine(args));
+		writer.write('\n');
+		writer.flush();
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = stripPrompt(line);
+			Matcher m = STATUS_LINE.matcher(line);
+			if (m.find()) {
+				int commandNumber = Integer.parseInt(m.group(1));
+				if (commandNumber <= lastCommandNumber) {
+					throw new IOException("Out of sequence status [" + line
+							+ "] expected command after " + lastCommandNumber);
+				}
+				lastCommandNumber = commandNumber;
+				String fragment = line.substring(0, m.start());
+				if (fragment.length() > 0) {
+					output.add(fragment);
+				}
+				return Integer.parseInt(m.group(2));
+			}
+			output.add(line);
+		}
+		throw new IOException("cleartool session ended unexpectedly");
+	}
+
+	/**
+	 * Remove any interactive prompts at the start of the line.
+	 */
+	private String stripPrompt(String line) {
+		while (line.startsWith(PROMPT)) {
+			line = line.substring(PROMPT.length());
+		}
+		return line;
+	}
+
+	/**
+	 * Quote the arguments so cleartool's interactive parser sees the same
+	 * arguments as would be passed to a new process.
+	 */
+	static String toCommandLine(String[] args) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			String arg = args[i];
+			if (arg.length() > 0 && arg.indexOf(' ') == -1
+					&& arg.indexOf('\t') == -1 && arg.indexOf('"') == -1
+					&& arg.indexOf('\'') == -1) {
+				sb.append(arg);
+			} else if (arg.indexOf('\'') == -1) {
+				sb.append('\'').append(arg).append('\'');
+			} else {
+				sb.append('"').append(arg.replace("\"", "\\\"")).append('"');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return true if the session can accept further commands.
+	 */
+	public boolean isUsable() {
+		if (broken) {
+			return false;
+		}
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			// still running
+			return true;
+		}
+	}
+
+	/**
+	 * Ask cleartool to quit and make sure the process is gone.
+	 */
+	public void close() {
+		try {
+			writer.write(COMMAND_QUIT);
+			writer.write('\n');
+			writer.flush();
+		} catch (IOException e) {
+			log.debug("Unable to send quit to cleartool session", e);
+		}
+		process.destroy();
+		log.debug("Closed cleartool session [" + executable + "]");
+	}
+
+	/**
+	 * @return the executable this session is running.
+	 */
+	public String getExecutable() {
+		return executable;
+	}
+}
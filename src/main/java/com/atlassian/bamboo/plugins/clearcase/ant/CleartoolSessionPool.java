@@ -0,0 +1,202 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Shares a bounded number of {@link CleartoolSession}s, per cleartool
+ * executable, between all commands run by the plugin so the cost of starting
+ * cleartool and its ALBD handshake is paid once per session rather than once
+ * per command.
+ * <p>
+ * The pool is disabled unless the system property
+ * <code>clearcase.cleartool.sessions</code> is set to the maximum number of
+ * sessions to run for each executable, when disabled commands are run as a
+ * new process each time.
+ */
+public class CleartoolSessionPool {
+
+	private static final Logger log = Logger
+			.getLogger(CleartoolSessionPool.class);
+
+	/**
+	 * System property holding the maximum sessions per executable.
+	 */
+	public static final String PROP_MAX_SESSIONS = "clearcase.cleartool.sessions";
+
+	private static final CleartoolSessionPool INSTANCE = new CleartoolSessionPool(
+			Integer.getInteger(PROP_MAX_SESSIONS, 0).intValue());
+
+	private final int maxSessions;
+
+	private final Map<String, LinkedList<CleartoolSession>> idle = new HashMap<String, LinkedList<CleartoolSession>>();
+
+	private final Map<String, Semaphore> permits = new HashMap<String, Semaphore>();
+
+	/** closes idle sessions when the JVM exits, null when there are none */
+	private Thread shutdownHook = null;
+
+	/**
+	 * @param maxSessions
+	 *            the maximum number of sessions per executable, zero or less
+	 *            disables the pool.
+	 */
+	CleartoolSessionPool(int maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+
+	/**
+	 * @return the pool shared by all commands.
+	 */
+	public static CleartoolSessionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * End the idle sessions of the shared pool and stop watching commands,
+	 * so no <code>cleartool</code> process or thread outlives a disabled
+	 * plugin. Sessions are started again by the next command.
+	 */
+	public static void shutdown() {
+		INSTANCE.closeAll();
+		INSTANCE.removeShutdownHook();
+		CleartoolSession.stopWatchdog();
+	}
+
+	/**
+	 * @return true if commands should be run through this pool.
+	 */
+	public boolean isEnabled() {
+		return maxSessions > 0;
+	}
+
+	/**
+	 * Run a command on a pooled session, blocking until a session is
+	 * available. A session that fails is discarded and not returned to the
+	 * pool.
+	 *
+	 * @param executable
+	 *            the cleartool executable.
+	 * @param args
+	 *            the cleartool arguments, first being the command name.
+	 * @param dir
+	 *            the working directory, may be null.
+	 * @param output
+	 *            the list output lines are added to.
+	 * @param timeout
+	 *            milliseconds to wait for the command before killing the
+	 *            session, zero to wait forever.
+	 * @return the exit status of the command.
+	 * @throws IOException
+	 *             if a session could not be started or failed, or the thread
+	 *             was interrupted.
+	 * @throws CleartoolTimeoutException
+	 *             if the command did not complete in time.
+	 */
+	public int execute(String executable, String[] args, File dir,
+			List<String> output, long timeout) throws IOException {
+		Semaphore semaphore = getPermits(executable);
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a cleartool session");
+		}
+		CleartoolSession session = null;
+		boolean healthy = false;
+		try {
+			session = borrow(executable);
+			int status = session.execute(args, dir, output, timeout);
+			healthy = true;
+			return status;
+		} finally {
+			if (session != null) {
+				giveBack(session, healthy);
+			}
+			semaphore.release();
+		}
+	}
+
+	private synchronized Semaphore getPermits(String executable) {
+		Semaphore semaphore = permits.get(executable);
+		if (semaphore == null) {
+			semaphore = new Semaphore(maxSessions, true);
+			permits.put(executable, semaphore);
+		}
+		return semaphore;
+	}
+
+	private CleartoolSession borrow(String executable) throws IOException {
+		synchronized (this) {
+			LinkedList<CleartoolSession> sessions = idle.get(executable);
+			while (sessions != null && !sessions.isEmpty()) {
+				CleartoolSession session = sessions.removeFirst();
+				if (session.isUsable()) {
+					return session;
+				}
+				session.close();
+			}
+		}
+		return new CleartoolSession(executable);
+	}
+
+	private void giveBack(CleartoolSession session, boolean healthy) {
+		if (healthy && session.isUsable()) {
+			synchronized (this) {
+				LinkedList<CleartoolSession> sessions = idle.get(session
+						.getExecutable());
+				if (sessions == null) {
+					sessions = new LinkedList<CleartoolSession>();
+					idle.put(session.getExecutable(), sessions);
+				}
+				sessions.addFirst(session);
+				addShutdownHook();
+			}
+		} else {
+			log.info("Discarding failed cleartool session ["
+					+ session.getExecutable() + "]");
+			session.close();
+		}
+	}
+
+	private synchronized void addShutdownHook() {
+		if (shutdownHook == null) {
+			shutdownHook = new Thread("cleartool-session-shutdown") {
+				public void run() {
+					closeAll();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+	}
+
+	private synchronized void removeShutdownHook() {
+		if (shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// the JVM is already exiting
+			}
+			shutdownHook = null;
+		}
+	}
+
+	/**
+	 * Close all idle sessions.
+	 */
+	public synchronized void closeAll() {
+		for (LinkedList<CleartoolSession> sessions : idle.values()) {
+			for (CleartoolSession session : sessions) {
+				session.close();
+			}
+			sessions.clear();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Thrown when a cleartool command does not complete within its timeout, the
+ * cleartool process has been killed when this is thrown.
+ */
+public class CleartoolTimeoutException extends BuildException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String command;
+
+	private final long timeout;
+
+	/**
+	 * @param command
+	 *            the cleartool subcommand that was killed.
+	 * @param timeout
+	 *            the timeout in milliseconds that was exceeded.
+	 */
+	public CleartoolTimeoutException(String command, long timeout) {
+		super("cleartool " + command + " did not complete within "
+				+ (timeout / 1000) + " seconds and was killed");
+		this.command = command;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the cleartool subcommand that was killed.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return the timeout in milliseconds that was exceeded.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+}
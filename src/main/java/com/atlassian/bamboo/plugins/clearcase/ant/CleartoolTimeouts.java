@@ -0,0 +1,101 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The time cleartool commands are allowed to run before they are killed.
+ * <p>
+ * Commands are in one of two classes, queries such as describe and lsbl that
+ * should return quickly, and long running commands that can run for hours:
+ * those that load or change views such as update and rebase, and those that
+ * scan history such as lshistory and diffbl. Timeouts are set in seconds by
+ * system properties, zero meaning no timeout:
+ * <ul>
+ * <li><code>clearcase.timeout.query</code> for queries, default 600.</li>
+ * <li><code>clearcase.timeout.update</code> for long running commands,
+ * default 21600.</li>
+ * <li><code>clearcase.timeout.&lt;command&gt;</code> for a single cleartool
+ * subcommand, overriding its class.</li>
+ * </ul>
+ */
+public class CleartoolTimeouts {
+
+	private static final Logger log = Logger.getLogger(CleartoolTimeouts.class);
+
+	/**
+	 * Prefix of the timeout system properties.
+	 */
+	public static final String PROP_PREFIX = "clearcase.timeout.";
+
+	/**
+	 * System property holding the timeout for query commands.
+	 */
+	public static final String PROP_QUERY = PROP_PREFIX + "query";
+
+	/**
+	 * System property holding the timeout for long running commands.
+	 */
+	public static final String PROP_UPDATE = PROP_PREFIX + "update";
+
+	public static final long DEFAULT_QUERY_SECONDS = 600;
+
+	public static final long DEFAULT_UPDATE_SECONDS = 6 * 60 * 60;
+
+	/**
+	 * Commands that load files into a view, or scan the history of whole
+	 * vobs or streams, and so may take a long time.
+	 */
+	private static final Set<String> LONG_COMMANDS = new HashSet<String>(
+			Arrays.asList(CcUpdateSnapshot.COMMAND_UPDATE,
+					CcRebase.COMMAND_REBASE, CcMkView.COMMAND_MKVIEW, "setcs",
+					"rmview", AbstractCleartoolCmd.COMMAND_LSHISTORY,
+					CcDiffbl.COMMAND_DIFFBL));
+
+	private CleartoolTimeouts() {
+	}
+
+	/**
+	 * @param command
+	 *            the cleartool subcommand.
+	 * @return true if the command loads or changes a view, or scans
+	 *         history.
+	 */
+	public static boolean isLongCommand(String command) {
+		return LONG_COMMANDS.contains(command);
+	}
+
+	/**
+	 * Get the timeout for a cleartool subcommand.
+	 *
+	 * @param command
+	 *            the cleartool subcommand.
+	 * @return the timeout in milliseconds, zero if the command may run
+	 *         forever.
+	 */
+	public static long getTimeout(String command) {
+		long seconds = isLongCommand(command) ? getSeconds(PROP_UPDATE,
+				DEFAULT_UPDATE_SECONDS) : getSeconds(PROP_QUERY,
+				DEFAULT_QUERY_SECONDS);
+		if (command != null) {
+			seconds = getSeconds(PROP_PREFIX + command, seconds);
+		}
+		return Math.max(seconds, 0) * 1000;
+	}
+
+	private static long getSeconds(String property, long defaultSeconds) {
+		String value = System.getProperty(property);
+		if (value == null) {
+			return defaultSeconds;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Ignoring invalid timeout " + property + "=" + value);
+			return defaultSeconds;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the output of a single cleartool command. Output is kept in memory
+ * until it exceeds a limit, set in bytes by the system property
+ * <code>clearcase.output.memory</code> (default 1MB), after which it is
+ * moved to a temporary file so very large outputs do not have to be held in
+ * memory while the command runs.
+ * <p>
+ * Writes are synchronized as standard output and standard error are written
+ * from different threads. Call {@link #dispose()} once the output is no
+ * longer needed to remove any temporary file.
+ */
+public class CommandOutput extends OutputStream {
+
+	private static final Logger log = Logger.getLogger(CommandOutput.class);
+
+	/**
+	 * System property holding the number of bytes kept in memory.
+	 */
+	public static final String PROP_MEMORY_LIMIT = "clearcase.output.memory";
+
+	private static final int DEFAULT_MEMORY_LIMIT = 1024 * 1024;
+
+	private static final String LINE_SEP = System.getProperty("line.separator");
+
+	private final int memoryLimit;
+
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+	private File spillFile = null;
+
+	private OutputStream spill = null;
+
+	private long size = 0;
+
+	/**
+	 * Output using the memory limit set by the system property.
+	 */
+	public CommandOutput() {
+		this(Integer.getInteger(PROP_MEMORY_LIMIT, DEFAULT_MEMORY_LIMIT)
+				.intValue());
+	}
+
+	/**
+	 * @param memoryLimit
+	 *            the number of bytes held in memory before using a temporary
+	 *            file.
+	 */
+	public CommandOutput(int memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		if (spill == null && memory.size() + len > memoryLimit) {
+			spillFile = File.createTempFile("cleartool", ".out");
+			log.debug("Output larger than " + memoryLimit
+					+ " bytes, writing to [" + spillFile + "]");
+			spill = new FileOutputStream(spillFile);
+			memory.writeTo(spill);
+			memory = null;
+		}
+		if (spill != null) {
+			spill.write(b, off, len);
+		} else {
+			memory.write(b, off, len);
+		}
+		size += len;
+	}
+
+	/**
+	 * Add a line of output.
+	 *
+	 * @param line
+	 *            the text of the line without a line break.
+	 */
+	public synchronized void writeLine(String line) throws IOException {
+		write((line + LINE_SEP).getBytes());
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (spill != null) {
+			spill.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+	/**
+	 * @return the number of bytes written.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return true if the output has been moved to a temporary file.
+	 */
+	public synchronized boolean isSpilled() {
+		return spillFile != null;
+	}
+
+	/**
+	 * Read the output as it was written.
+	 *
+	 * @return a stream over the output, the caller must close it.
+	 * @throws IOException
+	 *             if the temporary file can not be read.
+	 */
+	public synchronized InputStream getInputStream() throws IOException {
+		if (spillFile != null) {
+			spill.flush();
+			return new FileInputStream(spillFile);
+		}
+		return new ByteArrayInputStream(memory.toByteArray());
+	}
+
+	/**
+	 * The output as text, lines are joined with the platform line separator
+	 * and the final line break removed as done for the Ant exec task output
+	 * property.
+	 *
+	 * @return the output text, empty string if there was no output.
+	 */
+	@Override
+	public synchronized String toString() {
+		if (spillFile == null && memory.size() == 0) {
+			return "";
+		}
+		StringBuilder rval = new StringBuilder();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(getInputStream()));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (rval.length() > 0) {
+					rval.append(LINE_SEP);
+				}
+				rval.append(line);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read command output from [" + spillFile + "]",
+					e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing more to do
+				}
+			}
+		}
+		return rval.toString();
+	}
+
+	/**
+	 * Release the output, removing the temporary file if one was used.
+	 */
+	public synchronized void dispose() {
+		memory = new ByteArrayOutputStream();
+		if (spillFile != null) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				// deleting anyway
+			}
+			if (!spillFile.delete()) {
+				log.warn("Unable to delete [" + spillFile + "]");
+			}
+			spillFile = null;
+			spill = null;
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,32 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+/**
+ * Receives the activities and versions of diffbl output as they are read from
+ * the cleartool output.
+ * 
+ * @see DiffblParser
+ */
+public interface DiffblHandler {
+
+	/**
+	 * Called for each activity in the order cleartool reports them, the
+	 * versions that follow belong to this activity.
+	 * 
+	 * @param id
+	 *            the activity id, qualified with the PVOB if cleartool did.
+	 * @param headline
+	 *            the activity headline, may be empty.
+	 */
+	void onActivity(String id, String headline);
+
+	/**
+	 * Called for each version of the last activity passed to
+	 * {@link #onActivity(String, String)}.
+	 * 
+	 * @param element
+	 *            the element path, the part before <code>@@</code>.
+	 * @param version
+	 *            the version path, the part after <code>@@</code>.
+	 */
+	void onVersion(String element, String version);
+}
@@ -0,0 +1,194 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Parses the output of <code>diffbl -activities -versions</code> as it is
+ * written by the cleartool process, passing each activity and version to a
+ * {@link DiffblHandler}. Only the current line is held in memory so the full
+ * output of a large diff is never materialised.
+ * <p>
+ * Activity lines start with <code>&lt;&lt;</code>, <code>&gt;&gt;</code>,
+ * <code>-&gt;</code> or <code>&lt;-</code> followed by the activity id and
+ * headline, the indented version lines that follow belong to the activity.
+ * Lines before the first activity, such as the ClearCase 7 header ending with
+ * <code>Differences:</code>, are ignored. Lines are decoded using the
+ * platform encoding, as Ant does when storing command output in a property.
+ */
+public class DiffblParser extends OutputStream {
+
+	private static final Logger log = Logger.getLogger(DiffblParser.class);
+
+	/**
+	 * Characters before the activity id on an activity line.
+	 */
+	private static final String ACTIVITY_MARKS = "<>- ";
+
+	private static final String VERSION_DELIM = "@@";
+
+	private final DiffblHandler handler;
+
+	private byte[] buffer = new byte[256];
+
+	private int count = 0;
+
+	private boolean inActivity = false;
+
+	private int activityCount = 0;
+
+	private int versionCount = 0;
+
+	/**
+	 * The first character of every activity mark seen, 0 before the first
+	 * activity and {@link #MIXED} once two marks differ.
+	 */
+	private char side = 0;
+
+	private static final char MIXED = '*';
+
+	public DiffblParser(DiffblHandler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void write(int b) {
+		if (b == '\n' || b == '\r') {
+			emit();
+			return;
+		}
+		if (count == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, count);
+			buffer = larger;
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * Pass on a final line that was not terminated by a line end.
+	 */
+	@Override
+	public void close() {
+		emit();
+	}
+
+	private void emit() {
+		if (count > 0) {
+			String line = new String(buffer, 0, count);
+			count = 0;
+			parseLine(line);
+		}
+	}
+
+	/**
+	 * Parse one line of output, by index rather than splitting or copying it
+	 * to a character array.
+	 */
+	void parseLine(String line) {
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && line.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (end - start < 2) {
+			return;
+		}
+		if (isActivity(line, start)) {
+			parseActivity(line, start, end);
+		} else if (inActivity) {
+			parseVersion(line, start, end);
+		}
+	}
+
+	private static boolean isActivity(String line, int start) {
+		char first = line.charAt(start);
+		char second = line.charAt(start + 1);
+		return (first == '<' && (second == '<' || second == '-'))
+				|| (first == '>' && second == '>')
+				|| (first == '-' && second == '>');
+	}
+
+	private void parseActivity(String line, int start, int end) {
+		int idStart = start;
+		while (idStart < end && ACTIVITY_MARKS.indexOf(line.charAt(idStart)) >= 0) {
+			idStart++;
+		}
+		int idEnd = line.indexOf(' ', idStart);
+		if (idEnd < 0 || idEnd > end) {
+			idEnd = end;
+		}
+		String headline = idEnd < end ? line.substring(idEnd + 1, end) : "";
+		// "->" points the same way as ">>", "<-" as "<<"
+		char mark = line.charAt(start) == '-' ? line.charAt(start + 1) : line
+				.charAt(start);
+		if (side == 0) {
+			side = mark;
+		} else if (side != mark) {
+			side = MIXED;
+		}
+		inActivity = true;
+		activityCount++;
+		handler.onActivity(line.substring(idStart, idEnd), headline);
+	}
+
+	private void parseVersion(String line, int start, int end) {
+		int delim = line.indexOf(VERSION_DELIM, start);
+		if (delim < 0 || delim >= end) {
+			// oops must have made bad assumption about format of output.
+			log.warn("Unable to process version line [" + line.substring(start, end) + "]");
+			return;
+		}
+		int versionStart = delim + VERSION_DELIM.length();
+		int versionEnd = line.indexOf(VERSION_DELIM, versionStart);
+		if (versionEnd < 0 || versionEnd > end) {
+			versionEnd = end;
+		}
+		versionCount++;
+		handler.onVersion(line.substring(start, delim),
+				line.substring(versionStart, versionEnd));
+	}
+
+	/**
+	 * @return the number of activities passed to the handler.
+	 */
+	public int getActivityCount() {
+		return activityCount;
+	}
+
+	/**
+	 * @return the number of versions passed to the handler.
+	 */
+	public int getVersionCount() {
+		return versionCount;
+	}
+
+	/**
+	 * @return true if every activity was only in one of the baselines, on the
+	 *         same side, so the diff only adds or only removes activities. True
+	 *         if there were no activities.
+	 */
+	public boolean isOneSided() {
+		return side != MIXED;
+	}
+
+	/**
+	 * @return the first character of the mark of every activity, '<' or '>',
+	 *         or 0 if there were no activities or they were not
+	 *         {@link #isOneSided() one sided}.
+	 */
+	public char getSide() {
+		return side == MIXED ? 0 : side;
+	}
+}
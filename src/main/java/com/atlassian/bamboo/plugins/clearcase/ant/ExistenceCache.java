@@ -0,0 +1,187 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+
+/**
+ * Remembers build streams and snapshot views that are known to exist so
+ * {@link CcStreamCreator} does not run <code>lsstream</code> and
+ * <code>lsview</code> for every build.
+ * <p>
+ * A stream is trusted for the time set in milliseconds by the system
+ * property <code>clearcase.exists.ttl</code> (default 24 hours) after it was
+ * last confirmed by ClearCase. A snapshot view is trusted for the same time,
+ * and only while its directory still holds the view's
+ * <code>.view.dat</code> file. When a command fails with a "not found"
+ * error the stream and its views are forgotten with
+ * {@link #invalidate(String)} so the next build checks ClearCase again.
+ * <p>
+ * Entries are stored under the plugin storage directory so they survive
+ * server restarts, see {@link PluginStorage}.
+ */
+public class ExistenceCache {
+
+	private static final Logger log = Logger.getLogger(ExistenceCache.class);
+
+	/**
+	 * System property holding the time in milliseconds an object is trusted
+	 * to exist without asking ClearCase.
+	 */
+	public static final String PROP_TTL = "clearcase.exists.ttl";
+
+	private static final long TTL = Long.getLong(PROP_TTL,
+			24L * 60 * 60 * 1000).longValue();
+
+	private static final String STORE_NAME = "existing-objects";
+
+	private static final String STORE_COMMENT = "Time streams and views were last confirmed to exist";
+
+	private static final String KEY_DELIM = "|";
+
+	private static final String STREAM_PREFIX = "stream" + KEY_DELIM;
+
+	private static final String VIEW_PREFIX = "view" + KEY_DELIM;
+
+	/**
+	 * Marker file in the root of a snapshot view, <code>view.dat</code> on
+	 * Windows where it is hidden by attribute rather than name.
+	 */
+	private static final String[] VIEW_DAT = { ".view.dat", "view.dat" };
+
+	private static final String NOT_FOUND = "not found";
+
+	private static final ExistenceCache INSTANCE = new ExistenceCache();
+
+	private Properties entries = null;
+
+	/**
+	 * @return the cache shared by all builds.
+	 */
+	public static ExistenceCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param stream
+	 *            the stream selector.
+	 * @return true if the stream was confirmed to exist recently.
+	 */
+	public boolean isStreamKnown(String stream) {
+		return isRecent(STREAM_PREFIX + stream);
+	}
+
+	/**
+	 * Record that ClearCase confirmed, or created, the stream.
+	 *
+	 * @param stream
+	 *            the stream selector.
+	 */
+	public void streamExists(String stream) {
+		put(STREAM_PREFIX + stream);
+	}
+
+	/**
+	 * @param stream
+	 *            the stream selector the view is attached to.
+	 * @param viewTag
+	 *            the view tag.
+	 * @param location
+	 *            the snapshot view directory.
+	 * @return true if the view was confirmed to exist recently and its
+	 *         directory is still a snapshot view.
+	 */
+	public boolean isViewKnown(String stream, String viewTag, String location) {
+		return isRecent(viewKey(stream, viewTag, location))
+				&& isSnapshotView(new File(location));
+	}
+
+	/**
+	 * Record that ClearCase confirmed, or created, the snapshot view.
+	 *
+	 * @param stream
+	 *            the stream selector the view is attached to.
+	 * @param viewTag
+	 *            the view tag.
+	 * @param location
+	 *            the snapshot view directory.
+	 */
+	public void viewExists(String stream, String viewTag, String location) {
+		put(viewKey(stream, viewTag, location));
+	}
+
+	/**
+	 * Forget a stream and all views attached to it.
+	 *
+	 * @param stream
+	 *            the stream selector.
+	 */
+	public synchronized void invalidate(String stream) {
+		boolean changed = getEntries().remove(STREAM_PREFIX + stream) != null;
+		String viewPrefix = VIEW_PREFIX + stream + KEY_DELIM;
+		for (Iterator<Object> i = getEntries().keySet().iterator(); i.hasNext();) {
+			if (((String) i.next()).startsWith(viewPrefix)) {
+				i.remove();
+				changed = true;
+			}
+		}
+		if (changed) {
+			log.info("Stream [" + stream + "] and its views will be checked with ClearCase");
+			PluginStorage.store(STORE_NAME, entries, STORE_COMMENT);
+		}
+	}
+
+	/**
+	 * @param e
+	 *            a failed cleartool command.
+	 * @return true if the failure was a ClearCase object not being found.
+	 */
+	public static boolean isNotFound(BuildException e) {
+		String msg = e.getMessage();
+		return msg != null && msg.toLowerCase().indexOf(NOT_FOUND) >= 0;
+	}
+
+	private static boolean isSnapshotView(File location) {
+		for (String name : VIEW_DAT) {
+			if (new File(location, name).isFile()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String viewKey(String stream, String viewTag, String location) {
+		return VIEW_PREFIX + stream + KEY_DELIM + viewTag + KEY_DELIM
+				+ new File(location).getAbsolutePath();
+	}
+
+	private synchronized boolean isRecent(String key) {
+		String value = getEntries().getProperty(key);
+		if (value == null) {
+			return false;
+		}
+		try {
+			long age = System.currentTimeMillis() - Long.parseLong(value);
+			return age >= 0 && age < TTL;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private synchronized void put(String key) {
+		getEntries().setProperty(key, String.valueOf(System.currentTimeMillis()));
+		PluginStorage.store(STORE_NAME, entries, STORE_COMMENT);
+	}
+
+	private Properties getEntries() {
+		if (entries == null) {
+			entries = PluginStorage.load(STORE_NAME);
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,77 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+/**
+ * A single history event produced by running lshistory with the
+ * {@link ClearCaseUtils#FMT_LSHISTORY} format.
+ */
+public class LsHistoryEvent {
+
+	private final String date;
+	private final String user;
+	private final String file;
+	private final String version;
+	private final String operation;
+	private final String comment;
+
+	public LsHistoryEvent(String date, String user, String file,
+			String version, String operation, String comment) {
+		this.date = date;
+		this.user = user;
+		this.file = file;
+		this.version = version;
+		this.operation = operation;
+		this.comment = comment;
+	}
+
+	/**
+	 * Parse a single lshistory result, ie the text between
+	 * {@link ClearCaseUtils#LSHISTORY_END_OF_RESULT_DELIM} markers.
+	 * 
+	 * @param record
+	 *            the formatted lshistory result.
+	 * @return the event, fields missing from the record are null.
+	 */
+	public static LsHistoryEvent parse(String record) {
+		String[] event = record.split(ClearCaseUtils.LSHISTORY_DELIM);
+		return new LsHistoryEvent(field(event, ClearCaseUtils.LSHISTORY_DATE),
+				field(event, ClearCaseUtils.LSHISTORY_USER), field(event,
+						ClearCaseUtils.LSHISTORY_FILE), field(event,
+						ClearCaseUtils.LSHISTORY_VERSION), field(event,
+						ClearCaseUtils.LSHISTORY_OPERATION), field(event,
+						ClearCaseUtils.LSHISTORY_COMMENT));
+	}
+
+	private static String field(String[] event, int index) {
+		return index < event.length ? event[index] : null;
+	}
+
+	/**
+	 * @return the numeric date of the event, yyyyMMdd.HHmmss
+	 */
+	public String getDate() {
+		return date;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the check in comment, null if there was no comment.
+	 */
+	public String getComment() {
+		return comment;
+	}
+}
@@ -0,0 +1,17 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+/**
+ * Receives lshistory events as they are read from the cleartool output.
+ * 
+ * @see LsHistoryParser
+ */
+public interface LsHistoryHandler {
+
+	/**
+	 * Called once for each event in the order cleartool reports them.
+	 * 
+	 * @param event
+	 *            the history event.
+	 */
+	void onEvent(LsHistoryEvent event);
+}
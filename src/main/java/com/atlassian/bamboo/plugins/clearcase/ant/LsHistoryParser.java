@@ -0,0 +1,90 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.OutputStream;
+
+/**
+ * Parses lshistory output formatted with {@link ClearCaseUtils#FMT_LSHISTORY}
+ * as it is written by the cleartool process, passing each event to a
+ * {@link LsHistoryHandler}. Only the current result is held in memory so
+ * the full output of a large history is never materialised.
+ * <p>
+ * The end of result marker is plain ASCII so the bytes are matched directly
+ * and each result decoded using the platform encoding, as Ant does when
+ * storing command output in a property.
+ */
+public class LsHistoryParser extends OutputStream {
+
+	private static final byte[] END_OF_RESULT = ClearCaseUtils.LSHISTORY_END_OF_RESULT_DELIM
+			.getBytes();
+
+	private final LsHistoryHandler handler;
+
+	private byte[] buffer = new byte[1024];
+
+	private int count = 0;
+
+	private int eventCount = 0;
+
+	public LsHistoryParser(LsHistoryHandler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void write(int b) {
+		if (count == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, count);
+			buffer = larger;
+		}
+		buffer[count++] = (byte) b;
+		if (b == END_OF_RESULT[END_OF_RESULT.length - 1] && endsWithMarker()) {
+			emit(count - END_OF_RESULT.length);
+			count = 0;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * Pass on any final result that was not terminated by the end of result
+	 * marker.
+	 */
+	@Override
+	public void close() {
+		emit(count);
+		count = 0;
+	}
+
+	private boolean endsWithMarker() {
+		if (count < END_OF_RESULT.length) {
+			return false;
+		}
+		int start = count - END_OF_RESULT.length;
+		for (int i = 0; i < END_OF_RESULT.length; i++) {
+			if (buffer[start + i] != END_OF_RESULT[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void emit(int length) {
+		String record = new String(buffer, 0, length).trim();
+		if (record.length() > 0) {
+			eventCount++;
+			handler.onEvent(LsHistoryEvent.parse(record));
+		}
+	}
+
+	/**
+	 * @return the number of events passed to the handler.
+	 */
+	public int getEventCount() {
+		return eventCount;
+	}
+}
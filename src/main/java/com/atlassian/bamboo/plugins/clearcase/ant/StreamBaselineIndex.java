@@ -0,0 +1,240 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.Project;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+import com.atlassian.bamboo.plugins.clearcase.utils.ValidationException;
+
+/**
+ * Records the newest known baseline, and its creation date, of a component
+ * on a stream so finding the latest baseline does not need to list every
+ * baseline ever created on the stream.
+ * <p>
+ * <code>lsbl</code> has no option to list only recent baselines, instead
+ * once a stream is indexed the latest baselines of the stream (lsstream
+ * <code>%[latest_bls]</code>) are described in a single command and the
+ * baseline for the component is used if it is not older than the recorded
+ * one. The full listing is only used when the stream has not been indexed or
+ * the component is not among the stream's latest baselines.
+ * <p>
+ * The index is stored under the plugin storage directory so it survives
+ * server restarts, see {@link PluginStorage}.
+ */
+public class StreamBaselineIndex {
+
+	private static final Logger log = Logger
+			.getLogger(StreamBaselineIndex.class);
+
+	private static final String STORE_NAME = "stream-baselines";
+
+	private static final String STORE_COMMENT = "Latest baseline and creation date per stream|component";
+
+	private static final String KEY_DELIM = "|";
+
+	private static final String FMT_LATEST_BLS = "%[latest_bls]Xp";
+
+	private static final String FMT_BASELINE_DETAILS = "%Xn" + KEY_DELIM
+			+ "%[component]Xp" + KEY_DELIM + ClearCaseUtils.FMT_CREATE_DATE_NUM
+			+ "\\n";
+
+	private static final String KIND_COMPONENT = "component";
+
+	private static final StreamBaselineIndex INSTANCE = new StreamBaselineIndex(
+			STORE_NAME);
+
+	private final String storeName;
+
+	private Properties entries = null;
+
+	/**
+	 * @param storeName
+	 *            the name of the storage file.
+	 */
+	StreamBaselineIndex(String storeName) {
+		this.storeName = storeName;
+	}
+
+	/**
+	 * @return the index shared by all builds.
+	 */
+	public static StreamBaselineIndex getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Find the most recently created baseline of a component on a stream.
+	 *
+	 * @param stream
+	 *            the stream selector.
+	 * @param component
+	 *            the component selector.
+	 * @param project
+	 *            the ant project to run commands against.
+	 * @param cleartoolHome
+	 * @return the latest baseline or null if the stream has no baselines for
+	 *         the component.
+	 * @throws org.apache.tools.ant.BuildException
+	 *             if an error occurs running the ClearTool command.
+	 */
+	public String getLatestBaseline(String stream, String component,
+			Project project, String cleartoolHome) {
+		String key = stream + KEY_DELIM + component;
+		String[] known = get(key);
+		if (known != null) {
+			String[] latest = findLatest(stream, component, project,
+					cleartoolHome);
+			if (latest != null) {
+				if (latest[1].compareTo(known[1]) >= 0) {
+					if (!latest[0].equals(known[0])) {
+						put(key, latest);
+					}
+					return latest[0];
+				}
+				// the index is ahead of the stream, eg. the baseline was
+				// removed, rebuild it from the full listing
+			}
+			log.debug("Baseline index for [" + key + "] not usable, listing all baselines");
+		}
+
+		List<String> baselines = listBaselines(stream, component, project,
+				cleartoolHome);
+		if (baselines.isEmpty()) {
+			remove(key);
+			return null;
+		}
+		String baseline = baselines.get(baselines.size() - 1);
+		String date = runClearToolCommand(project,
+				AbstractCleartoolCmd.COMMAND_DESC, baseline,
+				ClearCaseUtils.FMT_CREATE_DATE_NUM, cleartoolHome).trim();
+		put(key, new String[] { baseline, date });
+		return baseline;
+	}
+
+	/**
+	 * Describe the stream's latest baselines and pick the one for the
+	 * component.
+	 *
+	 * @return the baseline selector and creation date or null if the
+	 *         component is not among the stream's latest baselines.
+	 */
+	private String[] findLatest(String stream, String component,
+			Project project, String cleartoolHome) {
+		String latestBls = runClearToolCommand(project,
+				ClearToolListCommand.COMMAND_LSSTREAM, stream, FMT_LATEST_BLS,
+				cleartoolHome);
+		String[] baselines = StringUtils.split(latestBls);
+		if (baselines == null || baselines.length == 0) {
+			return null;
+		}
+		String described = describeBaselines(baselines, project,
+				cleartoolHome);
+		for (String line : StringUtils.split(described, "\r\n")) {
+			String[] details = line.split("\\|", 3);
+			if (details.length == 3
+					&& isSameComponent(component, details[1].trim())) {
+				return new String[] { details[0].trim(), details[2].trim() };
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Package visible so tests can answer without ClearCase.
+	 *
+	 * @return the output of the cleartool command run on the selector.
+	 */
+	String runClearToolCommand(Project project, String command,
+			String selector, String format, String cleartoolHome) {
+		return ClearCaseUtils.runClearToolCommand(project, command, selector,
+				format, null, cleartoolHome);
+	}
+
+	/**
+	 * Describe many baselines in one command. Package visible so tests can
+	 * answer without ClearCase.
+	 *
+	 * @return a line per baseline of selector|component|creation date.
+	 */
+	String describeBaselines(String[] baselines, Project project,
+			String cleartoolHome) {
+		ClearToolListCommand ct = new ClearToolListCommand(
+				AbstractCleartoolCmd.COMMAND_DESC, baselines);
+		ct.setProject(project);
+		ct.setFormat(FMT_BASELINE_DETAILS);
+		ct.setFailOnErr(true);
+		if (StringUtils.isNotEmpty(cleartoolHome))
+			ct.setClearToolDir(cleartoolHome);
+		try {
+			ct.execute();
+			return ct.getCommandOutput();
+		} finally {
+			ct.dispose();
+		}
+	}
+
+	/**
+	 * List every baseline of the component on the stream, oldest first.
+	 * Package visible so tests can answer without ClearCase.
+	 */
+	List<String> listBaselines(String stream, String component,
+			Project project, String cleartoolHome) {
+		return ClearCaseUtils.getStreamBaselines(stream, component, project,
+				cleartoolHome);
+	}
+
+	/**
+	 * Compare component selectors ignoring the kind prefix and allowing the
+	 * vob to be omitted from either.
+	 */
+	static boolean isSameComponent(String configured, String found) {
+		try {
+			CcSelector a = new CcSelector(KIND_COMPONENT, configured);
+			CcSelector b = new CcSelector(KIND_COMPONENT, found);
+			if (!a.getName().equals(b.getName())) {
+				return false;
+			}
+			return StringUtils.isEmpty(a.getVobSelector())
+					|| StringUtils.isEmpty(b.getVobSelector())
+					|| a.getVobSelector().equals(b.getVobSelector());
+		} catch (ValidationException e) {
+			return false;
+		}
+	}
+
+	private synchronized String[] get(String key) {
+		String value = getEntries().getProperty(key);
+		if (value == null) {
+			return null;
+		}
+		int split = value.lastIndexOf(KEY_DELIM);
+		if (split < 0) {
+			return null;
+		}
+		return new String[] { value.substring(0, split),
+				value.substring(split + 1) };
+	}
+
+	private synchronized void put(String key, String[] baselineAndDate) {
+		getEntries().setProperty(key,
+				baselineAndDate[0] + KEY_DELIM + baselineAndDate[1]);
+		PluginStorage.store(storeName, entries, STORE_COMMENT);
+	}
+
+	private synchronized void remove(String key) {
+		if (getEntries().remove(key) != null) {
+			PluginStorage.store(storeName, entries, STORE_COMMENT);
+		}
+	}
+
+	private Properties getEntries() {
+		if (entries == null) {
+			entries = PluginStorage.load(storeName);
+		}
+		return entries;
+	}
+}
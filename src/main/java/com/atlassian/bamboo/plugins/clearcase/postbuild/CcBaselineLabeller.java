@@ -5,15 +5,14 @@ import java.util.Map;
 import com.atlassian.bamboo.build.Buildable;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.apache.tools.ant.Project;
 import org.jetbrains.annotations.NotNull;
 
 import com.atlassian.bamboo.build.CustomBuildCompleteAction;
 import com.atlassian.bamboo.builder.BuildState;
-import com.atlassian.bamboo.plugins.clearcase.ant.CcChbl;
-import com.atlassian.bamboo.plugins.clearcase.ant.CcChstream;
-import com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils;
+import com.atlassian.bamboo.plugins.clearcase.ant.CleartoolMetrics;
 import com.atlassian.bamboo.plugins.clearcase.repository.CcRepository;
+import com.atlassian.bamboo.plugins.clearcase.repository.CheckoutContext;
+import com.atlassian.bamboo.plugins.clearcase.vcsversion.VersionWriter;
 import com.atlassian.bamboo.results.BuildResults;
 import com.atlassian.bamboo.utils.error.ErrorCollection;
 import com.atlassian.bamboo.utils.error.SimpleErrorCollection;
@@ -46,6 +45,10 @@ import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
  * </tr>
  * </table>
  * <p>
+ * The promotion is queued on the {@link PromotionQueue} and applied to
+ * ClearCase in the background, so the build completes without waiting for
+ * the PVOB.
+ * <p>
  * TODO future version may allow the promotion level for build success or
  * failure to be edited. 
  * 
@@ -71,8 +74,6 @@ public class CcBaselineLabeller extends BaseConfigurablePlugin implements
 	 */
 	private boolean enabled = false;
 
-	private Project dummy = ClearCaseUtils.getAntProject();
-
 
 	/**
 	 * Get the promotion level configured based on build result, if not
@@ -118,12 +119,26 @@ public class CcBaselineLabeller extends BaseConfigurablePlugin implements
 	}
 
 	/**
-	 * Get the ClearCase baseline that was just built.
+	 * Get the ClearCase baseline that was just built. The baseline checked
+	 * out for the build is used when the source was retrieved in this JVM,
+	 * then the baseline recorded by {@link VersionWriter} at the start of the
+	 * build, so the build stream is only queried when neither is known.
 	 * 
 	 * @param build
+	 * @param buildResult
 	 * @return
 	 */
-	private String getBuiltBaseline(Buildable build) {
+	private String getBuiltBaseline(Buildable build, BuildResults buildResult) {
+		CheckoutContext context = CheckoutContext.get(build.getKey(),
+				buildResult.getBuildNumber());
+		if (context != null && context.getBaseline() != null) {
+			return context.getBaseline();
+		}
+		Map<String, String> data = buildResult.getCustomBuildData();
+		String baseline = data != null ? data.get(VersionWriter.REVISION_KEY) : null;
+		if (StringUtils.isNotBlank(baseline)) {
+			return baseline;
+		}
         CcRepository repo = (CcRepository) build.getBuildDefinition().getRepository();
         return repo.getLastBuiltBaseline();
 	}
@@ -165,34 +180,33 @@ public class CcBaselineLabeller extends BaseConfigurablePlugin implements
 		Map<String, String> config = build.getBuildDefinition()
 				.getCustomConfiguration();
 
-		if (isClearCaseRepository(build) && isEnabled(config)) {
-			String promotion = getPromotionLevel(BuildState.SUCCESS
-					.equals(buildResult.getBuildState()), config);
-			String baseline = getBuiltBaseline(build);
-			log.debug("Build [" + build.getBuildName() + "] buildNumber["
-					+ buildResult.getBuildNumber() + "] promotion Level["
-					+ promotion + "] baseline [" + baseline + "]");
-
-			CcChbl chbl = new CcChbl();
-			chbl.setProject(dummy);
-			chbl.setLevel(promotion);
-			chbl.setObjSelect2(baseline);
-			chbl.execute();
-
-			if (config.containsKey(FIELD_RECOMMEND)
-					&& Boolean.parseBoolean(config
-							.get(FIELD_RECOMMEND))) {
-				log.info("### Recommending baseline " + baseline + " Build ["
-						+ build.getBuildName() + "] buildNumber["
-						+ buildResult.getBuildNumber() + "]");
-				CcRepository repo = (CcRepository) build.getBuildDefinition()
-						.getRepository();
-				CcChstream chstream = new CcChstream();
-				chstream.setProject(dummy);
-				chstream.setRecommendedBaselines(baseline);
-				chstream.setObjSelect2(repo.getIntStream());
-				chstream.execute();
+		String previousPlan = CleartoolMetrics.enterPlan(build.getKey());
+		try {
+			if (isClearCaseRepository(build) && isEnabled(config)) {
+				String promotion = getPromotionLevel(BuildState.SUCCESS
+						.equals(buildResult.getBuildState()), config);
+				String baseline = getBuiltBaseline(build, buildResult);
+				log.debug("Build [" + build.getBuildName() + "] buildNumber["
+						+ buildResult.getBuildNumber() + "] promotion Level["
+						+ promotion + "] baseline [" + baseline + "]");
+
+				String recommendStream = null;
+				if (config.containsKey(FIELD_RECOMMEND)
+						&& Boolean.parseBoolean(config
+								.get(FIELD_RECOMMEND))) {
+					log.info("### Recommending baseline " + baseline + " Build ["
+							+ build.getBuildName() + "] buildNumber["
+							+ buildResult.getBuildNumber() + "]");
+					CcRepository repo = (CcRepository) build.getBuildDefinition()
+							.getRepository();
+					recommendStream = repo.getIntStream();
+				}
+				PromotionQueue.getInstance().enqueue(baseline, promotion,
+						recommendStream);
 			}
+		} finally {
+			CheckoutContext.remove(build.getKey(), buildResult.getBuildNumber());
+			CleartoolMetrics.exitPlan(previousPlan);
 		}
     }
 }
@@ -0,0 +1,543 @@
+package com.atlassian.bamboo.plugins.clearcase.postbuild;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.CcChbl;
+import com.atlassian.bamboo.plugins.clearcase.ant.CcChstream;
+import com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils;
+import com.atlassian.bamboo.plugins.clearcase.ant.ExistenceCache;
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+
+/**
+ * Queue of baseline promotions requested by {@link CcBaselineLabeller},
+ * applied to ClearCase by a background thread so build completion does not
+ * wait for the PVOB.
+ * <p>
+ * Promotions are kept under the plugin storage directory until ClearCase
+ * accepted them, so promotions still queued when the server stops are
+ * applied after it starts again, see {@link PluginStorage}. Promoting a
+ * baseline that is still queued replaces the earlier promotion. Baselines
+ * waiting for the same promotion level are changed by a single
+ * <code>chbl</code> command, and only the latest baseline queued for
+ * recommendation on a stream is recommended.
+ * <p>
+ * The queue is drained the number of milliseconds set by the system
+ * property <code>clearcase.promotion.delay</code> (default 5 seconds) after
+ * a promotion is queued, so promotions of builds completing together are
+ * batched. Promotions that fail are tried again after
+ * <code>clearcase.promotion.retry</code> milliseconds (default 1 minute),
+ * unless ClearCase reports the baseline or stream no longer exists. A
+ * promotion that has failed <code>clearcase.promotion.attempts</code> times
+ * (default 30) is dropped with an error.
+ * <p>
+ * The background thread is stopped by {@link #shutdown()} when the plugin
+ * is disabled, promotions queued after that are kept until {@link #start()}
+ * or the next restart.
+ */
+public class PromotionQueue {
+
+	private static final Logger log = Logger.getLogger(PromotionQueue.class);
+
+	/**
+	 * System property holding the milliseconds to wait for more promotions
+	 * before draining the queue.
+	 */
+	public static final String PROP_DELAY = "clearcase.promotion.delay";
+
+	/**
+	 * System property holding the milliseconds to wait before retrying
+	 * promotions that failed.
+	 */
+	public static final String PROP_RETRY = "clearcase.promotion.retry";
+
+	/**
+	 * System property holding the number of times a promotion is tried
+	 * before it is dropped.
+	 */
+	public static final String PROP_ATTEMPTS = "clearcase.promotion.attempts";
+
+	private static final String STORE_NAME = "promotion-queue";
+
+	private static final String STORE_COMMENT = "Baseline promotions not yet applied to ClearCase";
+
+	private static final String VALUE_DELIM = "|";
+
+	/**
+	 * Most baselines changed by one <code>chbl</code> command, keeps the
+	 * command line within Windows limits.
+	 */
+	private static final int MAX_BATCH = 20;
+
+	private static final PromotionQueue INSTANCE = new PromotionQueue(
+			STORE_NAME, new CleartoolPromoter(),
+			Long.getLong(PROP_DELAY, 5000L).longValue(),
+			Long.getLong(PROP_RETRY, 60000L).longValue(),
+			Integer.getInteger(PROP_ATTEMPTS, 30).intValue());
+
+	/**
+	 * Applies promotions to ClearCase.
+	 */
+	interface Promoter {
+		/**
+		 * Set the promotion level of baselines.
+		 */
+		void promote(String level, List<String> baselines) throws BuildException;
+
+		/**
+		 * Make a baseline the recommended baseline of a stream.
+		 */
+		void recommend(String stream, String baseline) throws BuildException;
+	}
+
+	/**
+	 * A queued promotion of one baseline.
+	 */
+	private static class Promotion {
+		private final String baseline;
+		private final long sequence;
+		private final String level;
+		private final String stream;
+		/** the number of times the promotion has failed */
+		private final int attempts;
+
+		Promotion(String baseline, long sequence, String level, String stream,
+				int attempts) {
+			this.baseline = baseline;
+			this.sequence = sequence;
+			this.level = level;
+			this.stream = stream;
+			this.attempts = attempts;
+		}
+
+		/**
+		 * @return the promotion as stored as sequence|level|stream|attempts,
+		 *         the attempts may be missing.
+		 */
+		static Promotion parse(String baseline, String value) {
+			String[] fields = value.split("\\" + VALUE_DELIM, 4);
+			if (fields.length < 3) {
+				return null;
+			}
+			try {
+				return new Promotion(baseline, Long.parseLong(fields[0]),
+						fields[1], fields[2].length() > 0 ? fields[2] : null,
+						fields.length > 3 ? Integer.parseInt(fields[3]) : 0);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		String format() {
+			return sequence + VALUE_DELIM + level + VALUE_DELIM
+					+ (stream != null ? stream : "") + VALUE_DELIM + attempts;
+		}
+
+		/**
+		 * @return the same promotion having failed once more.
+		 */
+		Promotion failed() {
+			return new Promotion(baseline, sequence, level, stream,
+					attempts + 1);
+		}
+	}
+
+	private final String storeName;
+
+	private final Promoter promoter;
+
+	private final long delay;
+
+	private final long retryDelay;
+
+	private final int maxAttempts;
+
+	private Properties entries = null;
+
+	private long nextSequence = 0;
+
+	private boolean scheduled = false;
+
+	private boolean stopped = false;
+
+	private ScheduledExecutorService worker = null;
+
+	/**
+	 * @param storeName
+	 *            the plugin storage file holding queued promotions.
+	 * @param promoter
+	 *            applies promotions to ClearCase.
+	 * @param delay
+	 *            milliseconds to wait for more promotions before draining.
+	 * @param retryDelay
+	 *            milliseconds to wait before retrying failed promotions.
+	 * @param maxAttempts
+	 *            times a promotion is tried before it is dropped.
+	 */
+	PromotionQueue(String storeName, Promoter promoter, long delay,
+			long retryDelay, int maxAttempts) {
+		this.storeName = storeName;
+		this.promoter = promoter;
+		this.delay = delay;
+		this.retryDelay = retryDelay;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return the queue shared by all builds, promotions left from before a
+	 *         restart are scheduled the first time it is used.
+	 */
+	public static PromotionQueue getInstance() {
+		INSTANCE.resume();
+		return INSTANCE;
+	}
+
+	/**
+	 * Stop the background thread of the shared queue, waiting for a drain in
+	 * progress, so a disabled plugin no longer applies promotions.
+	 */
+	public static void shutdown() {
+		INSTANCE.stop();
+	}
+
+	/**
+	 * Apply promotions in the background again after {@link #shutdown()}.
+	 */
+	public static void start() {
+		synchronized (INSTANCE) {
+			INSTANCE.stopped = false;
+		}
+		INSTANCE.resume();
+	}
+
+	/**
+	 * Stop applying promotions in the background.
+	 */
+	void stop() {
+		ScheduledExecutorService stopping;
+		synchronized (this) {
+			stopped = true;
+			scheduled = false;
+			stopping = worker;
+			worker = null;
+		}
+		if (stopping == null) {
+			return;
+		}
+		stopping.shutdownNow();
+		try {
+			if (!stopping.awaitTermination(30, TimeUnit.SECONDS)) {
+				log.warn("Baseline promotions still being applied after shutdown");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queue a change of the promotion level of a baseline.
+	 *
+	 * @param baseline
+	 *            the baseline selector.
+	 * @param level
+	 *            the promotion level to set.
+	 * @param recommendStream
+	 *            the stream to make the baseline the recommended baseline
+	 *            of, null to leave the recommended baseline unchanged.
+	 */
+	public synchronized void enqueue(String baseline, String level,
+			String recommendStream) {
+		Promotion promotion = new Promotion(baseline, nextSequence(), level,
+				recommendStream, 0);
+		if (getEntries().setProperty(baseline, promotion.format()) != null) {
+			log.debug("Replacing queued promotion of baseline [" + baseline + "]");
+		}
+		PluginStorage.store(storeName, entries, STORE_COMMENT);
+		log.info("Queued promotion of baseline [" + baseline + "] to ["
+				+ level + "]"
+				+ (recommendStream != null ? " recommended on [" + recommendStream + "]" : ""));
+		schedule(delay);
+	}
+
+	/**
+	 * @return the number of promotions not yet applied.
+	 */
+	public synchronized int size() {
+		return getEntries().size();
+	}
+
+	/**
+	 * Apply all queued promotions now, in the calling thread.
+	 *
+	 * @return true if all promotions were applied or dropped, false if some
+	 *         are left to retry.
+	 */
+	boolean drain() {
+		List<Promotion> pending = snapshot();
+		if (pending.isEmpty()) {
+			return true;
+		}
+		List<Promotion> done = new ArrayList<Promotion>();
+		boolean complete = true;
+
+		Map<String, List<Promotion>> byLevel = new LinkedHashMap<String, List<Promotion>>();
+		for (Promotion promotion : pending) {
+			List<Promotion> group = byLevel.get(promotion.level);
+			if (group == null) {
+				group = new ArrayList<Promotion>();
+				byLevel.put(promotion.level, group);
+			}
+			group.add(promotion);
+		}
+		for (Map.Entry<String, List<Promotion>> entry : byLevel.entrySet()) {
+			List<Promotion> group = entry.getValue();
+			for (int i = 0; i < group.size(); i += MAX_BATCH) {
+				List<Promotion> batch = group.subList(i, Math.min(i + MAX_BATCH, group.size()));
+				complete &= promote(entry.getKey(), batch, done);
+			}
+		}
+
+		// only the newest baseline queued for a stream is recommended
+		Map<String, Promotion> latest = new HashMap<String, Promotion>();
+		for (Promotion promotion : pending) {
+			if (promotion.stream != null && done.contains(promotion)) {
+				latest.put(promotion.stream, promotion);
+			}
+		}
+		for (Promotion promotion : latest.values()) {
+			try {
+				promoter.recommend(promotion.stream, promotion.baseline);
+			} catch (BuildException e) {
+				if (!ExistenceCache.isNotFound(e)) {
+					log.warn("Unable to recommend baseline [" + promotion.baseline
+							+ "] on [" + promotion.stream + "], will retry", e);
+					done.remove(promotion);
+					complete = false;
+				} else {
+					log.warn("Dropping recommendation of baseline [" + promotion.baseline
+							+ "] on [" + promotion.stream + "]: " + e.getMessage());
+				}
+			}
+		}
+		remove(done);
+		if (!complete) {
+			List<Promotion> failed = new ArrayList<Promotion>(pending);
+			failed.removeAll(done);
+			complete = retry(failed);
+		}
+		return complete;
+	}
+
+	/**
+	 * Set the promotion level of a batch of baselines, if the batch fails the
+	 * baselines are tried one at a time so one deleted baseline does not hold
+	 * up the others.
+	 *
+	 * @return true if no promotion is left to retry.
+	 */
+	private boolean promote(String level, List<Promotion> batch,
+			List<Promotion> done) {
+		try {
+			promoter.promote(level, baselines(batch));
+			done.addAll(batch);
+			return true;
+		} catch (BuildException e) {
+			if (batch.size() == 1) {
+				Promotion promotion = batch.get(0);
+				if (ExistenceCache.isNotFound(e)) {
+					log.warn("Dropping promotion of baseline [" + promotion.baseline
+							+ "]: " + e.getMessage());
+					done.add(promotion);
+					return true;
+				}
+				log.warn("Unable to promote baseline [" + promotion.baseline
+						+ "] to [" + level + "], will retry", e);
+				return false;
+			}
+			log.debug("Promoting " + batch.size() + " baselines failed, promoting one at a time");
+		}
+		boolean complete = true;
+		for (Promotion promotion : batch) {
+			complete &= promote(level, Collections.singletonList(promotion), done);
+		}
+		return complete;
+	}
+
+	private static List<String> baselines(List<Promotion> promotions) {
+		List<String> rval = new ArrayList<String>(promotions.size());
+		for (Promotion promotion : promotions) {
+			rval.add(promotion.baseline);
+		}
+		return rval;
+	}
+
+	/**
+	 * @return the queued promotions, oldest first.
+	 */
+	private synchronized List<Promotion> snapshot() {
+		List<Promotion> rval = new ArrayList<Promotion>();
+		for (Map.Entry<Object, Object> entry : getEntries().entrySet()) {
+			Promotion promotion = Promotion.parse((String) entry.getKey(),
+					(String) entry.getValue());
+			if (promotion != null) {
+				rval.add(promotion);
+			}
+		}
+		Collections.sort(rval, new Comparator<Promotion>() {
+			public int compare(Promotion a, Promotion b) {
+				return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+			}
+		});
+		return rval;
+	}
+
+	/**
+	 * Remove applied promotions, unless the baseline was queued again while
+	 * they were being applied.
+	 */
+	private synchronized void remove(List<Promotion> done) {
+		boolean changed = false;
+		for (Promotion promotion : done) {
+			if (promotion.format().equals(getEntries().getProperty(promotion.baseline))) {
+				getEntries().remove(promotion.baseline);
+				changed = true;
+			}
+		}
+		// drop entries that can not be parsed
+		for (Iterator<Map.Entry<Object, Object>> i = getEntries().entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Object, Object> entry = i.next();
+			if (Promotion.parse((String) entry.getKey(), (String) entry.getValue()) == null) {
+				i.remove();
+				changed = true;
+			}
+		}
+		if (changed) {
+			PluginStorage.store(storeName, entries, STORE_COMMENT);
+		}
+	}
+
+	/**
+	 * Count a failed attempt of each promotion, unless the baseline was
+	 * queued again while they were being applied, and drop the promotions
+	 * that have been tried too many times.
+	 *
+	 * @return true if no promotion is left to retry.
+	 */
+	private synchronized boolean retry(List<Promotion> failed) {
+		boolean complete = true;
+		for (Promotion promotion : failed) {
+			if (!promotion.format().equals(getEntries().getProperty(promotion.baseline))) {
+				continue;
+			}
+			Promotion retry = promotion.failed();
+			if (retry.attempts >= maxAttempts) {
+				log.error("Dropping promotion of baseline [" + promotion.baseline
+						+ "] to [" + promotion.level + "] after " + retry.attempts
+						+ " failed attempts");
+				getEntries().remove(promotion.baseline);
+			} else {
+				getEntries().setProperty(promotion.baseline, retry.format());
+				complete = false;
+			}
+		}
+		PluginStorage.store(storeName, entries, STORE_COMMENT);
+		return complete;
+	}
+
+	private synchronized void resume() {
+		if (!scheduled && !getEntries().isEmpty()) {
+			log.info("Applying " + entries.size() + " baseline promotions queued before restart");
+			schedule(delay);
+		}
+	}
+
+	private synchronized void schedule(long millis) {
+		if (scheduled || stopped) {
+			return;
+		}
+		scheduled = true;
+		if (worker == null) {
+			worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "clearcase-promotion");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		worker.schedule(new Runnable() {
+			public void run() {
+				synchronized (PromotionQueue.this) {
+					scheduled = false;
+				}
+				boolean complete = false;
+				try {
+					complete = drain();
+				} catch (RuntimeException e) {
+					log.error("Unable to apply baseline promotions, will retry", e);
+				}
+				synchronized (PromotionQueue.this) {
+					if (!getEntries().isEmpty()) {
+						schedule(complete ? delay : retryDelay);
+					}
+				}
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+	}
+
+	private long nextSequence() {
+		long now = System.currentTimeMillis();
+		nextSequence = Math.max(nextSequence + 1, now);
+		return nextSequence;
+	}
+
+	private Properties getEntries() {
+		if (entries == null) {
+			entries = PluginStorage.load(storeName);
+		}
+		return entries;
+	}
+
+	/**
+	 * Applies promotions with <code>cleartool chbl</code> and
+	 * <code>cleartool chstream</code>.
+	 */
+	private static class CleartoolPromoter implements Promoter {
+
+		private final Project dummy = ClearCaseUtils.getAntProject();
+
+		public void promote(String level, List<String> baselines)
+				throws BuildException {
+			CcChbl chbl = new CcChbl();
+			chbl.setProject(dummy);
+			chbl.setLevel(level);
+			chbl.setBaselines(baselines);
+			chbl.execute();
+		}
+
+		public void recommend(String stream, String baseline)
+				throws BuildException {
+			log.info("### Recommending baseline " + baseline + " on " + stream);
+			CcChstream chstream = new CcChstream();
+			chstream.setProject(dummy);
+			chstream.setRecommendedBaselines(baseline);
+			chstream.setObjSelect2(stream);
+			chstream.execute();
+		}
+	}
+}
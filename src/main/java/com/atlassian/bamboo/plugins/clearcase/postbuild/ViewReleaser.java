@@ -0,0 +1,35 @@
+package com.atlassian.bamboo.plugins.clearcase.postbuild;
+
+import com.atlassian.bamboo.build.CustomBuildProcessor;
+import com.atlassian.bamboo.plugins.clearcase.repository.CcRepository;
+import com.atlassian.bamboo.plugins.clearcase.repository.ViewPool;
+import com.atlassian.bamboo.repository.Repository;
+import com.atlassian.bamboo.repository.RepositoryDefinition;
+import com.atlassian.bamboo.v2.build.BuildContext;
+import com.atlassian.bamboo.v2.build.task.AbstractBuildTask;
+
+/**
+ * Returns the view leased for a build to the {@link ViewPool} once the build
+ * has run. Build processors run on the agent that built the plan, the JVM
+ * that leased the view in {@link CcRepository#retrieveSourceCode}, where
+ * build complete actions such as {@link CcBaselineLabeller} run on the server.
+ */
+public class ViewReleaser extends AbstractBuildTask implements
+		CustomBuildProcessor {
+
+	public void init(BuildContext buildContext) {
+		this.buildContext = buildContext;
+	}
+
+	public BuildContext call() throws InterruptedException, Exception {
+		for (RepositoryDefinition repositoryDefinition : buildContext
+				.getRepositoryDefinitions()) {
+			Repository repository = repositoryDefinition.getRepository();
+			if (repository instanceof CcRepository) {
+				((CcRepository) repository).releaseView(buildContext
+						.getPlanKey(), buildContext.getBuildNumber());
+			}
+		}
+		return buildContext;
+	}
+}
@@ -0,0 +1,281 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The owner and creation date of UCM activities, kept so an activity
+ * reported by diffbl is only described by cleartool the first time any plan
+ * sees it.
+ * <p/>
+ * Entries are keyed by the fully qualified activity selector and stored
+ * under the plugin storage directory, see {@link PluginStorage}, spread over
+ * {@link #BUCKETS} files by the hash of the selector so adding activities
+ * only rewrites the files they fall in. The most recently used entries are
+ * also held in memory, up to the system property
+ * <code>clearcase.activity.cache.size</code> (default 5000).
+ * <p/>
+ * The owner of an activity can be changed, so entries may be given a time to
+ * live in milliseconds with the system property
+ * <code>clearcase.activity.ttl</code> (default 0, entries never expire).
+ */
+public class ActivityMetadataCache {
+
+    /**
+     * System property holding the number of entries kept in memory.
+     */
+    public static final String PROP_MEMORY_SIZE = "clearcase.activity.cache.size";
+
+    /**
+     * System property holding the milliseconds an entry is used for.
+     */
+    public static final String PROP_TTL = "clearcase.activity.ttl";
+
+    /**
+     * Number of files the entries are spread over.
+     */
+    static final int BUCKETS = 64;
+
+    private static final String STORE_NAME = "activity-metadata";
+
+    private static final String STORE_COMMENT = "Activity owner|creation time|time cached";
+
+    private static final char FIELD_DELIM = '|';
+
+    private static final ActivityMetadataCache INSTANCE = new ActivityMetadataCache(
+            STORE_NAME, Integer.getInteger(PROP_MEMORY_SIZE, 5000).intValue(),
+            Long.getLong(PROP_TTL, 0L).longValue());
+
+    private final String storeName;
+    private final long ttl;
+    private final LruMap memory;
+
+    /**
+     * @param storeName  the prefix of the storage file names.
+     * @param maxEntries most entries kept in memory.
+     * @param ttl        milliseconds entries are used for, 0 for ever.
+     */
+    ActivityMetadataCache(String storeName, int maxEntries, long ttl) {
+        this.storeName = storeName;
+        this.ttl = ttl;
+        this.memory = new LruMap(maxEntries);
+    }
+
+    /**
+     * @return the cache shared by all plans.
+     */
+    public static ActivityMetadataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Look up many activities, each storage file is read at most once.
+     *
+     * @param selectors fully qualified activity selectors.
+     * @return the metadata of the activities that are known and have not
+     *         expired, keyed by selector.
+     */
+    public synchronized Map<String, Metadata> getAll(Collection<String> selectors) {
+        Map<String, Metadata> found = new HashMap<String, Metadata>();
+        Map<Integer, List<String>> missed = new HashMap<Integer, List<String>>();
+        long now = now();
+        for (String selector : selectors) {
+            CachedActivity entry = memory.get(selector);
+            if (entry != null && !isExpired(entry, now)) {
+                found.put(selector, entry.metadata);
+            } else {
+                Integer bucket = Integer.valueOf(bucket(selector));
+                List<String> keys = missed.get(bucket);
+                if (keys == null) {
+                    keys = new ArrayList<String>();
+                    missed.put(bucket, keys);
+                }
+                keys.add(selector);
+            }
+        }
+        for (Map.Entry<Integer, List<String>> bucket : missed.entrySet()) {
+            Properties stored = PluginStorage.load(fileName(bucket.getKey().intValue()));
+            for (String selector : bucket.getValue()) {
+                CachedActivity entry = parse(stored.getProperty(selector));
+                if (entry != null && !isExpired(entry, now)) {
+                    memory.put(selector, entry);
+                    found.put(selector, entry.metadata);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param selector a fully qualified activity selector.
+     * @return the metadata of the activity, null if it is not known or has
+     *         expired.
+     */
+    public Metadata get(String selector) {
+        return getAll(Collections.singleton(selector)).get(selector);
+    }
+
+    /**
+     * Record the metadata of activities described by cleartool, each storage
+     * file is written at most once.
+     *
+     * @param activities metadata keyed by fully qualified activity selector.
+     */
+    public synchronized void putAll(Map<String, Metadata> activities) {
+        Map<Integer, Properties> changed = new HashMap<Integer, Properties>();
+        long now = now();
+        for (Map.Entry<String, Metadata> activity : activities.entrySet()) {
+            CachedActivity entry = new CachedActivity(activity.getValue(), now);
+            memory.put(activity.getKey(), entry);
+            Integer bucket = Integer.valueOf(bucket(activity.getKey()));
+            Properties stored = changed.get(bucket);
+            if (stored == null) {
+                stored = PluginStorage.load(fileName(bucket.intValue()));
+                changed.put(bucket, stored);
+            }
+            stored.setProperty(activity.getKey(), format(entry));
+        }
+        for (Map.Entry<Integer, Properties> bucket : changed.entrySet()) {
+            PluginStorage.store(fileName(bucket.getKey().intValue()), bucket.getValue(),
+                    STORE_COMMENT);
+        }
+    }
+
+    /**
+     * Forget every activity, so they are described again.
+     */
+    synchronized void clear() {
+        memory.clear();
+        for (int i = 0; i < BUCKETS; i++) {
+            PluginStorage.delete(fileName(i));
+        }
+    }
+
+    /**
+     * @return the number of entries held in memory.
+     */
+    public synchronized int getMemorySize() {
+        return memory.size();
+    }
+
+    /**
+     * @return the current time in milliseconds.
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isExpired(CachedActivity entry, long now) {
+        return ttl > 0 && now - entry.cached > ttl;
+    }
+
+    private static int bucket(String selector) {
+        return (selector.hashCode() & Integer.MAX_VALUE) % BUCKETS;
+    }
+
+    private String fileName(int bucket) {
+        return storeName + "-" + bucket;
+    }
+
+    private static String format(CachedActivity entry) {
+        Date date = entry.metadata.getDate();
+        return entry.metadata.getOwner() + FIELD_DELIM
+                + (date != null ? String.valueOf(date.getTime()) : "") + FIELD_DELIM
+                + entry.cached;
+    }
+
+    /**
+     * @return the entry stored as owner|date|cached, null if the value is
+     *         missing or not in that form.
+     */
+    private static CachedActivity parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        // the owner is first as it is the only field that is not a number
+        int cachedStart = value.lastIndexOf(FIELD_DELIM);
+        int dateStart = cachedStart > 0 ? value.lastIndexOf(FIELD_DELIM, cachedStart - 1) : -1;
+        if (dateStart < 0) {
+            return null;
+        }
+        try {
+            String date = value.substring(dateStart + 1, cachedStart);
+            return new CachedActivity(new Metadata(value.substring(0, dateStart),
+                    date.length() > 0 ? new Date(Long.parseLong(date)) : null),
+                    Long.parseLong(value.substring(cachedStart + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Least recently used activities limited to a number of entries.
+     */
+    private static class LruMap extends LinkedHashMap<String, CachedActivity> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedActivity> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static class CachedActivity {
+        private final Metadata metadata;
+        private final long cached;
+
+        CachedActivity(Metadata metadata, long cached) {
+            this.metadata = metadata;
+            this.cached = cached;
+        }
+    }
+
+    /**
+     * The owner and creation date of an activity.
+     */
+    public static class Metadata {
+        private final String owner;
+        private final long date;
+
+        /**
+         * @param owner the owner of the activity.
+         * @param date  the creation date, null if not known.
+         */
+        public Metadata(String owner, Date date) {
+            this.owner = owner;
+            this.date = date != null ? date.getTime() : Long.MIN_VALUE;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * @return a copy of the creation date, null if not known.
+         */
+        public Date getDate() {
+            return date != Long.MIN_VALUE ? new Date(date) : null;
+        }
+
+        public String toString() {
+            return owner + " " + getDate();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.atlassian.bamboo.commit.CommitFile;
 import com.atlassian.bamboo.commit.CommitFileImpl;
 import com.atlassian.bamboo.commit.CommitImpl;
 import com.atlassian.bamboo.plugins.clearcase.ant.*;
+import com.atlassian.bamboo.plugins.clearcase.utils.ClearCaseDate;
 import com.atlassian.bamboo.plugins.clearcase.utils.StringSplitter;
 import com.atlassian.bamboo.plugins.clearcase.utils.ValidationException;
 import com.atlassian.bamboo.repository.AbstractRepository;
@@ -18,6 +19,7 @@ import com.atlassian.bamboo.v2.build.BuildRepositoryChangesImpl;
 import com.atlassian.bamboo.variable.VariableDefinition;
 import com.atlassian.bamboo.variable.VariableDefinitionManager;
 import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
+import com.atlassian.plugin.event.PluginEventManager;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -29,10 +31,16 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -78,7 +86,6 @@ public class CcRepository extends AbstractRepository {
 
     public CcRepository() {
         super();
-        configure();
     }
 
     private static final Logger log = Logger.getLogger(CcRepository.class);
@@ -94,6 +101,9 @@ public class CcRepository extends AbstractRepository {
 
     public static final String FMT_PROJ_INT_STREAM = "%[istream]Xp";
 
+    private static final CleartoolQuery LSPROJECT_INT_STREAM = CleartoolQuery
+            .lsproject(FMT_PROJ_INT_STREAM);
+
     public static final String NAME = "ClearCase";
 
     private static final String REPO_PREFIX = "custom.repository.cc.";
@@ -123,23 +133,69 @@ public class CcRepository extends AbstractRepository {
     public static final String CC_DRIVE_LETTER = REPO_PREFIX + "driveLetter";
     private static final String CC_VIEW_TAG = REPO_PREFIX + "viewTag";
     private static final String CC_DISABLE_UPDATE = REPO_PREFIX + "disableUpdate";
+    public static final String CC_HISTORY_THREADS = REPO_PREFIX + "historyThreads";
+
+    /**
+     * Number of view sub directories scanned for changes at the same time
+     * when no VOB directory is configured.
+     */
+    public static final int DEFAULT_HISTORY_THREADS = 4;
 
-    private static final String VER7_DIFF_START = "Differences:";
+    public static final String CC_VIEW_POOL_SIZE = REPO_PREFIX + "viewPoolSize";
+
+    /**
+     * Number of snapshot views kept for each build stream, 1 disables the
+     * {@link ViewPool}.
+     */
+    public static final int DEFAULT_VIEW_POOL_SIZE = 1;
+
+    public static final String CC_PRE_REBASE = REPO_PREFIX + "preRebase";
+
+    /**
+     * Appended to the plan key for the view lease held by a background rebase.
+     */
+    private static final String PRE_REBASE_LEASE = "#prerebase";
+
+    /**
+     * Build number of view leases not held by a build.
+     */
+    private static final int NO_BUILD = -1;
+
+    /**
+     * Format used to describe many activities in one call, one line per activity.
+     */
+    private static final String FMT_ACTIVITY_DETAILS = "%Xn|" + FMT_OWNER + "|" + FMT_CDATE + "\\n";
+
+    /**
+     * Maximum activity selectors passed to a single describe command.
+     */
+    private static final int DESCRIBE_BATCH_SIZE = 50;
 
     private static final String CC_DATE_FMT = "yyyyMMdd.kkmmss";
 
+    /**
+     * Revision keys of builds that compared dates rather than baselines.
+     */
+    private static final Pattern DATE_REVISION = Pattern.compile("[0-9]+\\.[0-9]+");
+
+    /**
+     * @deprecated not thread safe, use {@link #CC_DATE} instead.
+     */
+    @Deprecated
     public static final SimpleDateFormat CC_DATE_FORMAT = new SimpleDateFormat(
             CC_DATE_FMT);
 
-    private static DateFormat CC_LSHISTORY_DATE_FORMAT_LOCAL = new SimpleDateFormat(
-            "dd-MMM-yy.HH:mm:ss");
-
-    private static DateFormat CC_LSHISTORY_DATE_FORMAT_ENGLISH = new SimpleDateFormat(
-            "dd-MMM-yy.HH:mm:ss", Locale.ENGLISH);
-
-    private static final Set<Character> ACT_DIFF_START = new HashSet<Character>();
+    /**
+     * Parses and formats the numeric dates used by cleartool and for date
+     * based revision keys.
+     */
+    public static final ClearCaseDate CC_DATE = ClearCaseDate.getInstance();
 
-    private static final Set<String> ACT_DIFF_START_STRINGS = new HashSet<String>();
+    /**
+     * The date format accepted by lshistory -since, {@link SimpleDateFormat}
+     * is not thread safe so a new instance is created for each use.
+     */
+    private static final String CC_LSHISTORY_DATE_FMT = "dd-MMM-yy.HH:mm:ss";
 
     private transient VariableDefinitionManager variableDefinitionManager;
 
@@ -147,17 +203,6 @@ public class CcRepository extends AbstractRepository {
 
     private String cleartoolHome;
 
-    static {
-        ACT_DIFF_START.add('<');
-        ACT_DIFF_START.add('>');
-        ACT_DIFF_START.add('-');
-        ACT_DIFF_START.add(' ');
-        ACT_DIFF_START_STRINGS.add("<<");
-        ACT_DIFF_START_STRINGS.add(">>");
-        ACT_DIFF_START_STRINGS.add("->");
-        ACT_DIFF_START_STRINGS.add("<-");
-    }
-
     // ---------------- fields ---------------------------
 
     private CcSelector projectName = new CcSelector(CcSelector.KIND_PROJECT);
@@ -185,11 +230,6 @@ public class CcRepository extends AbstractRepository {
     private String vobDir = null;
     private String vobPath = null;
 
-    // ------------------- ANT related task objects --------------------
-    private CcDesc streamchecker = null;
-    private CcDesc desc = null;
-    private CcLsproject lsproj = null;
-
     // Decided to remove the baseline from the change summary
     // could possibly add it back as a configuration parameter.
     private boolean addBaseline = false;
@@ -206,6 +246,12 @@ public class CcRepository extends AbstractRepository {
 
     private boolean disableUpdate;
 
+    private int historyThreads = DEFAULT_HISTORY_THREADS;
+
+    private int viewPoolSize = DEFAULT_VIEW_POOL_SIZE;
+
+    private boolean preRebase;
+
     /**
      * Identifies and returns the list of files that have been changed since the
      * last build. If Baseline Comparisons are being performed, then the
@@ -221,6 +267,18 @@ public class CcRepository extends AbstractRepository {
     @NotNull
     public BuildRepositoryChanges collectChangesSinceLastBuild(@NotNull String planKey,
                                                                @NotNull String lastVcsRevisionKey) throws RepositoryException {
+        String previousPlan = CleartoolMetrics.enterPlan(planKey);
+        try {
+            return collectChanges(planKey, lastVcsRevisionKey);
+        } catch (CleartoolTimeoutException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        } finally {
+            CleartoolMetrics.exitPlan(previousPlan);
+        }
+    }
+
+    private BuildRepositoryChanges collectChanges(String planKey,
+                                                  String lastVcsRevisionKey) throws RepositoryException {
 
         log.debug("collectChangesSinceLastBuild, planKey: " + planKey
                 + " lastVcsRevisionKey: " + lastVcsRevisionKey);
@@ -232,6 +290,9 @@ public class CcRepository extends AbstractRepository {
             String latestBl = getLatestIntegrationBasline();
 
             if (!lastVcsRevisionKey.equals(latestBl)) {
+                if (isPreRebase() && isViewPooled()) {
+                    schedulePreRebase(planKey, latestBl);
+                }
 
                 // First changeLogEntry will always just be the baseline
                 // that the build is on.
@@ -245,7 +306,7 @@ public class CcRepository extends AbstractRepository {
                     commits.add(cl);
                 }
                 // check to see if the last build was using date format
-                if (lastBuildKey.matches("[0-9]+\\.[0-9]+$")) {
+                if (isDateRevision(lastBuildKey)) {
                     // just use latest baseline
                     lastBuildKey = latestBl;
                 }
@@ -282,7 +343,7 @@ public class CcRepository extends AbstractRepository {
                 // date, so use today's date
                 since = new Date();
             } else {
-                since = CC_DATE_FORMAT.parse(lastVcsRevisionKey);
+                since = CC_DATE.parse(lastVcsRevisionKey);
             }
         } catch (ParseException e) {
             try {
@@ -290,19 +351,20 @@ public class CcRepository extends AbstractRepository {
                 // This should only be used when updating cc-plugin
                 // old plugin used language locale for revision keys
                 // new plugin use numeric representation
-                since = CC_LSHISTORY_DATE_FORMAT_LOCAL
+                since = new SimpleDateFormat(CC_LSHISTORY_DATE_FMT)
                         .parse(lastVcsRevisionKey);
             } catch (ParseException pe) {
                 throw new RepositoryException("Failed to parse revision key "
                         + lastVcsRevisionKey + ": " + pe.getMessage());
             }
         }
-        List<String> latestChanges = getLatestChanges(
-                CC_LSHISTORY_DATE_FORMAT_ENGLISH.format(since), planKey);
+        LsHistoryCommitCollector collector = new LsHistoryCommitCollector(commits);
+        getLatestChanges(new SimpleDateFormat(CC_LSHISTORY_DATE_FMT,
+                Locale.ENGLISH).format(since),
+                planKey, collector);
         // Something has changed in the branch since last time.
-        if (latestChanges.size() > 0) {
-            String newRevisionKey = parseRevisionKey(latestChanges.get(0));
-            addChangeSummary(latestChanges, commits);
+        if (collector.getFirstDate() != null) {
+            String newRevisionKey = parseRevisionKey(collector.getFirstDate());
             return new BuildRepositoryChangesImpl(newRevisionKey, commits);
         }
         // No changes...
@@ -310,32 +372,28 @@ public class CcRepository extends AbstractRepository {
     }
 
     /**
-     * Gets the date of the latest change in the ClearCase base repository.
+     * Gets the revision key from the date of the latest change in the
+     * ClearCase base repository.
      *
-     * @param revKey
+     * @param latestChange the lshistory date of the latest change
      * @return
      * @throws RepositoryException
      */
-    private String parseRevisionKey(String revKey) throws RepositoryException {
-        String[] changes = revKey.split(ClearCaseUtils.LSHISTORY_DELIM);
-        String latestChange = changes[ClearCaseUtils.LSHISTORY_DATE];
-
+    private String parseRevisionKey(String latestChange) throws RepositoryException {
         log.debug("Latest change occured: " + latestChange);
 
         // Add 1 second to the date because otherwise the same latest change
         // in the repository will be returned again and again.
-        Date date = null;
+        long millis;
         try {
-            date = CC_DATE_FORMAT.parse(latestChange);
+            millis = CC_DATE.parseMillis(latestChange);
         } catch (ParseException e) {
             log.error("Cannot parse " + latestChange);
             throw new RepositoryException("Cannot parse latest change date: "
                     + e.getMessage());
         }
 
-        long millis = date.getTime();
-        date = new Date(millis + 1000);
-        return CC_DATE_FORMAT.format(date);
+        return CC_DATE.format(millis + 1000);
     }
 
     /**
@@ -343,18 +401,20 @@ public class CcRepository extends AbstractRepository {
      *
      * @param since   String representation of the date/time to compare
      * @param planKey the key for the project being built
-     * @return list of the changes
+     * @param handler receives each change as it is read
      */
-    private List<String> getLatestChanges(String since, String planKey) {
+    private void getLatestChanges(String since, String planKey,
+                                  LsHistoryHandler handler) {
         if (log.isDebugEnabled()) {
             log.debug("getLatestChanges since: " + since + " in branch: "
                     + getBranch() + " in VOB dir: " + getVobPath());
         }
 
-        List<String> changes;
+        int changes = 0;
         if (StringUtils.isNotEmpty(getVobDir())) {
             changes = ClearCaseUtils.getLatestChanges(since, getBranch(),
-                    getVobPath(), getDummyProject(), getCleartoolHome());
+                    getVobPath(), getDummyProject(), getCleartoolHome(),
+                    handler);
         } else {
             // process the child directories beneath the snapshot view location
             log.debug("Searching for changes in child directories of: " + getViewLocation(planKey));
@@ -364,31 +424,114 @@ public class CcRepository extends AbstractRepository {
                     return file.isDirectory();
                 }
             });
-            changes = new ArrayList<String>();
             if (subdirs == null) {
                 log.error("No subdirs found in directory: " + getViewLocation(planKey));
-                return changes;
+                return;
             }
+            // scan in a fixed order so results are merged the same way each time
+            Arrays.sort(subdirs);
+            changes = scanSubdirectories(since, subdirs, handler);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Changes in branch [" + getBranch() + "] has count["
+                    + changes + "]");
+        }
+    }
 
-            for (File subdirectory : subdirs) {
+    /**
+     * Run lshistory in each directory using up to {@link #getHistoryThreads()}
+     * concurrent cleartool processes. Each directory's events are collected
+     * separately and passed to the handler in directory order once all scans
+     * are complete, a directory that fails is logged and skipped.
+     *
+     * @param since   String representation of the date/time to compare
+     * @param subdirs the directories to scan
+     * @param handler receives each change
+     * @return the number of changes found
+     */
+    int scanSubdirectories(final String since, File[] subdirs,
+                           LsHistoryHandler handler) {
+        final String plan = CleartoolMetrics.getCurrentPlan();
+        int threads = Math.min(getHistoryThreads(), subdirs.length);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "clearcase-lshistory");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<List<LsHistoryEvent>>> results = new ArrayList<Future<List<LsHistoryEvent>>>();
+        try {
+            for (final File subdirectory : subdirs) {
+                results.add(executor.submit(new Callable<List<LsHistoryEvent>>() {
+                    public List<LsHistoryEvent> call() {
+                        final List<LsHistoryEvent> events = new ArrayList<LsHistoryEvent>();
+                        String previousPlan = CleartoolMetrics.enterPlan(plan);
+                        try {
+                            scanDirectory(since, subdirectory, new LsHistoryHandler() {
+                                public void onEvent(LsHistoryEvent event) {
+                                    events.add(event);
+                                }
+                            });
+                        } catch (CleartoolTimeoutException e) {
+                            // missing changes must not be mistaken for no changes
+                            throw e;
+                        } catch (BuildException e) {
+                            // directory might not be under ClearCase control, attempt
+                            // to continue
+                            log.error("Error processing directory: "
+                                    + subdirectory.getAbsolutePath());
+                            return Collections.emptyList();
+                        } finally {
+                            CleartoolMetrics.exitPlan(previousPlan);
+                        }
+                        return events;
+                    }
+                }));
+            }
+
+            int changes = 0;
+            for (int i = 0; i < subdirs.length; i++) {
+                List<LsHistoryEvent> events;
                 try {
-                    changes.addAll(ClearCaseUtils.getLatestChanges(since,
-                            getBranch(), subdirectory.getAbsolutePath(),
-                            getDummyProject(), getCleartoolHome()));
-                } catch (BuildException e) {
-                    // directory might not be under ClearCase control, attempt
-                    // to continue
+                    events = results.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CleartoolTimeoutException) {
+                        throw (CleartoolTimeoutException) e.getCause();
+                    }
                     log.error("Error processing directory: "
-                            + subdirectory.getAbsolutePath());
+                            + subdirs[i].getAbsolutePath(), e.getCause());
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BuildException("Interrupted scanning " + subdirs[i], e);
+                }
+                for (LsHistoryEvent event : events) {
+                    handler.onEvent(event);
                 }
+                changes += events.size();
             }
+            return changes;
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("Changes in branch [" + getBranch() + "] has count["
-                    + changes.size() + "]");
-        }
-        return changes;
+    /**
+     * Run lshistory in a single directory, called concurrently for each
+     * directory by {@link #scanSubdirectories(String, File[], LsHistoryHandler)}.
+     * Package visible so tests can answer without ClearCase.
+     *
+     * @param since     String representation of the date/time to compare
+     * @param directory the directory to scan
+     * @param handler   receives each change
+     */
+    void scanDirectory(String since, File directory, LsHistoryHandler handler) {
+        ClearCaseUtils.getLatestChanges(since, getBranch(),
+                directory.getAbsolutePath(), getDummyProject(),
+                getCleartoolHome(), handler);
     }
 
     /**
@@ -401,63 +544,144 @@ public class CcRepository extends AbstractRepository {
     void addChangeSummary(List<String> changeList, List<Commit> commits)
             throws RepositoryException {
         log.debug("Entering addChangeSummary for ClearCase base");
-        CommitImpl commit = null;
         for (String line : changeList) {
-            String[] event = line.split(ClearCaseUtils.LSHISTORY_DELIM);
-            commit = new CommitImpl();
-            commit.setAuthor(new AuthorImpl(
-                    event[ClearCaseUtils.LSHISTORY_USER]));
-
-            // If the size is not right, it must mean there was no comment in
-            // the ClearCase
-            // checkin. In that case we won't try to parse the comment.
-            if (event.length == ClearCaseUtils.LSHISTORY_RESULT_SIZE) {
-                commit.setComment(event[ClearCaseUtils.LSHISTORY_COMMENT]);
-            }
+            addCommit(LsHistoryEvent.parse(line), commits);
+        }
+        log.debug("Exiting addChangeSummary for ClearCase base");
+    }
 
-            try {
-                Date date = CC_DATE_FORMAT
-                        .parse(event[ClearCaseUtils.LSHISTORY_DATE]);
-                commit.setDate(date);
-            } catch (ParseException e) {
-                log.error("Could not parse date: " + event[0], e);
+    /**
+     * Create the commit for a single lshistory event.
+     *
+     * @param event   the history event
+     * @param commits the list to add the commit to
+     */
+    private static void addCommit(LsHistoryEvent event, List<Commit> commits) {
+        CommitImpl commit = new CommitImpl();
+        commit.setAuthor(new AuthorImpl(event.getUser()));
+
+        // If there is no comment there was no comment in the ClearCase
+        // checkin. In that case we won't try to parse the comment.
+        if (event.getComment() != null) {
+            commit.setComment(event.getComment());
+        }
+
+        try {
+            commit.setDate(CC_DATE.parse(event.getDate()));
+        } catch (ParseException e) {
+            log.error("Could not parse date: " + event.getDate(), e);
+        }
+        commit.addFile(new CommitFileImpl(event.getFile()));
+        commits.add(commit);
+    }
+
+    /**
+     * Turns lshistory events in to commits as they are read and remembers
+     * the date of the first, ie latest, change.
+     */
+    private static class LsHistoryCommitCollector implements LsHistoryHandler {
+
+        private final List<Commit> commits;
+
+        private String firstDate = null;
+
+        LsHistoryCommitCollector(List<Commit> commits) {
+            this.commits = commits;
+        }
+
+        public void onEvent(LsHistoryEvent event) {
+            if (firstDate == null) {
+                firstDate = event.getDate();
             }
-            commit.addFile(new CommitFileImpl(
-                    event[ClearCaseUtils.LSHISTORY_FILE]));
-            commits.add(commit);
+            addCommit(event, commits);
+        }
+
+        /**
+         * @return the date of the first event, null if there were none.
+         */
+        String getFirstDate() {
+            return firstDate;
         }
-        log.debug("Exiting addChangeSummary for ClearCase base");
     }
 
     @NotNull
     public String retrieveSourceCode(@NotNull BuildContext buildContext, @Nullable String vcsRevisionKey) throws RepositoryException {
-		return retrieveSourceCode(buildContext.getPlanKey(), vcsRevisionKey);
+		String revision = retrieveSourceCode(buildContext.getPlanKey(),
+				buildContext.getBuildNumber(), vcsRevisionKey);
+		CheckoutContext.register(newCheckoutContext(buildContext.getPlanKey(),
+				buildContext.getBuildNumber(), revision));
+		return revision;
 	}
 
+    /**
+     * Describe what was just checked out so the rest of the build can use it
+     * without running cleartool, see {@link CheckoutContext}.
+     */
+    private CheckoutContext newCheckoutContext(String planKey, int buildNumber,
+                                               String revision) {
+        if (!CC_TYPE_UCM.equals(getClearCaseType())) {
+            return new CheckoutContext(planKey, buildNumber, revision, null,
+                    null, getViewTag(), getBaseViewLocation());
+        }
+        ViewPool.PooledView leased = getLeasedView(planKey, buildNumber);
+        if (leased != null) {
+            return new CheckoutContext(planKey, buildNumber, revision,
+                    shouldCompareBaselines() ? revision : null, leased.getStream(),
+                    leased.getViewTag(), leased.getLocation());
+        }
+        return new CheckoutContext(planKey, buildNumber, revision,
+                shouldCompareBaselines() ? revision : null,
+                getBuildStreamAsSelector(), getViewTagToUse(),
+                getViewLocation(planKey));
+    }
+
     /**
      * Performs the required processing in order to pull down the source code
      * from the ClearCase repository.
      *
      * @param planKey        the key for the project being built
-     * @param vcsRevisionKey either the date/time or the baseline that was previously built
+     * @param vcsRevisionKey the revision found by change detection, when
+     *                       comparing baselines a baseline is built as is and
+     *                       the latest baseline is only looked up if there is
+     *                       none
      * @return String representing either the baseline that is being built
      * @throws RepositoryException if an error occurs during the retrieval of source code
      */
     @NotNull
     public String retrieveSourceCode(@NotNull String planKey,
                                      String vcsRevisionKey) throws RepositoryException {
+        return retrieveSourceCode(planKey, NO_BUILD, vcsRevisionKey);
+    }
+
+    private String retrieveSourceCode(String planKey, int buildNumber,
+                                      String vcsRevisionKey) throws RepositoryException {
+        String previousPlan = CleartoolMetrics.enterPlan(planKey);
+        try {
+            return retrieveSource(planKey, buildNumber, vcsRevisionKey);
+        } catch (CleartoolTimeoutException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        } finally {
+            CleartoolMetrics.exitPlan(previousPlan);
+        }
+    }
+
+    private String retrieveSource(String planKey, int buildNumber,
+                                  String vcsRevisionKey) throws RepositoryException {
         log.debug("retrieveSourceCode, planKey: " + planKey
                 + " vcsRevisionKey: " + vcsRevisionKey);
 
         if (CC_TYPE_UCM.equals(getClearCaseType())) {
+            if (isViewPooled()) {
+                return retrievePooledSource(planKey, buildNumber, vcsRevisionKey);
+            }
             String baselineToUse = vcsRevisionKey;
             createStreamAndView(planKey);
             if (shouldCompareBaselines()) {
-                baselineToUse = getLatestIntegrationBasline();
+                baselineToUse = getBaselineToBuild(vcsRevisionKey);
                 checkLoadRules(baselineToUse, planKey);
                 rebaseBuild(baselineToUse, planKey);
             } else {
-                String lastChange = CC_DATE_FORMAT.format(new Date());
+                String lastChange = CC_DATE.format(System.currentTimeMillis());
                 if (!isDynamicView()) {
                     log.debug("Updating view...");
                     checkLoadRules(null, planKey);
@@ -468,7 +692,7 @@ public class CcRepository extends AbstractRepository {
             }
             return baselineToUse;
         } else {
-            String lastChange = CC_DATE_FORMAT.format(new Date());
+            String lastChange = CC_DATE.format(System.currentTimeMillis());
             if (!isDynamicView()) {
                 log.debug("Updating view...");
                 updateView(getBaseViewLocation());
@@ -479,6 +703,216 @@ public class CcRepository extends AbstractRepository {
         }
     }
 
+    /**
+     * Lease a view from the {@link ViewPool} and bring it up to date, the
+     * lease is held until the build completes and is returned by
+     * {@link #releaseView(String, int)}, or straight away if the view can not
+     * be brought up to date.
+     */
+    private String retrievePooledSource(String planKey, int buildNumber,
+                                        String vcsRevisionKey) throws RepositoryException {
+        String baselineToUse = vcsRevisionKey;
+        if (shouldCompareBaselines()) {
+            baselineToUse = getBaselineToBuild(vcsRevisionKey);
+            // the rebase is done by the background rebase if one is running
+            PreRebaseScheduler.getInstance().await(getViewPoolKey(planKey), baselineToUse);
+        }
+        ViewPool pool = ViewPool.getInstance();
+        ViewPool.PooledView leased = pool.lease(getViewPoolKey(planKey), planKey,
+                buildNumber, getViewPoolSize(), new PooledViewManager(planKey));
+        boolean retrieved = false;
+        try {
+            createPooledView(leased);
+            if (shouldCompareBaselines()) {
+                if (baselineToUse.equals(pool.getBaseline(leased.getStream()))) {
+                    log.info("View " + leased + " already rebased to " + baselineToUse);
+                } else {
+                    checkViewLoadRules(baselineToUse, leased.getLocation(), leased.getStream());
+                    rebaseView(baselineToUse, leased.getLocation(), leased.getViewTag(),
+                            leased.getStream());
+                    pool.setBaseline(leased.getStream(), baselineToUse);
+                }
+            } else {
+                baselineToUse = CC_DATE.format(System.currentTimeMillis());
+                checkViewLoadRules(null, leased.getLocation(), leased.getStream());
+                updateView(leased.getLocation(), leased.getStream());
+            }
+            retrieved = true;
+            return baselineToUse;
+        } finally {
+            if (!retrieved) {
+                pool.release(planKey, buildNumber);
+            }
+        }
+    }
+
+    private void schedulePreRebase(final String planKey, final String baseline) {
+        PreRebaseScheduler.getInstance().schedule(getViewPoolKey(planKey), baseline,
+                new PreRebaseScheduler.RebaseTask() {
+                    public void rebase() throws RepositoryException {
+                        preRebase(planKey, baseline);
+                    }
+                });
+    }
+
+    /**
+     * Rebase an idle pooled view to a baseline found by polling, so the build
+     * of the baseline does not have to.
+     */
+    private void preRebase(String planKey, String baseline) throws RepositoryException {
+        String leaseKey = planKey + PRE_REBASE_LEASE;
+        String previousPlan = CleartoolMetrics.enterPlan(planKey);
+        ViewPool pool = ViewPool.getInstance();
+        ViewPool.PooledView view = pool.lease(getViewPoolKey(planKey), leaseKey,
+                NO_BUILD, getViewPoolSize(), new PooledViewManager(planKey));
+        boolean rebased = false;
+        try {
+            if (!baseline.equals(pool.getBaseline(view.getStream()))) {
+                createPooledView(view);
+                checkViewLoadRules(baseline, view.getLocation(), view.getStream());
+                rebaseView(baseline, view.getLocation(), view.getViewTag(), view.getStream());
+                pool.setBaseline(view.getStream(), baseline);
+            }
+            rebased = true;
+        } finally {
+            pool.release(leaseKey, NO_BUILD, !rebased);
+            CleartoolMetrics.exitPlan(previousPlan);
+        }
+    }
+
+    /**
+     * Return the view leased for a build to the {@link ViewPool}, does
+     * nothing if the build has no leased view.
+     *
+     * @param planKey     the plan that was built.
+     * @param buildNumber the number of the build.
+     */
+    public void releaseView(String planKey, int buildNumber) {
+        ViewPool.getInstance().release(planKey, buildNumber);
+    }
+
+    /**
+     * @return true if builds use a view leased from the {@link ViewPool}.
+     */
+    private boolean isViewPooled() {
+        return (getViewPoolSize() > 1 || isPreRebase()) && CC_TYPE_UCM.equals(getClearCaseType())
+                && isAutoCreate() && !isDynamicView();
+    }
+
+    private String getViewPoolKey(String planKey) {
+        return planKey + "|" + getBuildStreamAsSelector();
+    }
+
+    /**
+     * @return the view leased for a build of the plan, null if not pooled or
+     *         there is no lease, see {@link ViewPool#getLease(String)}.
+     */
+    private ViewPool.PooledView getLeasedView(String planKey) {
+        return isViewPooled() ? ViewPool.getInstance().getLease(planKey) : null;
+    }
+
+    /**
+     * @return the view leased for the build, null if not pooled or there is
+     *         no lease.
+     */
+    private ViewPool.PooledView getLeasedView(String planKey, int buildNumber) {
+        return isViewPooled() ? ViewPool.getInstance().getLease(planKey, buildNumber) : null;
+    }
+
+    /**
+     * @param slot the number of a view in the pool.
+     * @return the selector of the stream of the view, the build stream for
+     *         slot 0 and the build stream name with the slot number appended
+     *         for other slots.
+     */
+    private String getPoolStream(int slot) {
+        String selector = getBuildStreamAsSelector();
+        if (slot == 0) {
+            return selector;
+        }
+        int nameEnd = selector.indexOf(':') + 1 + buildStream.getName().length();
+        return selector.substring(0, nameEnd) + "_" + slot + selector.substring(nameEnd);
+    }
+
+    /**
+     * @return true if the stream is the build stream or the stream of a
+     *         pooled view.
+     */
+    private boolean isPoolStream(String stream) {
+        for (int slot = 0; slot < Math.max(1, getViewPoolSize()); slot++) {
+            if (getPoolStream(slot).equals(stream)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the stream and view of a pooled view if they do not exist.
+     */
+    private void createPooledView(ViewPool.PooledView view) throws RepositoryException {
+        new File(view.getLocation()).getParentFile().mkdirs();
+        cmdRunner(newStreamCreator(view.getViewTag(), view.getStream(),
+                view.getLocation(), view.getStorage()), view.getStream());
+    }
+
+    /**
+     * Creates the views of a plan's pool. Slot 0 is the view used when
+     * pooling is disabled, other slots are in a sibling directory of the plan
+     * directory with the slot number appended to the view tag. Each slot has
+     * its own stream, created from the integration stream like the build
+     * stream, so a build rebasing its view does not change the view of
+     * another build. Removing a view also removes its stream, apart from the
+     * build stream of slot 0.
+     */
+    private class PooledViewManager implements ViewPool.ViewManager {
+        private final String planKey;
+
+        PooledViewManager(String planKey) {
+            this.planKey = planKey;
+        }
+
+        public ViewPool.PooledView newView(int slot) {
+            String name = buildStream.getName();
+            if (slot == 0) {
+                File planDir = new File(getViewLocation(), planKey);
+                return new ViewPool.PooledView(0, getViewTagToUse(), getPoolStream(0),
+                        new File(planDir, name).getAbsolutePath(),
+                        getBuildViewStorageDir(), planDir.getAbsolutePath());
+            }
+            File planDir = new File(getViewLocation(), planKey + "~" + slot);
+            return new ViewPool.PooledView(slot, getViewTagToUse() + "_" + slot,
+                    getPoolStream(slot), new File(planDir, name).getAbsolutePath(),
+                    substituteGlobalVariables(getViewStorageDir() + File.separator
+                            + name + "_" + slot + ".vws"),
+                    planDir.getAbsolutePath());
+        }
+
+        public void prepare(ViewPool.PooledView view) throws RepositoryException {
+            createPooledView(view);
+            checkViewLoadRules(null, view.getLocation(), view.getStream());
+            updateView(view.getLocation(), view.getStream());
+        }
+
+        public void update(ViewPool.PooledView view) throws RepositoryException {
+            updateView(view.getLocation(), view.getStream());
+        }
+
+        public void remove(ViewPool.PooledView view) throws RepositoryException {
+            CcRmview rmview = new CcRmview();
+            rmview.setProject(getDummyProject());
+            rmview.setView(view.getLocation());
+            cmdRunner(rmview, view.getStream());
+            if (view.getSlot() > 0) {
+                CcRmstream rmstream = new CcRmstream();
+                rmstream.setProject(getDummyProject());
+                rmstream.setStream(view.getStream());
+                ExistenceCache.getInstance().invalidate(view.getStream());
+                cmdRunner(rmstream, view.getStream());
+            }
+        }
+    }
+
     /**
      * Updates the ClearCase base snapshot view.
      *
@@ -487,11 +921,23 @@ public class CcRepository extends AbstractRepository {
      *                             view.
      */
     private void updateView(String path) throws RepositoryException {
+        updateView(path, getBuildStreamAsSelector());
+    }
+
+    /**
+     * @param path   the location of the snapshot view to update.
+     * @param stream the stream of the view.
+     */
+    private void updateView(String path, String stream) throws RepositoryException {
         if (!isDisableUpdate()) {
             CcUpdateSnapshot update = new CcUpdateSnapshot();
             update.setViewPath(path);
             update.setProject(getDummyProject());
-            cmdRunner(update);
+            try {
+                cmdRunner(update, stream);
+            } finally {
+                update.dispose();
+            }
         }
     }
 
@@ -504,16 +950,22 @@ public class CcRepository extends AbstractRepository {
      */
     private void createStreamAndView(String planKey) throws RepositoryException {
         // will create stream and view if required.
+        cmdRunner(newStreamCreator(getViewTagToUse(), getBuildStreamAsSelector(),
+                getViewLocation(planKey), getBuildViewStorageDir()));
+    }
+
+    private CcStreamCreator newStreamCreator(String viewTag, String stream,
+                                             String viewLocation, String vws) {
         CcStreamCreator sc = new CcStreamCreator();
         sc.setProject(getDummyProject());
         sc.setIntStream(getIntStream());
-        sc.setStreamName(getBuildStreamAsSelector());
-        sc.setViewLocation(getViewLocation(planKey));
-        sc.setViewTag(getViewTagToUse());
-        sc.setVws(getBuildViewStorageDir());
+        sc.setStreamName(stream);
+        sc.setViewLocation(viewLocation);
+        sc.setViewTag(viewTag);
+        sc.setVws(vws);
         sc.setDynamicView(isDynamicView());
         sc.setDriveLetter(getDriveLetter());
-        cmdRunner(sc);
+        return sc;
     }
 
     private String getViewTagToUse() {
@@ -538,6 +990,11 @@ public class CcRepository extends AbstractRepository {
             return getViewLocation();
         }
 
+        ViewPool.PooledView leased = getLeasedView(planKey);
+        if (leased != null) {
+            return leased.getLocation();
+        }
+
         if (isAutoCreate()) {
             File parentDirectory = new File(getViewLocation(), planKey);
             if (!parentDirectory.exists()) {
@@ -560,13 +1017,29 @@ public class CcRepository extends AbstractRepository {
      *
      */
     private void cmdRunner(CleartoolCommand cmd) throws RepositoryException {
+        cmdRunner(cmd, getBuildStreamAsSelector());
+    }
+
+    /**
+     * @param cmd    the ANT task to run.
+     * @param stream the stream the command works on, checked with ClearCase
+     *               again if the command fails as something was not found.
+     */
+    private void cmdRunner(CleartoolCommand cmd, String stream) throws RepositoryException {
         try {
             String cleartoolHome = getCleartoolHome();
             if (StringUtils.isNotEmpty(cleartoolHome))
                 cmd.setCleartoolHome(cleartoolHome);
             cmd.execute();
         } catch (BuildException be) {
-            String msg = "Execution of " + cmd.getTaskName() + " + failed";
+            String msg = be instanceof CleartoolTimeoutException ? be.getMessage()
+                    : "Execution of " + cmd.getTaskName() + " + failed";
+            CleartoolMetrics.getInstance().recordFailure(cmd.getCommand());
+            if (ExistenceCache.isNotFound(be)) {
+                // the stream or a view may have been removed, check them
+                // with ClearCase on the next build
+                ExistenceCache.getInstance().invalidate(stream);
+            }
             log.info(msg + ", wrapping in RepositoryException", be);
             throw new RepositoryException(msg, be);
         }
@@ -589,7 +1062,9 @@ public class CcRepository extends AbstractRepository {
 
         CcSelector stream = new CcSelector(CcSelector.KIND_STREAM,
                 streamSelector);
-        streamchecker.setObjSelect2(stream.asSelector());
+        ClearToolListCommand streamchecker = CleartoolQuery.DESCRIBE_NAME
+                .newCommand(getDummyProject(), getCleartoolHome(), null,
+                        stream.asSelector());
         try {
             streamchecker.execute();
 
@@ -600,7 +1075,7 @@ public class CcRepository extends AbstractRepository {
             }
             return quailifiedStream;
         } catch (BuildException be) {
-            String cmdOutput = streamchecker.getCommandOutput();
+            String cmdOutput = streamchecker.getLastOutput();
             String msg = "Stream lookup failed for [" + streamSelector
                     + "]. ClearTool Ouput [" + cmdOutput + "]";
             log.debug(msg, be);
@@ -608,26 +1083,6 @@ public class CcRepository extends AbstractRepository {
         }
     }
 
-    /**
-     * Setup a dummy and project and CC desc command.
-     */
-    private void configure() {
-        if (streamchecker == null) {
-            streamchecker = new CcDesc();
-            streamchecker.setProject(getDummyProject());
-            streamchecker.setFormat("%Xn");
-        }
-        if (desc == null) {
-            desc = new CcDesc();
-            desc.setProject(getDummyProject());
-        }
-        if (lsproj == null) {
-            lsproj = new CcLsproject();
-            lsproj.setProject(getDummyProject());
-        }
-
-    }
-
     /**
      * @return an instance of {#link Project } to be used as part of the
      *         ClearCase operations
@@ -644,12 +1099,16 @@ public class CcRepository extends AbstractRepository {
      * @param planKey
      */
     private void checkLoadRules(String latestBl, String planKey) {
+        checkViewLoadRules(latestBl, getViewLocation(planKey), getBuildStreamAsSelector());
+    }
+
+    private void checkViewLoadRules(String latestBl, String viewPath, String stream) {
         if (isAutoCreate()) {
             CcUpdateLoadRules ulr = new CcUpdateLoadRules();
             ulr.setProject(getDummyProject());
             ulr.setExplicitLoadRules(getLoadRules());
-            ulr.setViewPath(getViewLocation(planKey));
-            ulr.setStream(getBuildStreamAsSelector());
+            ulr.setViewPath(viewPath);
+            ulr.setStream(stream);
             ulr.setBaseline(latestBl);
             ulr.setCleartoolHome(getCleartoolHome());
             ulr.execute();
@@ -661,7 +1120,10 @@ public class CcRepository extends AbstractRepository {
     }
 
     /**
-     * Add all activities and file version to the change list.
+     * Add all activities and file version to the change list, commits are
+     * created as the diffbl output is read. A pair of baselines is only
+     * diffed once per server, later requests and plans asking while it is
+     * diffed are answered by the {@link DiffblCache}.
      *
      * @param currentBl
      * @param latestBl
@@ -669,66 +1131,268 @@ public class CcRepository extends AbstractRepository {
      * @param planKey
      * @throws RepositoryException
      */
-    void addChangeSummary(String currentBl, String latestBl,
-                          List<Commit> changeList, String planKey) throws RepositoryException {
+    void addChangeSummary(final String currentBl, final String latestBl,
+                          List<Commit> changeList, final String planKey) throws RepositoryException {
 
-        String diffBlText = runDiffBl(latestBl, currentBl, planKey);
-        // test if using ClearCase version 7 output format
-        int version7StartPos = diffBlText.indexOf(VER7_DIFF_START);
-        if (version7StartPos != -1) {
-            // skip over ClearCase version 7 guff at start of output
-            diffBlText = diffBlText.substring(version7StartPos
-                    + VER7_DIFF_START.length());
+        Map<String, List<CommitImpl>> activities = new LinkedHashMap<String, List<CommitImpl>>();
+        DiffblCommitBuilder builder = new DiffblCommitBuilder(changeList, activities);
+        DiffblCache cache = DiffblCache.getInstance();
+        String viewPath = getViewLocation(planKey);
+        DiffblCache.Diff diff = cache.get(currentBl, latestBl);
+        if (diff == null) {
+            final DiffblCache.Recorder recorder = new DiffblCache.Recorder(builder, viewPath);
+            FutureTask<DiffblCache.Diff> task = new FutureTask<DiffblCache.Diff>(
+                    new Callable<DiffblCache.Diff>() {
+                        public DiffblCache.Diff call() throws RepositoryException {
+                            DiffblParser parser = new DiffblParser(recorder);
+                            runDiffBl(latestBl, currentBl, planKey, parser);
+                            return recorder.toDiff(parser);
+                        }
+                    });
+            FutureTask<DiffblCache.Diff> result = cache.diff(currentBl, latestBl, task);
+            diff = getDiff(result);
+            if (result == task) {
+                // the builder was passed the output as diffbl ran
+                diff = null;
+            }
         }
+        if (diff != null) {
+            log.debug("Using cached diffbl of " + currentBl + " to " + latestBl);
+            diff.replay(builder, viewPath);
+        }
+        if (builder.error != null) {
+            throw builder.error;
+        }
+        describeActivities(activities, ActivityMetadataCache.getInstance());
+    }
 
-        StringSplitter sp = new StringSplitter(diffBlText);
-        sp.setIgnoreEmptyToken(true);
-        List<String> lines = sp.getItems();
-
-        Commit commit = null;
-        for (String line : lines) {
-            if (isActivity(line)) {
-                commit = addCommitLogEntry(line, changeList);
-            } else {
-                // we are process a change version for the last activity
-                if (!StringUtils.isEmpty(line)) {
-                    addCommitFile(line, commit);
+    /**
+     * Wait for a diff, run by this or another plan, to complete.
+     */
+    private static DiffblCache.Diff getDiff(FutureTask<DiffblCache.Diff> task)
+            throws RepositoryException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RepositoryException) {
+                        throw (RepositoryException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RepositoryException("Unable to run diffbl", cause);
                 }
             }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates a commit for each diffbl activity and adds the versions that
+     * follow it to the commit.
+     */
+    private class DiffblCommitBuilder implements DiffblHandler {
+        private final List<Commit> changeList;
+        private final Map<String, List<CommitImpl>> activities;
+        private final String viewLocation = getViewLocation();
+        private final String viewLocationLower = viewLocation.toLowerCase();
+        private Commit commit;
+        /**
+         * The first bad activity, reported once the output has been read as
+         * the parser runs in the thread reading the process output.
+         */
+        private RepositoryException error;
+
+        DiffblCommitBuilder(List<Commit> changeList,
+                            Map<String, List<CommitImpl>> activities) {
+            this.changeList = changeList;
+            this.activities = activities;
+        }
+
+        public void onActivity(String id, String headline) {
+            commit = null;
+            if (error != null) {
+                return;
+            }
+            try {
+                commit = addCommitLogEntry(id, headline, changeList, activities);
+            } catch (RepositoryException e) {
+                error = e;
+            }
+        }
+
+        public void onVersion(String element, String version) {
+            if (commit == null) {
+                return;
+            }
+            if (element.toLowerCase().startsWith(viewLocationLower)) {
+                element = element.substring(viewLocation.length());
+            }
+            addCommitFile(element, version, commit);
         }
     }
 
     /**
-     * Process the activity version line from the diffbl command and add the
-     * ChangeLogFile entry to the passed changeLogEntry.
+     * Set the author and date of every commit from its activity. Activities
+     * already in the {@link ActivityMetadataCache} are not described again,
+     * the rest are described in batches of {@link #DESCRIBE_BATCH_SIZE}
+     * selectors per cleartool call rather than 2 calls per activity. Any
+     * activity missing from the batch output is described individually.
      *
-     * @param line   the diffbl version line
-     * @param commit
+     * @param activities the commits to complete keyed by activity selector.
+     * @param cache      the activities described before.
+     * @throws RepositoryException if describing an activity individually fails
      */
-    private void addCommitFile(String line, Commit commit) {
-        if (commit == null)
-            return;
-        List<CommitFile> files = getCommitFiles(commit);
-        log.debug("addChangeLogFile: line " + line);
-        if (commit == null) {
-            log
-                    .info("The changelog was null this is probably indicating a bug. line["
-                            + line + "]");
-        }
-        line = line.trim();
-        String[] parts = line.split("@@");
-        if (parts.length < 2) {
-            // oops must have made bad assumption about format of output.
-            log.warn("Unable to process version line [" + line + "]");
-            // TODO maybe setup change file with the line in it.....
-            return;
+    void describeActivities(Map<String, List<CommitImpl>> activities,
+                            ActivityMetadataCache cache)
+            throws RepositoryException {
+        Map<String, ActivityMetadataCache.Metadata> known = cache.getAll(activities.keySet());
+        List<String> selectors = new ArrayList<String>();
+        for (String selector : activities.keySet()) {
+            if (!known.containsKey(selector)) {
+                selectors.add(selector);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Describing " + selectors.size() + " of " + activities.size()
+                    + " activities, the rest are cached");
+        }
+
+        Map<String, ActivityMetadataCache.Metadata> described =
+                new HashMap<String, ActivityMetadataCache.Metadata>();
+        for (int start = 0; start < selectors.size(); start += DESCRIBE_BATCH_SIZE) {
+            List<String> batch = selectors.subList(start,
+                    Math.min(start + DESCRIBE_BATCH_SIZE, selectors.size()));
+            String output = describeBatch(batch);
+            if (output == null) {
+                continue;
+            }
+            for (String line : new StringSplitter(output).getItems()) {
+                String[] parts = line.split("\\|", 3);
+                if (parts.length < 3) {
+                    log.debug("Ignoring describe output [" + line + "]");
+                    continue;
+                }
+                String selector = normaliseActivity(parts[0]);
+                if (!activities.containsKey(selector)) {
+                    log.debug("Describe returned unexpected activity [" + line + "]");
+                    continue;
+                }
+                Date date = null;
+                try {
+                    date = CC_DATE.parse(parts[2]);
+                } catch (ParseException e) {
+                    log.info("unable to determine object[" + selector
+                            + "] creation date[" + parts[2] + "]", e);
+                }
+                described.put(selector, new ActivityMetadataCache.Metadata(parts[1], date));
+            }
+        }
+
+        for (String selector : selectors) {
+            if (!described.containsKey(selector)) {
+                described.put(selector, describeActivity(selector));
+            }
+        }
+
+        Map<String, ActivityMetadataCache.Metadata> complete =
+                new HashMap<String, ActivityMetadataCache.Metadata>();
+        for (Map.Entry<String, ActivityMetadataCache.Metadata> entry : described.entrySet()) {
+            // retry activities whose date could not be read on the next build
+            if (entry.getValue().getDate() != null) {
+                complete.put(entry.getKey(), entry.getValue());
+            }
+        }
+        cache.putAll(complete);
+        known.putAll(described);
+
+        for (Map.Entry<String, List<CommitImpl>> entry : activities.entrySet()) {
+            ActivityMetadataCache.Metadata metadata = known.get(entry.getKey());
+            Date date = metadata.getDate();
+            for (CommitImpl commit : entry.getValue()) {
+                commit.setAuthor(new AuthorImpl(metadata.getOwner().toLowerCase()));
+                commit.setDate(date);
+            }
+        }
+    }
+
+    /**
+     * Describe many activities in one command, one
+     * {@link #FMT_ACTIVITY_DETAILS} line each. Activities that could not be
+     * described are left out rather than failing the command. Package
+     * visible so tests can answer without ClearCase.
+     *
+     * @param selectors the activity selectors
+     * @return the describe output, null if there was none.
+     * @throws RepositoryException if cleartool could not be run
+     */
+    String describeBatch(List<String> selectors) throws RepositoryException {
+        CcDesc batchDesc = new CcDesc();
+        batchDesc.setProject(getDummyProject());
+        batchDesc.setViewPath(getViewLocation());
+        batchDesc.setFormat(FMT_ACTIVITY_DETAILS);
+        batchDesc.setExtraArguments(selectors.toArray(new String[selectors.size()]));
+        // failures are picked up by describing individually
+        batchDesc.setFailOnErr(false);
+        try {
+            cmdRunner(batchDesc);
+            return batchDesc.getCommandOutput();
+        } finally {
+            batchDesc.dispose();
         }
-        String element = parts[0];
-        if (element.toLowerCase().startsWith(getViewLocation().toLowerCase())) {
-            element = element.substring(getViewLocation().length());
+    }
+
+    /**
+     * Describe a single activity missing from the batch output. Package
+     * visible so tests can answer without ClearCase.
+     *
+     * @param selector the activity selector
+     * @return the owner and creation date of the activity.
+     * @throws RepositoryException if the activity could not be described
+     */
+    ActivityMetadataCache.Metadata describeActivity(String selector)
+            throws RepositoryException {
+        return new ActivityMetadataCache.Metadata(
+                getDescAttribute(selector, FMT_OWNER), getObjectDate(selector));
+    }
+
+    /**
+     * Put an activity selector in to the form used as the key when matching
+     * describe output to commits.
+     *
+     * @param activity the activity selector
+     * @return the fully qualified selector or the value passed if not valid.
+     */
+    private String normaliseActivity(String activity) {
+        try {
+            return new CcSelector(CcSelector.KIND_ACTIVITY, activity.trim()).asSelector();
+        } catch (ValidationException e) {
+            return activity;
         }
-        String version = parts[1];
+    }
 
+    /**
+     * Add a version reported by the diffbl command to the commit of its
+     * activity.
+     *
+     * @param element the element path relative to the view.
+     * @param version the version path.
+     * @param commit  the commit of the activity.
+     */
+    private void addCommitFile(String element, String version, Commit commit) {
+        List<CommitFile> files = getCommitFiles(commit);
+        if (log.isDebugEnabled()) {
+            log.debug("addChangeLogFile: " + element + "@@" + version);
+        }
         CommitFileImpl commitFile = new CommitFileImpl(element);
         commitFile.setRevision(version.substring(0, Math.min(version.length(), 254)));
         files.add(commitFile);
@@ -746,88 +1410,49 @@ public class CcRepository extends AbstractRepository {
     }
 
     /**
-     * Process a diffbl activity line and create the ChangeLogEntry.
+     * Create the ChangeLogEntry for a diffbl activity.
      *
-     * @param line       the diffbl activity line.
-     * @param changeList the change list the new change log entry will be added to
-     * @return the change log entry created or null if unable to process
-     * @throws RepositoryException if the call to cleartool to look up activity attributes fails
-     */
-    private Commit addCommitLogEntry(String line, List<Commit> changeList)
+     * The author and date are filled in later by
+     * {@link #describeActivities(Map, ActivityMetadataCache)}.
+     *
+     * @param actId       the activity id from the diffbl output.
+     * @param actHeadline the activity headline.
+     * @param changeList  the change list the new change log entry will be added to
+     * @param activities  the commits created so far keyed by activity selector
+     * @return the change log entry created
+     * @throws RepositoryException if the activity selector is not valid
+     */
+    private Commit addCommitLogEntry(String actId, String actHeadline, List<Commit> changeList,
+                                     Map<String, List<CommitImpl>> activities)
             throws RepositoryException {
-        log.debug("addChangeLogEntry: " + line);
-
-        StringBuffer actId = new StringBuffer();
-        StringBuffer actHeadline = new StringBuffer();
-        int state = 0;
-        for (char x : line.toCharArray()) {
-            switch (state) {
-                case 0: // ignore leading >> or << or <- >- characters
-                {
-                    if (ACT_DIFF_START.contains(x)) {
-                        // ignore
-                    } else {
-                        state++;
-                        actId.append(x);
-                    }
-                }
-                break;
-                case 1: // process activityId
-                {
-                    if (x == ' ') {
-                        state++;
-                    } else {
-                        actId.append(x);
-                    }
-                }
-                break;
-                default: // now process the activity headline.
-                {
-                    actHeadline.append(x);
-                }
-                break;
-            }
-        }
-        String activityId = actId.toString();
+        String activityId = actId;
         if (activityId.indexOf("@") == -1)
             activityId = activityId + getVob();
         CcSelector actIdSel = null;
         try {
             actIdSel = new CcSelector(CcSelector.KIND_ACTIVITY, activityId);
         } catch (ValidationException e) {
-            log.error("Bad  activity selector " + actId.toString());
+            log.error("Bad  activity selector " + actId);
             // TODO perhaps throw Repository exception...
             throw new RepositoryException("Bad  activity selector "
-                    + actId.toString(), e);
+                    + actId, e);
         }
 
         log.debug("addChangeLogEntry: actId=" + actId + " actHead="
                 + actHeadline);
 
         CommitImpl commit = new CommitImpl();
-        commit.setComment(actId.toString());
-        String owner = getDescAttribute(actIdSel.asSelector(), FMT_OWNER);
-        commit.setAuthor(new AuthorImpl(owner.toLowerCase()));
-        commit.setDate(getObjectDate(actIdSel.asSelector()));
+        commit.setComment(actId);
+        List<CommitImpl> commits = activities.get(actIdSel.asSelector());
+        if (commits == null) {
+            commits = new ArrayList<CommitImpl>();
+            activities.put(actIdSel.asSelector(), commits);
+        }
+        commits.add(commit);
         changeList.add(commit);
         return commit;
     }
 
-    /**
-     * Test if the diffbl output line is an activity. If it not an activity then
-     * it change version.
-     *
-     * @param line the line being tested
-     * @return true if it is activity entry
-     */
-    private boolean isActivity(String line) {
-        if (line == null) {
-            return false;
-        }
-        line = line.trim();
-        return ACT_DIFF_START_STRINGS.contains(line.substring(0, 2));
-    }
-
     /**
      * Runs a 'cleartool diffbl' command to retrieve the differences between two
      * baselines.
@@ -835,10 +1460,11 @@ public class CcRepository extends AbstractRepository {
      * @param latestBl
      * @param currentBl
      * @param planKey
-     * @return
+     * @param parser    passed the output as it is read.
      * @throws RepositoryException
      */
-    private String runDiffBl(String latestBl, String currentBl, String planKey)
+    private void runDiffBl(String latestBl, String currentBl, String planKey,
+                           DiffblParser parser)
             throws RepositoryException {
         CcDiffbl diffbl = new CcDiffbl();
         diffbl.setProject(getDummyProject());
@@ -848,11 +1474,13 @@ public class CcRepository extends AbstractRepository {
         diffbl.setSelector2(currentBl);
         diffbl.setActivities(true);
         diffbl.setVersions(true);
+        diffbl.setOutputStream(parser);
         log.debug("About to run diffbl in:" + viewPath);
 
         cmdRunner(diffbl);
-
-        return diffbl.getCommandOutput();
+        parser.close();
+        log.debug("diffbl reported " + parser.getActivityCount() + " activities and "
+                + parser.getVersionCount() + " versions");
     }
 
     /**
@@ -864,14 +1492,23 @@ public class CcRepository extends AbstractRepository {
      */
     private void rebaseBuild(String baseline, String planKey)
             throws RepositoryException {
+        rebaseView(baseline, getViewLocation(planKey), buildStream.getName(),
+                getBuildStreamAsSelector());
+    }
+
+    private void rebaseView(String baseline, String viewPath, String viewTag,
+                            String stream) throws RepositoryException {
         CcRebase rebase = new CcRebase();
         rebase.setProject(getDummyProject());
-        rebase.setViewPath(getViewLocation(planKey));
+        rebase.setViewPath(viewPath);
         rebase.setBaseline(baseline);
-        rebase.setStream(getBuildStreamAsSelector());
-        rebase.setView(buildStream.getName());
+        rebase.setStream(stream);
+        rebase.setView(viewTag);
 
-        cmdRunner(rebase);
+        // whichever view runs it, the stream is no longer at a known baseline
+        // until the rebase completes
+        ViewPool.getInstance().setBaseline(stream, null);
+        cmdRunner(rebase, stream);
         if (log.isDebugEnabled()) {
             // log the output if debug is enabled
             log.debug("Rebase to " + baseline + " output:\n"
@@ -880,21 +1517,64 @@ public class CcRepository extends AbstractRepository {
     }
 
     /**
-     * @return
+     * The baseline a build rebases to. When the revision key handed over by
+     * change detection is a baseline it is used, so the build has exactly the
+     * changes that were reported and the integration stream is not listed
+     * again. The latest baseline is only looked up when there is no such key,
+     * eg the first build or a plan that was comparing dates.
+     *
+     * @param vcsRevisionKey the revision key passed to retrieveSourceCode.
+     * @return the baseline to rebase the build stream to.
+     * @throws RepositoryException if the latest baseline can not be found
+     */
+    private String getBaselineToBuild(String vcsRevisionKey) throws RepositoryException {
+        if (isBaselineRevision(vcsRevisionKey)) {
+            log.debug("Building baseline [" + vcsRevisionKey + "] found by change detection");
+            return vcsRevisionKey;
+        }
+        return getLatestIntegrationBasline();
+    }
+
+    /**
+     * @return true if the revision key is a date, as returned when baselines
+     *         are not compared.
+     */
+    private static boolean isDateRevision(String revisionKey) {
+        return DATE_REVISION.matcher(revisionKey).matches();
+    }
+
+    /**
+     * @return true if the revision key is a qualified baseline selector, as
+     *         returned when baselines are compared.
+     */
+    static boolean isBaselineRevision(String revisionKey) {
+        if (StringUtils.isBlank(revisionKey) || isDateRevision(revisionKey)
+                || revisionKey.indexOf('@') < 0) {
+            return false;
+        }
+        try {
+            new CcSelector(CcSelector.KIND_BASELINE, revisionKey);
+            return true;
+        } catch (ValidationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The baseline listing is shared with other plans polling the same
+     * integration stream, see {@link IntegrationStreamPoller}.
+     *
+     * @return the most recent baseline on the integration stream
      */
     private String getLatestIntegrationBasline() throws RepositoryException {
-        String rval = null;
-        List<String> baselines = ClearCaseUtils.getStreamBaselines(
-                getIntStream(), mainComponent, getDummyProject(),
-                getCleartoolHome());
+        String rval = IntegrationStreamPoller.getInstance().getLatestBaseline(
+                getIntStream(), mainComponent, getCleartoolHome());
         if (log.isDebugEnabled()) {
-            log.debug("Stream [" + getIntStream() + "] has count["
-                    + baselines.size() + "] baselines [" + baselines + "]");
+            log.debug("Stream [" + getIntStream() + "] latest baseline [" + rval + "]");
         }
-        if (baselines.isEmpty())
+        if (rval == null)
             throw new RepositoryException(
                     "No Integration Baselines found, please ensure that a baseline has been created on the integration stream");
-        rval = baselines.get(baselines.size() - 1);
         return rval;
     }
 
@@ -927,7 +1607,10 @@ public class CcRepository extends AbstractRepository {
             sourceDirectory = new File(getViewLocation());
         } else if (CC_TYPE_UCM.equals(getClearCaseType())) {
             sourceDirectory = new File(getViewLocation());
-            if (isAutoCreate())
+            ViewPool.PooledView leased = getLeasedView(key);
+            if (leased != null)
+                sourceDirectory = new File(leased.getSourceDirectory());
+            else if (isAutoCreate())
                 sourceDirectory = new File(sourceDirectory, key);
         } else
             sourceDirectory = new File(getBaseViewLocation(), getVobDir());
@@ -1035,11 +1718,8 @@ public class CcRepository extends AbstractRepository {
         try {
             CcSelector projSelector = new CcSelector(CcSelector.KIND_PROJECT,
                     project);
-            lsproj.setFormat(FMT_PROJ_INT_STREAM);
-            lsproj.setObjSelect2(projSelector.asSelector());
-
-            lsproj.execute();
-            rval = lsproj.getCommandOutput();
+            rval = LSPROJECT_INT_STREAM.run(getDummyProject(),
+                    getCleartoolHome(), null, projSelector.asSelector());
         } catch (ValidationException ve) {
             log.debug("Failed to determine integration stream for [" + project
                     + "], ValidationExcpetion", ve);
@@ -1167,6 +1847,28 @@ public class CcRepository extends AbstractRepository {
                         "The branch must be specified.");
             }
         }
+        String historyThreads = buildConfiguration.getString(CC_HISTORY_THREADS);
+        if (StringUtils.isNotBlank(historyThreads)) {
+            try {
+                if (Integer.parseInt(historyThreads.trim()) < 1) {
+                    errorCollection.addError(CC_HISTORY_THREADS,
+                            "Must be 1 or more");
+                }
+            } catch (NumberFormatException e) {
+                errorCollection.addError(CC_HISTORY_THREADS, "Must be a number");
+            }
+        }
+        String viewPoolSize = buildConfiguration.getString(CC_VIEW_POOL_SIZE);
+        if (StringUtils.isNotBlank(viewPoolSize)) {
+            try {
+                if (Integer.parseInt(viewPoolSize.trim()) < 1) {
+                    errorCollection.addError(CC_VIEW_POOL_SIZE,
+                            "Must be 1 or more");
+                }
+            } catch (NumberFormatException e) {
+                errorCollection.addError(CC_VIEW_POOL_SIZE, "Must be a number");
+            }
+        }
         logErrors(buildConfigName, errorCollection);
 
         return errorCollection;
@@ -1184,15 +1886,15 @@ public class CcRepository extends AbstractRepository {
         if (StringUtils.isBlank(projectSelector)) {
             errorCollection.addError(field, "Please enter project selector");
         } else {
-            lsproj.setFormat("%Xn");
-            lsproj.setFailOnErr(true);
-            lsproj.setObjSelect2(projectSelector);
+            ClearToolListCommand lsproj = CleartoolQuery.LSPROJECT_NAME
+                    .newCommand(getDummyProject(), getCleartoolHome(), null,
+                            projectSelector);
             try {
                 lsproj.execute();
             } catch (BuildException be) {
                 errorCollection.addError(field,
                         "Project specified did not exist. Error: "
-                                + lsproj.getCommandOutput());
+                                + lsproj.getLastOutput());
             }
         }
     }
@@ -1297,6 +1999,9 @@ public class CcRepository extends AbstractRepository {
         setLoadRules(config.getString(CC_LOAD_RULES));
         setViewTag(config.getString(CC_VIEW_TAG));
         setDisableUpdate(config.getBoolean(CC_DISABLE_UPDATE));
+        setHistoryThreads(config.getInt(CC_HISTORY_THREADS, DEFAULT_HISTORY_THREADS));
+        setViewPoolSize(config.getInt(CC_VIEW_POOL_SIZE, DEFAULT_VIEW_POOL_SIZE));
+        setPreRebase(config.getBoolean(CC_PRE_REBASE, false));
         try {
             setProjectName(config.getString(CC_PROJECT));
             setIntStream(config.getString(CC_INT_STREAM));
@@ -1347,6 +2052,9 @@ public class CcRepository extends AbstractRepository {
         configuration.setProperty(CC_LOAD_RULES, getLoadRules());
         configuration.setProperty(CC_VIEW_TAG, getViewTag());
         configuration.setProperty(CC_DISABLE_UPDATE, isDisableUpdate());
+        configuration.setProperty(CC_HISTORY_THREADS, getHistoryThreads());
+        configuration.setProperty(CC_VIEW_POOL_SIZE, getViewPoolSize());
+        configuration.setProperty(CC_PRE_REBASE, isPreRebase());
 
         return configuration;
     }
@@ -1450,6 +2158,26 @@ public class CcRepository extends AbstractRepository {
         }
     }
 
+    /**
+     * Get the baseline a build was rebased to, from its {@link CheckoutContext}
+     * when the source was retrieved in this JVM, otherwise from the build
+     * stream with {@link #getLastBuiltBaseline()}.
+     *
+     * @param planKey     the plan being built.
+     * @param buildNumber the number of the build.
+     * @return the baseline the build stream contains
+     * @throws BuildException if the the lookup of the foundation baseline fails.
+     */
+    public String getBuiltBaseline(String planKey, int buildNumber) {
+        CheckoutContext context = CheckoutContext.get(planKey, buildNumber);
+        if (context != null && context.getBaseline() != null
+                && isPoolStream(context.getStream())) {
+            log.debug("Using baseline checked out for " + context);
+            return context.getBaseline();
+        }
+        return getLastBuiltBaseline();
+    }
+
     /**
      * Determines the current baseline the build stream contains, in the case
      * the build stream this is foundation baseline, for which there should only
@@ -1491,11 +2219,14 @@ public class CcRepository extends AbstractRepository {
      */
     private String getDescAttribute(String object, String fmt)
             throws RepositoryException {
-        desc.setViewPath(getViewLocation());
-        desc.setFormat(fmt);
-        desc.setObjSelect2(object);
-        cmdRunner(desc);
-        return desc.getCommandOutput();
+        ClearToolListCommand desc = CleartoolQuery.describe(fmt).newCommand(
+                getDummyProject(), null, getViewLocation(), object);
+        try {
+            cmdRunner(desc);
+            return desc.getCommandOutput();
+        } finally {
+            desc.dispose();
+        }
     }
 
     /**
@@ -1511,7 +2242,7 @@ public class CcRepository extends AbstractRepository {
         Date rval = null;
         String dateTime = getDescAttribute(objectSelector, FMT_CDATE);
         try {
-            rval = CC_DATE_FORMAT.parse(dateTime);
+            rval = CC_DATE.parse(dateTime);
         } catch (ParseException e) {
             // log the error but return null
             log.info("unable to determine object[" + objectSelector
@@ -1748,6 +2479,56 @@ public class CcRepository extends AbstractRepository {
         return disableUpdate;
     }
 
+    /**
+     * @return the maximum number of lshistory commands run at the same time.
+     */
+    public int getHistoryThreads() {
+        return historyThreads;
+    }
+
+    /**
+     * @param historyThreads the maximum number of lshistory commands run at
+     *                       the same time, values less than 1 are treated as 1.
+     */
+    public void setHistoryThreads(int historyThreads) {
+        this.historyThreads = Math.max(1, historyThreads);
+    }
+
+    /**
+     * @return the number of snapshot views kept for the build stream.
+     */
+    public int getViewPoolSize() {
+        return viewPoolSize;
+    }
+
+    /**
+     * @param viewPoolSize the number of snapshot views kept for the build
+     *                     stream, values less than 1 are treated as 1.
+     */
+    public void setViewPoolSize(int viewPoolSize) {
+        this.viewPoolSize = Math.max(1, viewPoolSize);
+    }
+
+    /**
+     * @return true if the build stream is rebased in the background as soon
+     *         as polling finds a new integration baseline.
+     */
+    public boolean isPreRebase() {
+        return preRebase;
+    }
+
+    public void setPreRebase(boolean preRebase) {
+        this.preRebase = preRebase;
+    }
+
+
+    /**
+     * Stop the plugin's shared resources when it is disabled, see
+     * {@link PluginLifecycleListener}.
+     */
+    public void setPluginEventManager(PluginEventManager pluginEventManager) {
+        PluginLifecycleListener.register(pluginEventManager);
+    }
 
     public void setVariableDefinitionManager(VariableDefinitionManager variableDefinitionManager) {
         this.variableDefinitionManager = variableDefinitionManager;
@@ -0,0 +1,147 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What {@link CcRepository#retrieveSourceCode} checked out for a build, kept
+ * so actions later in the same build do not have to ask ClearCase again.
+ * <p/>
+ * Contexts are registered by plan and build number and only exist in the
+ * JVM that retrieved the source, actions running elsewhere must fall back to
+ * cleartool. A context is removed when the build completes, and only the
+ * most recent contexts are kept in case a build never completes.
+ */
+public class CheckoutContext {
+
+    /**
+     * Most contexts kept, far more than builds that run at once.
+     */
+    private static final int MAX_CONTEXTS = 200;
+
+    private static final Map<String, CheckoutContext> contexts = new LruMap();
+
+    private final String planKey;
+    private final int buildNumber;
+    private final String revision;
+    private final String baseline;
+    private final String stream;
+    private final String viewTag;
+    private final String viewLocation;
+
+    /**
+     * @param planKey      the plan being built.
+     * @param buildNumber  the number of the build.
+     * @param revision     the revision returned for the build.
+     * @param baseline     the baseline the build stream was rebased to, null
+     *                     if the view was updated instead.
+     * @param stream       the build stream selector, null for base ClearCase.
+     * @param viewTag      the tag of the view holding the source.
+     * @param viewLocation the directory of the view holding the source.
+     */
+    public CheckoutContext(String planKey, int buildNumber, String revision,
+                           String baseline, String stream, String viewTag,
+                           String viewLocation) {
+        this.planKey = planKey;
+        this.buildNumber = buildNumber;
+        this.revision = revision;
+        this.baseline = baseline;
+        this.stream = stream;
+        this.viewTag = viewTag;
+        this.viewLocation = viewLocation;
+    }
+
+    /**
+     * Make the context available to the rest of its build, replacing any
+     * earlier context of the same build.
+     *
+     * @param context the context of a build that retrieved its source.
+     */
+    public static void register(CheckoutContext context) {
+        synchronized (contexts) {
+            contexts.put(key(context.planKey, context.buildNumber), context);
+        }
+    }
+
+    /**
+     * @param planKey     the plan being built.
+     * @param buildNumber the number of the build.
+     * @return the context of the build, null if the source was not retrieved
+     *         in this JVM.
+     */
+    public static CheckoutContext get(String planKey, int buildNumber) {
+        synchronized (contexts) {
+            return contexts.get(key(planKey, buildNumber));
+        }
+    }
+
+    /**
+     * Forget the context of a build that completed.
+     *
+     * @param planKey     the plan that was built.
+     * @param buildNumber the number of the build.
+     */
+    public static void remove(String planKey, int buildNumber) {
+        synchronized (contexts) {
+            contexts.remove(key(planKey, buildNumber));
+        }
+    }
+
+    private static String key(String planKey, int buildNumber) {
+        return planKey + "-" + buildNumber;
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * @return the revision returned by {@link CcRepository#retrieveSourceCode},
+     *         a baseline or a date.
+     */
+    public String getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the baseline the build stream was rebased to, null if the view
+     *         was updated instead.
+     */
+    public String getBaseline() {
+        return baseline;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public String getViewTag() {
+        return viewTag;
+    }
+
+    public String getViewLocation() {
+        return viewLocation;
+    }
+
+    public String toString() {
+        return key(planKey, buildNumber) + " " + (baseline != null ? baseline : revision)
+                + " in " + viewTag + " (" + viewLocation + ")";
+    }
+
+    /**
+     * Oldest contexts removed first, limited to {@link #MAX_CONTEXTS} entries.
+     */
+    private static class LruMap extends LinkedHashMap<String, CheckoutContext> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CheckoutContext> eldest) {
+            return size() > MAX_CONTEXTS;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.DiffblHandler;
+import com.atlassian.bamboo.plugins.clearcase.ant.DiffblParser;
+import com.atlassian.bamboo.plugins.clearcase.utils.PluginStorage;
+import org.apache.log4j.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Parsed <code>diffbl -activities -versions</code> results keyed by the pair
+ * of baselines compared. Baselines do not change once created so a pair only
+ * needs to be diffed once per server, whichever plan asks for it first.
+ * <p/>
+ * When a pair has not been diffed it may still be composed from cached diffs
+ * of the baselines in between, bl1 to bl2 plus bl2 to bl3 gives bl1 to bl3.
+ * The shortest chain is found by a breadth first search of the cached pairs.
+ * Only diffs whose activities are all on the same side, the baselines only
+ * added activities, are composed as the union of their activities is then the
+ * same as the diff of the end baselines.
+ * <p/>
+ * Diffs are stored under the plugin storage directory, see
+ * {@link PluginStorage}, with element paths relative to the view they were
+ * run in so plans with other views can use them. The number of pairs kept is
+ * limited by the system property <code>clearcase.diffbl.cache.size</code>
+ * (default 500), the oldest pairs are removed first. The most recently used
+ * diffs are also held in memory, up to a total number of versions set by the
+ * system property <code>clearcase.diffbl.cache.versions</code> (default
+ * 100000). A diff with more versions than that is only kept on disk and is
+ * read again each time it is used.
+ * <p/>
+ * Plans asking for a pair while it is being diffed wait for that diffbl
+ * rather than starting their own, other pairs are diffed at the same time.
+ */
+public class DiffblCache {
+
+    private static final Logger log = Logger.getLogger(DiffblCache.class);
+
+    /**
+     * System property holding the number of baseline pairs kept.
+     */
+    public static final String PROP_SIZE = "clearcase.diffbl.cache.size";
+
+    /**
+     * System property holding the number of versions held in memory.
+     */
+    public static final String PROP_MEMORY_VERSIONS = "clearcase.diffbl.cache.versions";
+
+    /**
+     * Most cached diffs composed to answer one pair.
+     */
+    static final int MAX_HOPS = 50;
+
+    private static final String STORE_NAME = "diffbl";
+
+    private static final String INDEX_COMMENT = "Diffed baseline pairs, from|to=side|sequence";
+
+    private static final String DIFF_COMMENT = "Activities and versions of a diffbl";
+
+    private static final char KEY_DELIM = '|';
+
+    /**
+     * Side of a diff whose activities are in both directions.
+     */
+    private static final String MIXED = "*";
+
+    private static final String RELATIVE = "r|";
+
+    private static final String ABSOLUTE = "a|";
+
+    private static final String VERSION_DELIM = "@@";
+
+    private static final DiffblCache INSTANCE = new DiffblCache(STORE_NAME,
+            Integer.getInteger(PROP_SIZE, 500).intValue(),
+            Integer.getInteger(PROP_MEMORY_VERSIONS, 100000).intValue());
+
+    private final String storeName;
+    private final int maxPairs;
+    private final ConcurrentMap<String, FutureTask<Diff>> running =
+            new ConcurrentHashMap<String, FutureTask<Diff>>();
+    private final DiffLru memory;
+    private Properties index = null;
+    private long sequence = 0;
+
+    /**
+     * @param storeName the prefix of the storage file names.
+     * @param maxPairs  most baseline pairs kept.
+     * @param maxVersions most versions held in memory.
+     */
+    DiffblCache(String storeName, int maxPairs, int maxVersions) {
+        this.storeName = storeName;
+        this.maxPairs = maxPairs;
+        this.memory = new DiffLru(maxVersions);
+    }
+
+    /**
+     * @return the cache shared by all plans.
+     */
+    public static DiffblCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Diff a pair that is not cached and cache the result, unless the pair
+     * is already being diffed or was cached since it was looked up.
+     *
+     * @param from the older baseline.
+     * @param to   the newer baseline.
+     * @param task runs diffbl on the pair and returns the recorded diff.
+     * @return the task whose result is the diff. This is <code>task</code>
+     *         if it was run by the calling thread, otherwise the diff was
+     *         run for another plan and must be replayed.
+     */
+    public FutureTask<Diff> diff(String from, String to, FutureTask<Diff> task) {
+        String key = key(from, to);
+        FutureTask<Diff> other = running.putIfAbsent(key, task);
+        if (other != null) {
+            return other;
+        }
+        try {
+            final Diff cached = get(from, to);
+            if (cached != null) {
+                FutureTask<Diff> rval = new FutureTask<Diff>(new Callable<Diff>() {
+                    public Diff call() {
+                        return cached;
+                    }
+                });
+                rval.run();
+                return rval;
+            }
+            task.run();
+            try {
+                put(from, to, task.get());
+            } catch (ExecutionException e) {
+                // not cached, the caller gets the failure from the task
+            } catch (InterruptedException e) {
+                // the task has run, get does not wait
+                Thread.currentThread().interrupt();
+            }
+            return task;
+        } finally {
+            running.remove(key, task);
+        }
+    }
+
+    /**
+     * Find the diff of a pair of baselines, either diffed before or composed
+     * from diffs of the baselines in between.
+     *
+     * @param from the older baseline, the one last built.
+     * @param to   the newer baseline.
+     * @return the diff or null if it is not known.
+     */
+    public synchronized Diff get(String from, String to) {
+        String key = key(from, to);
+        Diff diff = load(key);
+        if (diff != null) {
+            return diff;
+        }
+        List<String> path = findPath(from, to, "<");
+        if (path == null) {
+            path = findPath(from, to, ">");
+        }
+        if (path == null) {
+            return null;
+        }
+        List<Diff> diffs = new ArrayList<Diff>();
+        for (String hop : path) {
+            Diff hopDiff = load(hop);
+            if (hopDiff == null) {
+                return null;
+            }
+            diffs.add(hopDiff);
+        }
+        diff = compose(diffs);
+        if (log.isDebugEnabled()) {
+            log.debug("Composed diffbl of " + from + " to " + to + " from "
+                    + path.size() + " cached diffs");
+        }
+        memory.put(key, diff);
+        return diff;
+    }
+
+    /**
+     * Record the diff of a pair of baselines.
+     *
+     * @param from the older baseline, the one last built.
+     * @param to   the newer baseline.
+     * @param diff the diff, see {@link Recorder}.
+     */
+    public synchronized void put(String from, String to, Diff diff) {
+        String key = key(from, to);
+        Properties stored = new Properties();
+        stored.setProperty("pair", key);
+        stored.setProperty("side", diff.side);
+        for (int i = 0; i < diff.activities.size(); i++) {
+            Activity activity = diff.activities.get(i);
+            stored.setProperty("a." + i, activity.id);
+            stored.setProperty("h." + i, activity.headline);
+            int j = 0;
+            for (String version : activity.versions) {
+                stored.setProperty("v." + i + "." + j++, version);
+            }
+        }
+        PluginStorage.store(fileName(key), stored, DIFF_COMMENT);
+        memory.put(key, diff);
+
+        Properties pairs = getIndex();
+        pairs.setProperty(key, diff.side + KEY_DELIM + ++sequence);
+        while (pairs.size() > maxPairs) {
+            String oldest = null;
+            long oldestSequence = Long.MAX_VALUE;
+            for (Object pair : pairs.keySet()) {
+                long pairSequence = getSequence(pairs.getProperty((String) pair));
+                if (pairSequence < oldestSequence) {
+                    oldest = (String) pair;
+                    oldestSequence = pairSequence;
+                }
+            }
+            remove(oldest);
+        }
+        PluginStorage.store(storeName + "-index", pairs, INDEX_COMMENT);
+    }
+
+    /**
+     * Forget every pair, so they are diffed again.
+     */
+    synchronized void clear() {
+        for (Object pair : getIndex().keySet().toArray()) {
+            remove((String) pair);
+        }
+        PluginStorage.delete(storeName + "-index");
+        index = null;
+        sequence = 0;
+    }
+
+    /**
+     * @return the number of baseline pairs diffed.
+     */
+    public synchronized int size() {
+        return getIndex().size();
+    }
+
+    /**
+     * @return the number of versions of the diffs held in memory.
+     */
+    synchronized int getMemoryVersions() {
+        return memory.versions;
+    }
+
+    /**
+     * Breadth first search for the shortest chain of cached pairs, all
+     * adding activities on the same side.
+     *
+     * @return the keys of the pairs in order, null if there is no chain.
+     */
+    private List<String> findPath(String from, String to, String side) {
+        Map<String, List<String>> edges = new HashMap<String, List<String>>();
+        for (Object key : getIndex().keySet()) {
+            String pair = (String) key;
+            String pairSide = getSide(getIndex().getProperty(pair));
+            int delim = pair.indexOf(KEY_DELIM);
+            if (delim < 0 || !(pairSide.length() == 0 || pairSide.equals(side))) {
+                continue;
+            }
+            String start = pair.substring(0, delim);
+            List<String> next = edges.get(start);
+            if (next == null) {
+                next = new ArrayList<String>();
+                edges.put(start, next);
+            }
+            next.add(pair.substring(delim + 1));
+        }
+
+        Map<String, String> reachedFrom = new HashMap<String, String>();
+        Map<String, Integer> hops = new HashMap<String, Integer>();
+        LinkedList<String> queue = new LinkedList<String>();
+        queue.add(from);
+        hops.put(from, Integer.valueOf(0));
+        while (!queue.isEmpty()) {
+            String baseline = queue.removeFirst();
+            if (baseline.equals(to)) {
+                LinkedList<String> path = new LinkedList<String>();
+                for (String step = to; !step.equals(from); step = reachedFrom.get(step)) {
+                    path.addFirst(key(reachedFrom.get(step), step));
+                }
+                return path;
+            }
+            int depth = hops.get(baseline).intValue();
+            List<String> next = edges.get(baseline);
+            if (next == null || depth == MAX_HOPS) {
+                continue;
+            }
+            for (String reached : next) {
+                if (!hops.containsKey(reached)) {
+                    hops.put(reached, Integer.valueOf(depth + 1));
+                    reachedFrom.put(reached, baseline);
+                    queue.add(reached);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the union of the activities of the diffs, versions of an
+     *         activity in more than one diff are merged.
+     */
+    private static Diff compose(List<Diff> diffs) {
+        Map<String, Activity> merged = new LinkedHashMap<String, Activity>();
+        String side = "";
+        for (Diff diff : diffs) {
+            if (diff.side.length() > 0) {
+                side = diff.side;
+            }
+            for (Activity activity : diff.activities) {
+                Activity into = merged.get(activity.id);
+                if (into == null) {
+                    into = new Activity(activity.id, activity.headline);
+                    merged.put(activity.id, into);
+                }
+                into.versions.addAll(activity.versions);
+            }
+        }
+        return new Diff(side, new ArrayList<Activity>(merged.values()));
+    }
+
+    /**
+     * @return the diff of a cached pair, null if it is not cached or its
+     *         file is missing.
+     */
+    private Diff load(String key) {
+        Diff diff = memory.get(key);
+        if (diff != null || !getIndex().containsKey(key)) {
+            return diff;
+        }
+        Properties stored = PluginStorage.load(fileName(key));
+        if (!key.equals(stored.getProperty("pair"))) {
+            log.info("Cached diffbl of [" + key + "] missing, diffing again");
+            remove(key);
+            PluginStorage.store(storeName + "-index", getIndex(), INDEX_COMMENT);
+            return null;
+        }
+        List<Activity> activities = new ArrayList<Activity>();
+        for (int i = 0; stored.containsKey("a." + i); i++) {
+            Activity activity = new Activity(stored.getProperty("a." + i),
+                    stored.getProperty("h." + i, ""));
+            for (int j = 0; stored.containsKey("v." + i + "." + j); j++) {
+                activity.versions.add(stored.getProperty("v." + i + "." + j));
+            }
+            activities.add(activity);
+        }
+        diff = new Diff(stored.getProperty("side", MIXED), activities);
+        memory.put(key, diff);
+        return diff;
+    }
+
+    private void remove(String key) {
+        getIndex().remove(key);
+        memory.remove(key);
+        PluginStorage.delete(fileName(key));
+    }
+
+    private Properties getIndex() {
+        if (index == null) {
+            index = PluginStorage.load(storeName + "-index");
+            for (Object value : index.values()) {
+                sequence = Math.max(sequence, getSequence((String) value));
+            }
+        }
+        return index;
+    }
+
+    private static String getSide(String value) {
+        int delim = value.indexOf(KEY_DELIM);
+        return delim < 0 ? MIXED : value.substring(0, delim);
+    }
+
+    private static long getSequence(String value) {
+        try {
+            return Long.parseLong(value.substring(value.indexOf(KEY_DELIM) + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String key(String from, String to) {
+        return from + KEY_DELIM + to;
+    }
+
+    /**
+     * @return a file name for a pair, baseline selectors may hold characters
+     *         that can not be used in a file name.
+     */
+    private String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(storeName).append('-');
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The activities of a diff and their versions, with element paths
+     * relative to the view diffbl ran in.
+     */
+    public static final class Diff {
+        private final String side;
+        private final List<Activity> activities;
+        private final int versionCount;
+
+        private Diff(String side, List<Activity> activities) {
+            this.side = side;
+            this.activities = Collections.unmodifiableList(activities);
+            int count = 0;
+            for (Activity activity : activities) {
+                count += activity.versions.size();
+            }
+            this.versionCount = count;
+        }
+
+        /**
+         * Pass the activities and versions to a handler as if diffbl was run
+         * in a view.
+         *
+         * @param handler  the handler to pass the diff to.
+         * @param viewPath the view, prefixed to element paths.
+         */
+        public void replay(DiffblHandler handler, String viewPath) {
+            for (Activity activity : activities) {
+                handler.onActivity(activity.id, activity.headline);
+                for (String version : activity.versions) {
+                    int delim = version.indexOf(VERSION_DELIM);
+                    String element = version.substring(RELATIVE.length(), delim);
+                    if (version.startsWith(RELATIVE)) {
+                        element = viewPath + element;
+                    }
+                    handler.onVersion(element, version.substring(delim + VERSION_DELIM.length()));
+                }
+            }
+        }
+
+        public int getActivityCount() {
+            return activities.size();
+        }
+    }
+
+    /**
+     * Least recently used diffs limited to a total number of versions, a diff
+     * larger than the limit is not held at all.
+     */
+    private static class DiffLru extends LinkedHashMap<String, Diff> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxVersions;
+
+        private int versions = 0;
+
+        DiffLru(int maxVersions) {
+            super(16, 0.75f, true);
+            this.maxVersions = maxVersions;
+        }
+
+        @Override
+        public Diff put(String key, Diff diff) {
+            if (diff.versionCount > maxVersions) {
+                remove(key);
+                return null;
+            }
+            Diff previous = super.put(key, diff);
+            versions += diff.versionCount;
+            if (previous != null) {
+                versions -= previous.versionCount;
+            }
+            for (Iterator<Diff> eldest = values().iterator(); versions > maxVersions;) {
+                versions -= eldest.next().versionCount;
+                eldest.remove();
+            }
+            return previous;
+        }
+
+        @Override
+        public Diff remove(Object key) {
+            Diff diff = super.remove(key);
+            if (diff != null) {
+                versions -= diff.versionCount;
+            }
+            return diff;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            versions = 0;
+        }
+    }
+
+    private static final class Activity {
+        private final String id;
+        private final String headline;
+        private final Set<String> versions = new LinkedHashSet<String>();
+
+        Activity(String id, String headline) {
+            this.id = id;
+            this.headline = headline;
+        }
+    }
+
+    /**
+     * Passes diffbl output on to another handler and records it, so a diff
+     * that is run can be {@link DiffblCache#put cached}.
+     */
+    public static class Recorder implements DiffblHandler {
+        private final DiffblHandler handler;
+        private final String viewPath;
+        private final String viewPathLower;
+        private final Map<String, Activity> activities = new LinkedHashMap<String, Activity>();
+        private Activity current;
+
+        /**
+         * @param handler  the handler the output is passed on to.
+         * @param viewPath the view diffbl runs in.
+         */
+        public Recorder(DiffblHandler handler, String viewPath) {
+            this.handler = handler;
+            this.viewPath = viewPath;
+            this.viewPathLower = viewPath.toLowerCase();
+        }
+
+        public void onActivity(String id, String headline) {
+            current = activities.get(id);
+            if (current == null) {
+                current = new Activity(id, headline);
+                activities.put(id, current);
+            }
+            handler.onActivity(id, headline);
+        }
+
+        public void onVersion(String element, String version) {
+            if (current != null) {
+                current.versions.add(element.toLowerCase().startsWith(viewPathLower)
+                        ? RELATIVE + element.substring(viewPath.length()) + VERSION_DELIM + version
+                        : ABSOLUTE + element + VERSION_DELIM + version);
+            }
+            handler.onVersion(element, version);
+        }
+
+        /**
+         * @param parser the parser that read the diffbl output.
+         * @return the diff recorded.
+         */
+        public Diff toDiff(DiffblParser parser) {
+            String side = !parser.isOneSided() ? MIXED
+                    : parser.getSide() == 0 ? "" : String.valueOf(parser.getSide());
+            return new Diff(side, new ArrayList<Activity>(activities.values()));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils;
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process wide source of the latest baseline on an integration stream, shared
+ * by every {@link CcRepository} polling the same stream and component.
+ * <p/>
+ * Results are cached for a short time, set in milliseconds by the system
+ * property <code>clearcase.poll.ttl</code> (default 30 seconds), so plans
+ * polling within the same interval share a single query. Plans
+ * asking for the same stream while the query is running wait for that query
+ * rather than starting their own. Failed queries are not cached.
+ */
+public class IntegrationStreamPoller {
+
+    private static final Logger log = Logger.getLogger(IntegrationStreamPoller.class);
+
+    /**
+     * System property holding the time in milliseconds a result is reused.
+     */
+    public static final String PROP_TTL = "clearcase.poll.ttl";
+
+    private static final long DEFAULT_TTL = 30000L;
+
+    private static final IntegrationStreamPoller INSTANCE = new IntegrationStreamPoller(
+            Long.getLong(PROP_TTL, DEFAULT_TTL).longValue(), new BaselineQuery() {
+                public String getLatestBaseline(String stream, String component,
+                                                String cleartoolHome) {
+                    return ClearCaseUtils.getLatestStreamBaseline(stream, component,
+                            ClearCaseUtils.getAntProject(), cleartoolHome);
+                }
+            });
+
+    /**
+     * Finds the latest baseline of a component on a stream.
+     */
+    interface BaselineQuery {
+        /**
+         * @return the most recently created baseline, null if there are none.
+         * @throws BuildException if the query fails.
+         */
+        String getLatestBaseline(String stream, String component, String cleartoolHome);
+    }
+
+    private final long ttl;
+
+    private final BaselineQuery query;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param ttl   the time in milliseconds a result is reused.
+     * @param query finds the latest baseline.
+     */
+    IntegrationStreamPoller(long ttl, BaselineQuery query) {
+        this.ttl = ttl;
+        this.query = query;
+    }
+
+    /**
+     * @return the poller shared by all repositories.
+     */
+    public static IntegrationStreamPoller getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the latest baseline of the component on the stream, running the query
+     * only if there is no recent or running query for the same stream,
+     * component and cleartool.
+     *
+     * @param stream        the integration stream selector.
+     * @param component     the component selector.
+     * @param cleartoolHome the cleartool installation, may be null.
+     * @return the latest baseline, null if the stream has none.
+     * @throws BuildException if the query fails.
+     */
+    public String getLatestBaseline(final String stream, final String component,
+                                    final String cleartoolHome) {
+        String key = stream + '\u0000' + component + '\u0000' + cleartoolHome;
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.isExpired()) {
+                Entry created = new Entry(new FutureTask<String>(new Callable<String>() {
+                    public String call() {
+                        return query.getLatestBaseline(stream, component, cleartoolHome);
+                    }
+                }));
+                boolean installed = entry == null
+                        ? entries.putIfAbsent(key, created) == null
+                        : entries.replace(key, entry, created);
+                if (!installed) {
+                    // another thread started a query first, use that one
+                    continue;
+                }
+                entry = created;
+                entry.task.run();
+            } else if (log.isDebugEnabled()) {
+                log.debug("Sharing latest baseline for stream [" + stream + "] component ["
+                        + component + "]");
+            }
+            try {
+                return entry.get();
+            } catch (BuildException e) {
+                entries.remove(key, entry);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Discard all cached results.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * A query that is running or completed.
+     */
+    private class Entry {
+
+        private final FutureTask<String> task;
+
+        private volatile long completed = -1;
+
+        Entry(FutureTask<String> task) {
+            this.task = task;
+        }
+
+        boolean isExpired() {
+            long time = completed;
+            return time >= 0 && System.currentTimeMillis() - time >= ttl;
+        }
+
+        String get() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        String result = task.get();
+                        markCompleted();
+                        return result;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof BuildException) {
+                            throw (BuildException) cause;
+                        }
+                        throw new BuildException(cause);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void markCompleted() {
+            if (completed < 0) {
+                completed = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.CleartoolExecutor;
+import com.atlassian.bamboo.plugins.clearcase.ant.CleartoolMetrics;
+import com.atlassian.bamboo.plugins.clearcase.ant.CleartoolSessionPool;
+import com.atlassian.bamboo.plugins.clearcase.postbuild.PromotionQueue;
+import com.atlassian.plugin.event.PluginEventListener;
+import com.atlassian.plugin.event.PluginEventManager;
+import com.atlassian.plugin.event.events.PluginDisabledEvent;
+import org.apache.log4j.Logger;
+
+/**
+ * Stops the threads, timers, <code>cleartool</code> sessions and JMX
+ * registration of the plugin when it is disabled, so a disabled or upgraded
+ * plugin does not keep its classes loaded: {@link CleartoolMetrics}, the
+ * {@link PromotionQueue}, the {@link ViewPool}, the
+ * {@link PreRebaseScheduler}, the {@link CleartoolExecutor} and the
+ * {@link CleartoolSessionPool}.
+ * <p>
+ * A single listener is registered with the plugin event manager the first
+ * time Bamboo gives it to a {@link CcRepository}, and again after the plugin
+ * is enabled once more, when the metrics and promotions are started again.
+ */
+public class PluginLifecycleListener {
+
+    private static final Logger log = Logger.getLogger(PluginLifecycleListener.class);
+
+    /**
+     * The key of this plugin, see atlassian-plugin.xml.
+     */
+    public static final String PLUGIN_KEY = "com.atlassian.bamboo.plugins.clearcase";
+
+    private static PluginLifecycleListener registered = null;
+
+    private final PluginEventManager eventManager;
+
+    private PluginLifecycleListener(PluginEventManager eventManager) {
+        this.eventManager = eventManager;
+    }
+
+    /**
+     * Listen for the plugin being disabled, does nothing if already
+     * listening.
+     *
+     * @param eventManager the plugin event manager.
+     */
+    public static synchronized void register(PluginEventManager eventManager) {
+        if (registered != null || eventManager == null) {
+            return;
+        }
+        registered = new PluginLifecycleListener(eventManager);
+        eventManager.register(registered);
+        CleartoolMetrics.start();
+        PromotionQueue.start();
+    }
+
+    @PluginEventListener
+    public void onPluginDisabled(PluginDisabledEvent event) {
+        if (!PLUGIN_KEY.equals(event.getPlugin().getKey())) {
+            return;
+        }
+        log.info("ClearCase plugin disabled, stopping its threads and cleartool sessions");
+        synchronized (PluginLifecycleListener.class) {
+            if (registered == this) {
+                registered = null;
+            }
+        }
+        eventManager.unregister(this);
+        CleartoolMetrics.shutdown();
+        PromotionQueue.shutdown();
+        PreRebaseScheduler.shutdown();
+        ViewPool.shutdown();
+        CleartoolSessionPool.shutdown();
+        CleartoolExecutor.shutdown();
+    }
+}
@@ -0,0 +1,155 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the rebase of a build stream to a new integration baseline in the
+ * background as soon as polling sees the baseline, so the build triggered by
+ * the baseline finds its view already rebased.
+ * <p/>
+ * Only one rebase is kept for each build stream, scheduling the same
+ * baseline again while it is running or after it succeeded does nothing.
+ * A failed rebase is forgotten so the next poll tries again, and the build
+ * rebases as usual.
+ */
+public class PreRebaseScheduler {
+
+    private static final Logger log = Logger.getLogger(PreRebaseScheduler.class);
+
+    private static final PreRebaseScheduler INSTANCE = new PreRebaseScheduler();
+
+    /**
+     * A rebase of one build stream.
+     */
+    private static class Rebase {
+        private final String baseline;
+        private Future<?> future;
+
+        Rebase(String baseline) {
+            this.baseline = baseline;
+        }
+    }
+
+    private final Map<String, Rebase> rebases = new HashMap<String, Rebase>();
+
+    private ExecutorService executor = null;
+
+    PreRebaseScheduler() {
+    }
+
+    /**
+     * @return the scheduler shared by all repositories.
+     */
+    public static PreRebaseScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Stop the background rebases of the shared scheduler, builds rebase as
+     * usual. Rebases are started again by the next poll.
+     */
+    public static void shutdown() {
+        INSTANCE.stop();
+    }
+
+    synchronized void stop() {
+        rebases.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Start rebasing a build stream in the background unless it is already
+     * being, or has been, rebased to the baseline.
+     *
+     * @param key      identifies the build stream.
+     * @param baseline the baseline to rebase to.
+     * @param rebase   does the rebase, throwing an exception if it fails.
+     * @return true if the rebase was started.
+     */
+    public synchronized boolean schedule(final String key, String baseline,
+                                         final RebaseTask rebase) {
+        Rebase current = rebases.get(key);
+        if (current != null && current.baseline.equals(baseline)) {
+            return false;
+        }
+        final Rebase scheduled = new Rebase(baseline);
+        rebases.put(key, scheduled);
+        log.info("Rebasing " + key + " to " + baseline + " in the background");
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "clearcase-prerebase");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        scheduled.future = executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    rebase.rebase();
+                } catch (Exception e) {
+                    log.warn("Background rebase of " + key + " to "
+                            + scheduled.baseline + " failed, the build will rebase", e);
+                    forget(key, scheduled);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Wait for a background rebase of the build stream to the baseline to
+     * complete, returns straight away if there is none.
+     *
+     * @param key      identifies the build stream.
+     * @param baseline the baseline the build needs.
+     * @throws RepositoryException if interrupted while waiting.
+     */
+    public void await(String key, String baseline) throws RepositoryException {
+        Future<?> future;
+        synchronized (this) {
+            Rebase current = rebases.get(key);
+            if (current == null || !current.baseline.equals(baseline)) {
+                return;
+            }
+            future = current.future;
+        }
+        if (!future.isDone()) {
+            log.info("Waiting for background rebase of " + key + " to " + baseline);
+        }
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // logged by the task, the build rebases instead
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted waiting for rebase of " + key);
+        }
+    }
+
+    private synchronized void forget(String key, Rebase rebase) {
+        if (rebases.get(key) == rebase) {
+            rebases.remove(key);
+        }
+    }
+
+    /**
+     * The rebase run in the background.
+     */
+    public interface RebaseTask {
+        void rebase() throws Exception;
+    }
+}
@@ -0,0 +1,608 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps several snapshot views for each build stream so builds of the same
+ * plan do not have to wait for each other or create a view from scratch.
+ * Each view is on its own stream, so rebasing a view for one build does not
+ * change the configuration of a view another build is using.
+ * <p/>
+ * A build leases a view in {@link CcRepository#retrieveSourceCode} and
+ * releases it when the build completes, see
+ * {@link com.atlassian.bamboo.plugins.clearcase.postbuild.ViewReleaser}.
+ * Leases are held by plan and build number, as builds of the same plan may
+ * run at once. A lease whose thread has ended is reclaimed, and a build
+ * waits at most the milliseconds in the system property
+ * <code>clearcase.viewpool.lease.timeout</code> (default one hour, 0 for no
+ * limit) for a view. Released views are updated in the
+ * background so the next build finds them already loaded. While a view is
+ * leased and the pool is below its size, another view is created and
+ * loaded in the background.
+ * <p/>
+ * The disk used by idle views is limited by the system property
+ * <code>clearcase.viewpool.disk.mb</code> (default 0, no limit). When the
+ * limit is exceeded the least recently used idle views are removed. The
+ * first view of each pool, the one used before pooling existed, is never
+ * removed as change detection also uses it.
+ */
+public class ViewPool {
+
+    private static final Logger log = Logger.getLogger(ViewPool.class);
+
+    /**
+     * System property holding the disk space in megabytes idle views may use.
+     */
+    public static final String PROP_DISK_BUDGET = "clearcase.viewpool.disk.mb";
+
+    /**
+     * System property holding the milliseconds a build waits for a view.
+     */
+    public static final String PROP_LEASE_TIMEOUT = "clearcase.viewpool.lease.timeout";
+
+    private static final ViewPool INSTANCE = new ViewPool(
+            Long.getLong(PROP_DISK_BUDGET, 0L).longValue() * 1024 * 1024,
+            Long.getLong(PROP_LEASE_TIMEOUT, 60 * 60 * 1000L).longValue());
+
+    /**
+     * Creates, updates and removes the views of one pool.
+     */
+    public interface ViewManager {
+        /**
+         * @param slot the number of the view in the pool, starting at 0.
+         * @return the details of the view, the view need not exist yet.
+         */
+        PooledView newView(int slot);
+
+        /**
+         * Create the view if it does not exist and load it.
+         */
+        void prepare(PooledView view) throws RepositoryException;
+
+        /**
+         * Update a view that has been used by a build.
+         */
+        void update(PooledView view) throws RepositoryException;
+
+        /**
+         * Remove the view and its directory, and the stream of the view if
+         * no other view of the pool uses it.
+         */
+        void remove(PooledView view) throws RepositoryException;
+    }
+
+    /**
+     * A snapshot view in a pool.
+     */
+    public static class PooledView {
+        private final int slot;
+        private final String viewTag;
+        private final String stream;
+        private final String location;
+        private final String storage;
+        private final String sourceDirectory;
+
+        private State state = State.LEASED;
+        private String planKey;
+        private int buildNumber;
+        private Thread owner;
+        private long lastUsed = System.currentTimeMillis();
+        private long diskBytes = -1;
+
+        /**
+         * @param slot            the number of the view in the pool.
+         * @param viewTag         the view tag.
+         * @param stream          the selector of the stream the view is on.
+         * @param location        the view directory.
+         * @param storage         the view storage directory.
+         * @param sourceDirectory the directory the build runs in.
+         */
+        public PooledView(int slot, String viewTag, String stream, String location,
+                          String storage, String sourceDirectory) {
+            this.slot = slot;
+            this.viewTag = viewTag;
+            this.stream = stream;
+            this.location = location;
+            this.storage = storage;
+            this.sourceDirectory = sourceDirectory;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public String getViewTag() {
+            return viewTag;
+        }
+
+        public String getStream() {
+            return stream;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getStorage() {
+            return storage;
+        }
+
+        public String getSourceDirectory() {
+            return sourceDirectory;
+        }
+
+        public String toString() {
+            return viewTag + " (" + location + ")";
+        }
+    }
+
+    private enum State {
+        /** Ready for a build. */
+        IDLE,
+        /** In use by a build. */
+        LEASED,
+        /** Being loaded, updated or removed in the background. */
+        BUSY
+    }
+
+    /**
+     * The views of one build stream.
+     */
+    private static class Pool {
+        private final List<PooledView> views = new ArrayList<PooledView>();
+        private int size;
+        private ViewManager manager;
+    }
+
+    private final long diskBudget;
+
+    private final long leaseTimeout;
+
+    private final Map<String, Pool> pools = new HashMap<String, Pool>();
+
+    /**
+     * The baseline each stream was last rebased to, by stream selector.
+     */
+    private final Map<String, String> baselines = new HashMap<String, String>();
+
+    private ExecutorService worker = null;
+
+    /**
+     * @param diskBudget   bytes idle views may use, zero or less for no limit.
+     * @param leaseTimeout milliseconds a build waits for a view, zero or less
+     *                     for no limit.
+     */
+    ViewPool(long diskBudget, long leaseTimeout) {
+        this.diskBudget = diskBudget;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * @return the pool shared by all repositories.
+     */
+    public static ViewPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Stop the thread preparing, updating and removing views of the shared
+     * pool, it is started again when next needed.
+     */
+    public static void shutdown() {
+        INSTANCE.stop();
+    }
+
+    synchronized void stop() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+    }
+
+    private ExecutorService getWorker() {
+        if (worker == null) {
+            worker = Executors.newFixedThreadPool(2, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "clearcase-viewpool");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return worker;
+    }
+
+    /**
+     * Lease a view for a build, waiting if all views of the pool are in use.
+     * A view leased by this thread for an earlier build of the plan that was
+     * never released is released first.
+     *
+     * @param poolKey     identifies the build stream.
+     * @param planKey     the plan being built.
+     * @param buildNumber the number of the build.
+     * @param size        the number of views to keep in the pool.
+     * @param manager     creates and updates the views.
+     * @return the leased view, it may need to be created if this is a new slot.
+     * @throws RepositoryException if interrupted or timed out while waiting.
+     */
+    public synchronized PooledView lease(String poolKey, String planKey, int buildNumber,
+                                         int size, ViewManager manager) throws RepositoryException {
+        PooledView stale = findLease(planKey);
+        if (stale != null) {
+            log.warn("Releasing view " + stale + " not released by build " + stale.buildNumber
+                    + " of " + planKey);
+            release(stale, true);
+        }
+
+        Pool pool = pools.get(poolKey);
+        if (pool == null) {
+            pool = new Pool();
+            pools.put(poolKey, pool);
+        }
+        pool.size = Math.max(1, size);
+        pool.manager = manager;
+
+        long deadline = System.currentTimeMillis() + leaseTimeout;
+        PooledView view;
+        while ((view = mostRecentlyUsed(pool, State.IDLE)) == null) {
+            if (pool.views.size() < pool.size) {
+                view = addView(pool);
+                break;
+            }
+            if (reclaim(pool)) {
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (leaseTimeout > 0 && remaining <= 0) {
+                throw new RepositoryException("Timed out after " + leaseTimeout
+                        + "ms waiting for a view of " + poolKey + ", all " + pool.size
+                        + " views are leased");
+            }
+            try {
+                wait(leaseTimeout > 0 ? remaining : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException("Interrupted waiting for a view of " + poolKey);
+            }
+        }
+        view.state = State.LEASED;
+        view.planKey = planKey;
+        view.buildNumber = buildNumber;
+        view.owner = Thread.currentThread();
+        log.info("Leased view " + view + " to build " + buildNumber + " of " + planKey);
+
+        if (mostRecentlyUsed(pool, State.IDLE) == null && pool.views.size() < pool.size) {
+            prewarm(pool, addView(pool));
+        }
+        return view;
+    }
+
+    /**
+     * @param stream the selector of a stream.
+     * @return the baseline the stream was last rebased to by the plugin, null
+     *         if not known.
+     */
+    public synchronized String getBaseline(String stream) {
+        return baselines.get(stream);
+    }
+
+    /**
+     * Record the baseline a stream was rebased to, so builds leasing a view
+     * of the stream can skip the rebase.
+     *
+     * @param stream   the selector of a stream.
+     * @param baseline the baseline, null while the stream is being rebased
+     *                 or when it is not known.
+     */
+    public synchronized void setBaseline(String stream, String baseline) {
+        if (baseline != null) {
+            baselines.put(stream, baseline);
+        } else {
+            baselines.remove(stream);
+        }
+    }
+
+    /**
+     * @param planKey     the plan being built.
+     * @param buildNumber the number of the build.
+     * @return the view leased for the build, null if it has no lease.
+     */
+    public synchronized PooledView getLease(String planKey, int buildNumber) {
+        for (Pool pool : pools.values()) {
+            for (PooledView view : pool.views) {
+                if (view.state == State.LEASED && planKey.equals(view.planKey)
+                        && view.buildNumber == buildNumber) {
+                    return view;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the view leased for a build of a plan when the build number is not
+     * known, the lease taken by this thread, otherwise the only lease of the
+     * plan.
+     *
+     * @param planKey the plan being built.
+     * @return the view, null if the plan has no lease or several builds of
+     *         the plan hold one.
+     */
+    public synchronized PooledView getLease(String planKey) {
+        PooledView view = findLease(planKey);
+        if (view != null) {
+            return view;
+        }
+        for (Pool pool : pools.values()) {
+            for (PooledView leased : pool.views) {
+                if (leased.state == State.LEASED && planKey.equals(leased.planKey)) {
+                    if (view != null) {
+                        log.debug("Several builds of " + planKey + " hold a view, not choosing one");
+                        return null;
+                    }
+                    view = leased;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Return the view leased for a build to the pool and update it in the
+     * background. Does nothing if the build has no lease.
+     *
+     * @param planKey     the plan that was built.
+     * @param buildNumber the number of the build.
+     */
+    public void release(String planKey, int buildNumber) {
+        release(planKey, buildNumber, true);
+    }
+
+    /**
+     * Return the view leased for a build to the pool. Does nothing if the
+     * build has no lease.
+     *
+     * @param planKey     the plan that was built.
+     * @param buildNumber the number of the build.
+     * @param update      false if the view is already up to date and can be
+     *                    leased again straight away.
+     */
+    public synchronized void release(String planKey, int buildNumber, boolean update) {
+        PooledView view = getLease(planKey, buildNumber);
+        if (view != null) {
+            release(view, update);
+        }
+    }
+
+    private void release(final PooledView view, boolean update) {
+        String build = "build " + view.buildNumber + " of " + view.planKey;
+        final Pool pool = findPool(view);
+        if (!update) {
+            view.state = State.IDLE;
+            view.planKey = null;
+            view.owner = null;
+            view.lastUsed = System.currentTimeMillis();
+            log.info("Released up to date view " + view + " from " + build);
+            evict();
+            notifyAll();
+            return;
+        }
+        view.state = State.BUSY;
+        view.planKey = null;
+        view.owner = null;
+        // the build may have changed the stream, rebase the next build
+        setBaseline(view.getStream(), null);
+        log.info("Released view " + view + " from " + build);
+        getWorker().execute(new Runnable() {
+            public void run() {
+                boolean updated = false;
+                try {
+                    pool.manager.update(view);
+                    updated = true;
+                } catch (Exception e) {
+                    log.warn("Unable to update released view " + view + ", dropping it from the pool", e);
+                }
+                long bytes = updated ? measure(view) : -1;
+                synchronized (ViewPool.this) {
+                    if (updated) {
+                        view.diskBytes = bytes;
+                        view.lastUsed = System.currentTimeMillis();
+                        view.state = State.IDLE;
+                    } else {
+                        pool.views.remove(view);
+                    }
+                    evict();
+                    ViewPool.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Release the views of the pool leased by threads that have ended, their
+     * builds can no longer release them.
+     *
+     * @return true if a view was released.
+     */
+    private boolean reclaim(Pool pool) {
+        boolean reclaimed = false;
+        for (PooledView view : new ArrayList<PooledView>(pool.views)) {
+            if (view.state == State.LEASED && view.owner != null && !view.owner.isAlive()) {
+                log.warn("Releasing view " + view + " leased by build " + view.buildNumber
+                        + " of " + view.planKey + " whose thread has ended");
+                release(view, true);
+                reclaimed = true;
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Create and load a new view in the background.
+     */
+    private void prewarm(final Pool pool, final PooledView view) {
+        view.state = State.BUSY;
+        log.info("Preparing view " + view + " in the background");
+        getWorker().execute(new Runnable() {
+            public void run() {
+                boolean prepared = false;
+                try {
+                    pool.manager.prepare(view);
+                    prepared = true;
+                } catch (Exception e) {
+                    log.warn("Unable to prepare view " + view, e);
+                }
+                long bytes = prepared ? measure(view) : -1;
+                synchronized (ViewPool.this) {
+                    if (prepared) {
+                        view.diskBytes = bytes;
+                        view.lastUsed = System.currentTimeMillis();
+                        view.state = State.IDLE;
+                    } else {
+                        pool.views.remove(view);
+                    }
+                    evict();
+                    ViewPool.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove least recently used idle views until the disk used is within
+     * the budget.
+     */
+    private void evict() {
+        if (diskBudget <= 0) {
+            return;
+        }
+        long total = 0;
+        for (Pool pool : pools.values()) {
+            for (PooledView view : pool.views) {
+                if (view.state == State.IDLE) {
+                    total += Math.max(view.diskBytes, 0);
+                }
+            }
+        }
+        while (total > diskBudget) {
+            Pool victimPool = null;
+            PooledView victim = null;
+            for (Pool pool : pools.values()) {
+                for (PooledView view : pool.views) {
+                    if (view.state == State.IDLE && view.slot > 0
+                            && (victim == null || view.lastUsed < victim.lastUsed)) {
+                        victim = view;
+                        victimPool = pool;
+                    }
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            total -= Math.max(victim.diskBytes, 0);
+            remove(victimPool, victim);
+        }
+    }
+
+    private void remove(final Pool pool, final PooledView view) {
+        log.info("Removing idle view " + view + " to stay within the view pool disk budget");
+        view.state = State.BUSY;
+        pool.views.remove(view);
+        getWorker().execute(new Runnable() {
+            public void run() {
+                try {
+                    pool.manager.remove(view);
+                } catch (Exception e) {
+                    log.warn("Unable to remove view " + view, e);
+                }
+            }
+        });
+    }
+
+    private PooledView addView(Pool pool) {
+        // reuse the lowest free slot so views left on disk are picked up again
+        int slot = 0;
+        while (hasSlot(pool, slot)) {
+            slot++;
+        }
+        PooledView view = pool.manager.newView(slot);
+        pool.views.add(view);
+        return view;
+    }
+
+    private static boolean hasSlot(Pool pool, int slot) {
+        for (PooledView view : pool.views) {
+            if (view.slot == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PooledView mostRecentlyUsed(Pool pool, State state) {
+        PooledView rval = null;
+        for (PooledView view : pool.views) {
+            if (view.state == state && (rval == null || view.lastUsed > rval.lastUsed)) {
+                rval = view;
+            }
+        }
+        return rval;
+    }
+
+    /**
+     * @return the view leased by this thread for a build of the plan.
+     */
+    private PooledView findLease(String planKey) {
+        for (Pool pool : pools.values()) {
+            for (PooledView view : pool.views) {
+                if (view.state == State.LEASED && planKey.equals(view.planKey)
+                        && view.owner == Thread.currentThread()) {
+                    return view;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Pool findPool(PooledView view) {
+        for (Pool pool : pools.values()) {
+            if (pool.views.contains(view)) {
+                return pool;
+            }
+        }
+        throw new IllegalStateException("View " + view + " is not in a pool");
+    }
+
+    /**
+     * @return the bytes used by the view, -1 when there is no disk budget so
+     *         views are not walked for nothing.
+     */
+    private long measure(PooledView view) {
+        return diskBudget > 0 ? sizeOf(new File(view.getLocation())) : -1;
+    }
+
+    /**
+     * @return the bytes used by the files under the directory.
+     */
+    static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long total = 0;
+        for (File child : children) {
+            total += sizeOf(child);
+        }
+        return total;
+    }
+}
@@ -1,16 +1,27 @@
 package com.atlassian.bamboo.plugins.clearcase.utils;
 
+import java.util.regex.Pattern;
+
 /**
  * Processs supplied string data by breaking it up into tokens based on a
- * delimiter expresssion.  The default delimter expression breaks the string 
+ * delimiter expresssion.  The default delimter expression breaks the string
  * into seperate lines.
  * <p>
- * Each token found is passed to {{@link #processToken(String)} for a subclasses
- * to do what they like with.
+ * Each token found is passed to {{@link #processToken(CharSequence)} for a
+ * subclasses to do what they like with, by default it is copied to a String
+ * and passed on to {{@link #processToken(String)}.
+ * <p>
+ * The delimiter expressions used on cleartool output, a character class such
+ * as the default, <code>\s</code>, or a fixed marker such as
+ * {@link com.atlassian.bamboo.plugins.clearcase.ant.ClearCaseUtils#LSHISTORY_END_OF_RESULT_DELIM},
+ * are found by scanning the data once without a regular expression, other
+ * expressions are handled by {@link Pattern#split(CharSequence)}. Tokens are
+ * the same as {@link String#split(String)} would return, trailing empty tokens
+ * are dropped.
  */
 public abstract class AbstractTokenProcessor {
 
-	private String data;
+	private CharSequence data;
 
 	private int tokenCount = 0;
 
@@ -18,65 +29,322 @@ public abstract class AbstractTokenProcessor {
 
 	private static String DEFAULT_DELIMS = "[\n\f\r]";
 
+	private static final String WHITESPACE = " \t\n\u000B\f\r";
+
+	private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
 	private String delimExp = DEFAULT_DELIMS;
 
+	/** the delimiter characters when delimExp is a character class, else null */
+	private String delimChars;
+
+	/** the delimiter when delimExp is a fixed string, else null */
+	private String delimLiteral;
+
+	/** the delimiter when delimExp needs a regular expression, else null */
+	private Pattern delimPattern;
+
 	/** if true any token that is an empty after applying {#trim} is ignored * */
 	private boolean ignoreEmptyToken = true;
 
 	public AbstractTokenProcessor(String data) {
-		this.data = data;
+		this((CharSequence) data);
 	}
 
 	public AbstractTokenProcessor(String data, String delimExp) {
-		this(data);
+		this((CharSequence) data, delimExp);
+	}
+
+	/**
+	 * @param data the data to break into tokens, it is not copied.
+	 */
+	public AbstractTokenProcessor(CharSequence data) {
+		this.data = data;
+		setDelimExp(null);
+	}
+
+	/**
+	 * @param data the data to break into tokens, it is not copied.
+	 * @param delimExp the delimiter regular expression.
+	 */
+	public AbstractTokenProcessor(CharSequence data, String delimExp) {
+		this.data = data;
 		setDelimExp(delimExp);
 	}
 
 	/**
 	 * Set the regexp used to split data into tokens, if null then
 	 * default {@link #DEFAULT_DELIMS} is set.
-	 * 
+	 *
 	 * @param delimExp the delimer regular epression
-	 * 
+	 *
 	 * @see java.util.regex.Pattern for details of the delimExp
 	 */
 	public void setDelimExp(String delimExp) {
 		this.delimExp = delimExp == null ? DEFAULT_DELIMS : delimExp;
+		delimChars = parseCharClass(this.delimExp);
+		delimLiteral = delimChars == null ? parseLiteral(this.delimExp) : null;
+		delimPattern = delimChars == null && delimLiteral == null ? Pattern
+				.compile(this.delimExp) : null;
 	}
 
 	/**
 	 * Process the data supplied by break it up into tokens
 	 */
 	public void process() {
-		String[] tokens = data.split(delimExp);
-		for (int i = 0; i < tokens.length; i++) {
-			String currentToken = tokens[i];
-			if (trim) {
-				currentToken = currentToken.trim();
+		if (delimPattern != null) {
+			String[] tokens = delimPattern.split(data);
+			for (int i = 0; i < tokens.length; i++) {
+				token(tokens[i], 0, tokens[i].length());
 			}
-			if (ignoreEmptyToken && currentToken.length() == 0) {
-				// ignore token
+			return;
+		}
+		int length = data.length();
+		int delimLength = delimChars != null ? 1 : delimLiteral.length();
+		int start = 0;
+		int pendingEmpty = 0;
+		int end;
+		while ((end = nextDelim(start)) >= 0) {
+			if (end == start) {
+				// only passed on if a non empty token follows, like split
+				pendingEmpty++;
 			} else {
-				tokenCount++;
-				processToken(currentToken);
+				pendingEmpty = flushEmpty(pendingEmpty);
+				token(data, start, end);
 			}
+			start = end + delimLength;
+		}
+		if (start == 0 || start < length) {
+			// no delimiter at all gives the whole data, even if empty
+			flushEmpty(pendingEmpty);
+			token(data, start, length);
 		}
 	}
 
 	/**
 	 * Passed each token found in the data. If {{@link #trim} is true, the
 	 * default, then lines are trimmed before being passed.
-	 * If {{@link #ignoreEmptyToken} is true then not empty tokens, ie zero in 
+	 * If {{@link #ignoreEmptyToken} is true then not empty tokens, ie zero in
 	 * lenght, are passed to the method.
-	 * 
+	 * <p>
+	 * The token is a view of the data that is only valid during the call,
+	 * override this method rather than {{@link #processToken(String)} to
+	 * avoid copying tokens that are not kept.
+	 *
+	 * @param token
+	 *            a token to processs.
+	 */
+	protected void processToken(CharSequence token) {
+		processToken(token.toString());
+	}
+
+	/**
+	 * Passed each token found in the data as a String, see
+	 * {{@link #processToken(CharSequence)}. Subclasses that override
+	 * {{@link #processToken(CharSequence)} can pass the token back to it.
+	 *
 	 * @param token
 	 *            a token to processs.
 	 */
 	protected abstract void processToken(String token);
 
+	/**
+	 * Test if a token starts with a prefix without copying it.
+	 *
+	 * @param token the token.
+	 * @param prefix the prefix to look for.
+	 * @return true if the token starts with the prefix.
+	 */
+	public static boolean startsWith(CharSequence token, String prefix) {
+		if (token.length() < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (token.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int flushEmpty(int pendingEmpty) {
+		for (int i = 0; i < pendingEmpty; i++) {
+			token("", 0, 0);
+		}
+		return 0;
+	}
+
+	private void token(CharSequence text, int start, int end) {
+		if (trim) {
+			// same characters as String.trim()
+			while (start < end && text.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && text.charAt(end - 1) <= ' ') {
+				end--;
+			}
+		}
+		if (ignoreEmptyToken && start == end) {
+			// ignore token
+		} else {
+			tokenCount++;
+			processToken(new Token(text, start, end));
+		}
+	}
+
+	/**
+	 * @return the index of the next delimiter at or after start, -1 if none.
+	 */
+	private int nextDelim(int start) {
+		int length = data.length();
+		if (delimChars != null) {
+			for (int i = start; i < length; i++) {
+				if (delimChars.indexOf(data.charAt(i)) >= 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		char first = delimLiteral.charAt(0);
+		int last = length - delimLiteral.length();
+		for (int i = start; i <= last; i++) {
+			if (data.charAt(i) == first) {
+				int j = 1;
+				while (j < delimLiteral.length()
+						&& data.charAt(i + j) == delimLiteral.charAt(j)) {
+					j++;
+				}
+				if (j == delimLiteral.length()) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the characters matched by a simple character class such as
+	 *         <code>[\n\f\r]</code> or <code>\s</code>, null if the
+	 *         expression is anything else.
+	 */
+	static String parseCharClass(String exp) {
+		if ("\\s".equals(exp)) {
+			return WHITESPACE;
+		}
+		if (exp.length() < 3 || exp.charAt(0) != '['
+				|| exp.charAt(exp.length() - 1) != ']' || exp.charAt(1) == '^') {
+			return null;
+		}
+		StringBuilder chars = new StringBuilder();
+		for (int i = 1; i < exp.length() - 1; i++) {
+			char c = exp.charAt(i);
+			if (c == '\\') {
+				if (++i == exp.length() - 1) {
+					return null;
+				}
+				if (exp.charAt(i) == 's') {
+					chars.append(WHITESPACE);
+					continue;
+				}
+				c = unescape(exp.charAt(i));
+				if (c == 0) {
+					return null;
+				}
+			} else if (c == '[' || c == ']' || c == '-' || c == '&') {
+				// ranges, unions and intersections are left to Pattern
+				return null;
+			}
+			chars.append(c);
+		}
+		return chars.toString();
+	}
+
+	/**
+	 * @return the string matched by an expression without regular
+	 *         expression operators, null if the expression has any.
+	 */
+	static String parseLiteral(String exp) {
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < exp.length(); i++) {
+			char c = exp.charAt(i);
+			if (c == '\\') {
+				if (++i == exp.length()) {
+					return null;
+				}
+				c = unescape(exp.charAt(i));
+				if (c == 0) {
+					return null;
+				}
+			} else if (REGEX_META.indexOf(c) >= 0) {
+				return null;
+			}
+			literal.append(c);
+		}
+		return literal.length() > 0 ? literal.toString() : null;
+	}
+
+	/**
+	 * @return the character a backslash escape stands for, 0 if it is not a
+	 *         single character.
+	 */
+	private static char unescape(char c) {
+		switch (c) {
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'f':
+			return '\f';
+		default:
+			// escaped punctuation stands for itself, letters and digits are
+			// classes or back references
+			return Character.isLetterOrDigit(c) ? 0 : c;
+		}
+	}
+
+	/**
+	 * A token as a range of the data, characters are not copied until
+	 * {@link #toString()} is called.
+	 */
+	private static final class Token implements CharSequence {
+		private final CharSequence text;
+		private final int start;
+		private final int end;
+
+		Token(CharSequence text, int start, int end) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			return text.charAt(start + index);
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > end - start || from > to) {
+				throw new IndexOutOfBoundsException(from + "," + to);
+			}
+			return new Token(text, start + from, start + to);
+		}
+
+		public String toString() {
+			return text.subSequence(start, end).toString();
+		}
+	}
+
 	/**
 	 * The number of tokens that were processed (or have been processed so far.
-	 * 
+	 *
 	 * @return the number of lines processed, will always be zero if dat has not
 	 *         yet been procesed.
 	 */
@@ -87,7 +355,7 @@ public abstract class AbstractTokenProcessor {
 	/**
 	 * Test if lines aqre being trimmed befre passing to {{@link #processToken(String)},
 	 * default is true.
-	 * 
+	 *
 	 * @return true if trimming false if not
 	 */
 	public boolean isTrimLines() {
@@ -96,7 +364,7 @@ public abstract class AbstractTokenProcessor {
 
 	/**
 	 * Turn on or off line timming.
-	 * 
+	 *
 	 * @param trimLinestrue
 	 *            to trim, false to not
 	 */
@@ -0,0 +1,213 @@
+package com.atlassian.bamboo.plugins.clearcase.utils;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parse and format the numeric date cleartool produces for the
+ * <code>%Nd</code> format, <code>yyyyMMdd.HHmmss</code> in local time, which
+ * is also used for the date based revision keys.
+ * <p>
+ * Unlike {@link java.text.SimpleDateFormat} instances of this class are
+ * immutable and can be shared between threads. Parsing reads the characters
+ * directly and does not create any objects other than the returned
+ * {@link Date}, {@link #parseMillis(CharSequence)} creates none at all.
+ * <p>
+ * For compatibility with revision keys written using the <code>kk</code>
+ * hour pattern an hour of 24 is accepted and means midnight at the start of
+ * the day.
+ */
+public final class ClearCaseDate {
+
+	/**
+	 * The number of characters in a formatted date.
+	 */
+	public static final int LENGTH = 15;
+
+	private static final long MILLIS_PER_SECOND = 1000L;
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * MILLIS_PER_SECOND;
+
+	private static final ClearCaseDate DEFAULT = new ClearCaseDate(TimeZone
+			.getDefault());
+
+	private final TimeZone timeZone;
+
+	/**
+	 * @param timeZone
+	 *            the zone dates are formatted and parsed in.
+	 */
+	public ClearCaseDate(TimeZone timeZone) {
+		this.timeZone = (TimeZone) timeZone.clone();
+	}
+
+	/**
+	 * @return the instance using the time zone that was the default when the
+	 *         class was loaded.
+	 */
+	public static ClearCaseDate getInstance() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Parse a date, leading white space and any characters after the date
+	 * are ignored.
+	 *
+	 * @param text
+	 *            the text starting with a <code>yyyyMMdd.HHmmss</code> date.
+	 * @return the date.
+	 * @throws ParseException
+	 *             if the text does not start with a valid date.
+	 */
+	public Date parse(CharSequence text) throws ParseException {
+		return new Date(parseMillis(text));
+	}
+
+	/**
+	 * Parse a date to milliseconds since the epoch, leading white space and
+	 * any characters after the date are ignored.
+	 *
+	 * @param text
+	 *            the text starting with a <code>yyyyMMdd.HHmmss</code> date.
+	 * @return the milliseconds since the epoch.
+	 * @throws ParseException
+	 *             if the text does not start with a valid date.
+	 */
+	public long parseMillis(CharSequence text) throws ParseException {
+		if (text == null) {
+			throw new ParseException("No date to parse", 0);
+		}
+		int start = 0;
+		int length = text.length();
+		while (start < length && Character.isWhitespace(text.charAt(start))) {
+			start++;
+		}
+		if (length - start < LENGTH) {
+			throw new ParseException("Unparseable date: \"" + text + "\"",
+					start);
+		}
+		if (text.charAt(start + 8) != '.') {
+			throw new ParseException("Unparseable date: \"" + text + "\"",
+					start + 8);
+		}
+		int year = digits(text, start, 4);
+		int month = digits(text, start + 4, 2);
+		int day = digits(text, start + 6, 2);
+		int hour = digits(text, start + 9, 2);
+		int minute = digits(text, start + 11, 2);
+		int second = digits(text, start + 13, 2);
+		if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 24
+				|| minute > 59 || second > 59) {
+			throw new ParseException("Unparseable date: \"" + text + "\"",
+					start);
+		}
+		if (hour == 24) {
+			hour = 0;
+		}
+
+		long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+				+ ((hour * 60L + minute) * 60L + second) * MILLIS_PER_SECOND;
+		int offset = timeZone.getOffset(local - timeZone.getRawOffset());
+		long utc = local - offset;
+		int actual = timeZone.getOffset(utc);
+		if (actual != offset) {
+			// the guess was on the other side of a daylight saving change
+			utc = local - actual;
+		}
+		return utc;
+	}
+
+	/**
+	 * Format a date as <code>yyyyMMdd.HHmmss</code>.
+	 *
+	 * @param date
+	 *            the date to format.
+	 * @return the formatted date.
+	 */
+	public String format(Date date) {
+		return format(date.getTime());
+	}
+
+	/**
+	 * Format a date as <code>yyyyMMdd.HHmmss</code>.
+	 *
+	 * @param millis
+	 *            the milliseconds since the epoch.
+	 * @return the formatted date.
+	 */
+	public String format(long millis) {
+		long local = millis + timeZone.getOffset(millis);
+		long days = floorDiv(local, MILLIS_PER_DAY);
+		int secondOfDay = (int) ((local - days * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+
+		// civil from days, see daysFromCivil
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = (int) (z - era * 146097);
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		int day = doy - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		char[] buf = new char[LENGTH];
+		put(buf, 0, (int) year, 4);
+		put(buf, 4, month, 2);
+		put(buf, 6, day, 2);
+		buf[8] = '.';
+		put(buf, 9, secondOfDay / 3600, 2);
+		put(buf, 11, secondOfDay / 60 % 60, 2);
+		put(buf, 13, secondOfDay % 60, 2);
+		return new String(buf);
+	}
+
+	/**
+	 * @return the time zone used.
+	 */
+	public TimeZone getTimeZone() {
+		return (TimeZone) timeZone.clone();
+	}
+
+	private static int digits(CharSequence text, int start, int count)
+			throws ParseException {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new ParseException("Unparseable date: \"" + text + "\"",
+						i);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void put(char[] buf, int start, int value, int count) {
+		for (int i = start + count - 1; i >= start; i--) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = (int) (y - era * 400);
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			q--;
+		}
+		return q;
+	}
+}
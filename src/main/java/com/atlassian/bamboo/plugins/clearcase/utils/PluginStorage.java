@@ -0,0 +1,145 @@
+package com.atlassian.bamboo.plugins.clearcase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Location on local disk where the plugin keeps data between builds and
+ * server restarts, a <code>clearcase</code> directory under the Bamboo home
+ * (system property <code>bamboo.home</code>). When Bamboo home is not known
+ * the java temporary directory is used instead.
+ * <p>
+ * Data is kept in properties files, failure to read or write a file is
+ * logged and treated as the file being empty as everything stored here can
+ * be recreated by asking ClearCase again.
+ */
+public class PluginStorage {
+
+	private static final Logger log = Logger.getLogger(PluginStorage.class);
+
+	/**
+	 * System property holding the Bamboo home directory.
+	 */
+	public static final String PROP_BAMBOO_HOME = "bamboo.home";
+
+	private static final String DIR_NAME = "clearcase";
+
+	private static final String FILE_SUFFIX = ".properties";
+
+	private PluginStorage() {
+	}
+
+	/**
+	 * @return the directory used to store plugin data, created if it does not
+	 *         exist.
+	 */
+	public static File getDirectory() {
+		String home = System.getProperty(PROP_BAMBOO_HOME);
+		if (home == null || home.trim().length() == 0) {
+			home = System.getProperty("java.io.tmpdir");
+		}
+		File dir = new File(home, DIR_NAME);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			log.warn("Unable to create plugin storage directory [" + dir + "]");
+		}
+		return dir;
+	}
+
+	/**
+	 * Read a properties file from the storage directory.
+	 *
+	 * @param name
+	 *            the name of the file without suffix.
+	 * @return the properties, empty if the file does not exist or can not be
+	 *         read.
+	 */
+	public static Properties load(String name) {
+		Properties props = new Properties();
+		File file = getFile(name);
+		if (!file.isFile()) {
+			return props;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			props.load(in);
+		} catch (IOException e) {
+			log.warn("Unable to read [" + file + "], ignoring contents", e);
+			props.clear();
+		} finally {
+			close(in);
+		}
+		return props;
+	}
+
+	/**
+	 * Write a properties file to the storage directory, the file is written
+	 * to a temporary file first and renamed so readers never see a partly
+	 * written file.
+	 *
+	 * @param name
+	 *            the name of the file without suffix.
+	 * @param props
+	 *            the properties to write.
+	 * @param comment
+	 *            the comment placed at the top of the file.
+	 */
+	public static void store(String name, Properties props, String comment) {
+		File file = getFile(name);
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			props.store(out, comment);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				// rename does not replace an existing file on all platforms
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Unable to rename [" + tmp + "] to ["
+							+ file + "]");
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unable to write [" + file + "]", e);
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 * Remove a properties file from the storage directory.
+	 *
+	 * @param name
+	 *            the name of the file without suffix.
+	 */
+	public static void delete(String name) {
+		File file = getFile(name);
+		if (file.exists() && !file.delete()) {
+			log.warn("Unable to delete [" + file + "]");
+		}
+	}
+
+	private static File getFile(String name) {
+		return new File(getDirectory(), name + FILE_SUFFIX);
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// nothing more to do
+			}
+		}
+	}
+}
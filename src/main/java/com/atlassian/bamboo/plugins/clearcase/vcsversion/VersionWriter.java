@@ -14,8 +14,10 @@ import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
 /**
  * Stores the Repository version for current build in the
  * {@link BuildResults#getCustomBuildData()} map under {{@link #REVISION_KEY} as
- * a String. The value stored here is retrieved by calling
- * {@link Repository#getCurrentVersion(Build)}.toString().
+ * a String. The value stored here is the baseline recorded in the
+ * {@link com.atlassian.bamboo.plugins.clearcase.repository.CheckoutContext}
+ * when the source was retrieved, or the build stream foundation baseline
+ * when there is none.
  * <p/>
  * <strong>Note:</strong> The VcsversionReader pre action supplied by Bamboo was
  * not appropriate as is stores the version key under different string based on
@@ -60,7 +62,8 @@ public class VersionWriter extends AbstractBuildTask implements
                     CcRepository.CC_TYPE_UCM)) {
                 CcRepository ccRepository = (CcRepository) repository;
 
-                Object latestRevision = ccRepository.getLastBuiltBaseline();
+                Object latestRevision = ccRepository.getBuiltBaseline(
+                        buildContext.getPlanKey(), buildContext.getBuildNumber());
 
                 if (latestRevision != null) {
                     buildResult.getCustomBuildData().put(REVISION_KEY,
@@ -56,4 +56,13 @@ description='Shared directory where view storgae is create. default will use glo
 [/@ui.bambooSection ]
 
 [@ww.checkbox label='Dynamic View' name='custom.repository.cc.dynamicView' toggle='true' nameValue='true'
-        description='(Optional) Specifies whether the view is a dynamic view'/]
\ No newline at end of file
+        description='(Optional) Specifies whether the view is a dynamic view'/]
+
+[@ww.textfield name='custom.repository.cc.historyThreads' label='History Scan Threads' required='false'
+        description='(Optional) When no VOB directory is set, the number of view sub directories checked for changes at the same time (default 4).' /]
+
+[@ww.textfield name='custom.repository.cc.viewPoolSize' label='View Pool Size' required='false'
+        description='(Optional) For automatically created UCM snapshot views, the number of views kept so builds of the plan can run at the same time (default 1). Views after the first are on their own streams, named after the build stream with the view number appended.' /]
+
+[@ww.checkbox label='Rebase In Background' name='custom.repository.cc.preRebase' toggle='true' nameValue='true'
+        description='(Optional) When comparing baselines with automatically created snapshot views, rebase a pooled view as soon as a new integration baseline is found so the build does not have to. Polling runs on the server so this only helps builds on local agents.'/]
\ No newline at end of file
@@ -29,6 +29,9 @@
         [/@ww.label]               
         [@ww.label label='Dynamic View' ]
            [@ww.param name='value']${build.buildDefinition.customConfiguration.get('custom.repository.cc.dynamicView')?if_exists}[/@ww.param]
+        [/@ww.label]
+        [@ww.label label='History Scan Threads' ]
+           [@ww.param name='value']${repository.getHistoryThreads()}[/@ww.param]
         [/@ww.label]
 	    [@ww.label label='Load Rules' ]
            [@ww.param name='value']${repository.getLoadRules()?if_exists}[/@ww.param]
@@ -83,6 +86,15 @@
         [/@ww.label]
         [@ww.label label='Dynamic View' ]
            [@ww.param name='value']${build.buildDefinition.customConfiguration.get('custom.repository.cc.dynamicView')?if_exists}[/@ww.param]
+        [/@ww.label]
+        [@ww.label label='History Scan Threads' ]
+           [@ww.param name='value']${repository.getHistoryThreads()}[/@ww.param]
+        [/@ww.label]
+        [@ww.label label='View Pool Size' ]
+           [@ww.param name='value']${repository.getViewPoolSize()}[/@ww.param]
+        [/@ww.label]
+        [@ww.label label='Rebase In Background' ]
+           [@ww.param name='value']${build.buildDefinition.customConfiguration.get('custom.repository.cc.preRebase')?if_exists}[/@ww.param]
         [/@ww.label]
 	    [@ww.label label='Load Rules' ]
            [@ww.param name='value']${repository.getLoadRules()?if_exists}[/@ww.param]
@@ -0,0 +1,59 @@
+package com.atlassian.bamboo.plugins.clearcase;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs each test with the system property <code>bamboo.home</code> pointing
+ * at a new temporary directory, so anything kept in plugin storage starts
+ * empty and is removed afterwards.
+ */
+public abstract class BambooHomeTestCase extends TestCase {
+
+	private static final String PROP_BAMBOO_HOME = "bamboo.home";
+
+	private File home;
+
+	private String previousHome;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		home = File.createTempFile("bamboo-home", "");
+		home.delete();
+		home.mkdirs();
+		previousHome = System.getProperty(PROP_BAMBOO_HOME);
+		System.setProperty(PROP_BAMBOO_HOME, home.getAbsolutePath());
+	}
+
+	protected void tearDown() throws Exception {
+		if (previousHome == null) {
+			System.getProperties().remove(PROP_BAMBOO_HOME);
+		} else {
+			System.setProperty(PROP_BAMBOO_HOME, previousHome);
+		}
+		delete(home);
+		super.tearDown();
+	}
+
+	/**
+	 * @return the temporary bamboo home directory of the running test.
+	 */
+	protected File getHome() {
+		return home;
+	}
+
+	/**
+	 * Delete a file, or a directory and everything in it.
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,102 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+
+import junit.framework.TestCase;
+
+/**
+ * Test component root resolution with canned lsbl and lscomp output, does not
+ * require ClearCase.
+ */
+public class BaselineComponentResolverTest extends TestCase {
+
+	/** lsbl output by baseline name, component|depends_on */
+	private final Map<String, String> baselines = new HashMap<String, String>();
+
+	/** lscomp output by component name, the root directory */
+	private final Map<String, String> components = new HashMap<String, String>();
+
+	private final List<String> commands = new ArrayList<String>();
+
+	protected void setUp() {
+		BaselineComponentResolver.clearCache();
+		baselines.put("rel_1", "component:rel@/pvob|a_1@/pvob b_1@/pvob");
+		baselines.put("a_1", "component:a@/pvob|shared_1@/pvob");
+		baselines.put("b_1", "component:b@/pvob|shared_1@/pvob");
+		baselines.put("shared_1", "component:shared@/pvob|");
+		components.put("rel", "");
+		components.put("a", "/vobs/a");
+		components.put("b", "/vobs/b");
+		components.put("shared", "/vobs/shared");
+	}
+
+	protected void tearDown() {
+		BaselineComponentResolver.clearCache();
+	}
+
+	public void testCompositeResolvedBreadthFirst() {
+		assertEquals("[/vobs/a, /vobs/b, /vobs/shared]", newResolver()
+				.getComponentRoots("baseline:rel_1@/pvob").toString());
+		// one lsbl per level, the shared baseline is only described once,
+		// and one lscomp for all components
+		assertEquals("[lsbl [rel_1], lsbl [a_1, b_1], lsbl [shared_1], "
+				+ "lscomp [rel, a, b, shared]]", commands.toString());
+	}
+
+	public void testBaselinesAndRootsCached() {
+		newResolver().getComponentRoots("baseline:rel_1@/pvob");
+		commands.clear();
+
+		assertEquals("[/vobs/a, /vobs/b, /vobs/shared]", newResolver()
+				.getComponentRoots("baseline:rel_1@/pvob").toString());
+		assertEquals("[]", commands.toString());
+
+		// a baseline sharing components only describes the new baseline
+		baselines.put("rel_2", "component:rel@/pvob|a_1@/pvob");
+		assertEquals("[/vobs/a, /vobs/shared]", newResolver()
+				.getComponentRoots("baseline:rel_2@/pvob").toString());
+		assertEquals("[lsbl [rel_2]]", commands.toString());
+	}
+
+	public void testComponentWithoutRootIgnored() {
+		components.remove("shared");
+		assertEquals("[/vobs/a, /vobs/b]", newResolver().getComponentRoots(
+				"baseline:rel_1@/pvob").toString());
+	}
+
+	private BaselineComponentResolver newResolver() {
+		return new BaselineComponentResolver(new Project(), null) {
+			List<String[]> list(String command, String format,
+					List<String> selectors) {
+				Map<String, String> answers = AbstractCleartoolCmd.COMMAND_LSBL
+						.equals(command) ? baselines : components;
+				List<String> names = new ArrayList<String>();
+				List<String[]> rval = new ArrayList<String[]>();
+				for (String selector : selectors) {
+					String name = name(selector);
+					names.add(name);
+					String answer = answers.get(name);
+					if (answer != null) {
+						rval.add((selector + "|" + answer).split("\\|", 3));
+					}
+				}
+				commands.add(command + " " + names);
+				return rval;
+			}
+		};
+	}
+
+	/**
+	 * @return the name part of a selector, without kind or vob.
+	 */
+	private static String name(String selector) {
+		String name = selector.substring(selector.indexOf(':') + 1);
+		return name.indexOf('@') >= 0 ? name.substring(0, name.indexOf('@'))
+				: name;
+	}
+}
@@ -0,0 +1,79 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test load rules are split across updates by command line length, does not
+ * require ClearCase.
+ */
+public class CcAddLoadRulesTest extends TestCase {
+
+	private static final String VIEW_PATH = File.separator + "views"
+			+ File.separator + "build";
+
+	private CcAddLoadRules addRules = new CcAddLoadRules();
+
+	protected void setUp() {
+		addRules.setViewPath(VIEW_PATH);
+	}
+
+	public void testFewRulesInOneUpdate() {
+		addRules.setLoadRules(Arrays.asList("vobs/a", " ", "vobs/b"));
+
+		assertEquals("[[vobs/a, vobs/b]]", addRules.getRuleGroups().toString());
+	}
+
+	public void testRulesSplitAtLimit() {
+		List<String> rules = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			rules.add("vobs/component_" + i + "/src");
+		}
+		addRules.setLoadRules(rules);
+
+		List<List<String>> groups = addRules.getRuleGroups();
+		assertTrue(groups.size() > 1);
+		List<String> all = new ArrayList<String>();
+		for (List<String> group : groups) {
+			assertTrue(length(group) <= CcAddLoadRules.MAX_RULES_LENGTH);
+			all.addAll(group);
+		}
+		assertEquals(rules, all);
+		// groups are filled, the next rule would not have fitted
+		List<String> first = new ArrayList<String>(groups.get(0));
+		first.add(groups.get(1).get(0));
+		assertTrue(length(first) > CcAddLoadRules.MAX_RULES_LENGTH);
+	}
+
+	public void testRuleLongerThanLimitOnItsOwn() {
+		StringBuilder longRule = new StringBuilder("vobs");
+		while (longRule.length() <= CcAddLoadRules.MAX_RULES_LENGTH) {
+			longRule.append("/very_deep_directory");
+		}
+		addRules.setLoadRules(Arrays.asList("vobs/a", longRule.toString(),
+				"vobs/b"));
+
+		List<List<String>> groups = addRules.getRuleGroups();
+		assertEquals(3, groups.size());
+		assertEquals(Arrays.asList("vobs/a"), groups.get(0));
+		assertEquals(Arrays.asList(longRule.toString()), groups.get(1));
+		assertEquals(Arrays.asList("vobs/b"), groups.get(2));
+	}
+
+	/**
+	 * @return the command line length taken by the rules, as the rules are
+	 *         counted when grouped.
+	 */
+	private static int length(List<String> rules) {
+		int length = 0;
+		for (String rule : rules) {
+			length += VIEW_PATH.length() + File.separator.length()
+					+ rule.length() + 3;
+		}
+		return length;
+	}
+}
@@ -0,0 +1,118 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the process executor with a shell script standing in for cleartool,
+ * does not require ClearCase. Skipped where there is no /bin/sh.
+ */
+public class CleartoolExecutorTest extends TestCase {
+
+	private static final File SH = new File("/bin/sh");
+
+	private CleartoolExecutor executor = new CleartoolExecutor();
+
+	public void testOutputAndErrorsKeptApart() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		CleartoolResult result = executor.execute(
+				sh("echo 'baseline:bl_1@/pvob'; echo 'cleartool: Error: oops' >&2; exit 3"),
+				null, null, 0);
+		try {
+			assertEquals(3, result.getExitCode());
+			assertFalse(result.isSuccess());
+			assertEquals("baseline:bl_1@/pvob", result.getOutput().toString());
+			assertEquals("cleartool: Error: oops", result.getErrors().toString());
+		} finally {
+			result.getOutput().dispose();
+			result.getErrors().dispose();
+		}
+	}
+
+	public void testArgumentsNotReparsed() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CleartoolResult result = executor.execute(Arrays.asList(SH.getPath(),
+				"-c", "echo \"$1\"", "sh", "a \"quoted\" arg"), null, out, 0);
+		assertEquals(0, result.getExitCode());
+		assertNull(result.getOutput());
+		assertEquals("a \"quoted\" arg", out.toString().trim());
+	}
+
+	public void testCommandsRunAfterStop() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		executor.execute(sh("echo first"), null, out, 0);
+		executor.stop();
+		CleartoolResult result = executor.execute(sh("echo second"), null, out, 0);
+		assertEquals(0, result.getExitCode());
+		assertEquals("first\nsecond", out.toString().trim());
+		executor.stop();
+	}
+
+	public void testKilledAfterTimeout() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			executor.execute(sh("exec sleep 30"), null, null, 500);
+			fail("expected timeout");
+		} catch (CleartoolTimeoutException e) {
+			assertEquals(500, e.getTimeout());
+		}
+		assertTrue(System.currentTimeMillis() - start < 10000);
+	}
+
+	public void testSpilledOutputRemovedAfterTimeout() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		List<String> before = spillFiles();
+		System.setProperty(CommandOutput.PROP_MEMORY_LIMIT, "100");
+		try {
+			executor.execute(sh("head -c 1000 /dev/zero; exec sleep 30"),
+					null, null, 500);
+			fail("expected timeout");
+		} catch (CleartoolTimeoutException e) {
+			// expected
+		} finally {
+			System.getProperties().remove(CommandOutput.PROP_MEMORY_LIMIT);
+		}
+		List<String> after = spillFiles();
+		after.removeAll(before);
+		assertEquals("[]", after.toString());
+	}
+
+	/**
+	 * @return the names of the temporary files command output is spilled to.
+	 */
+	private static List<String> spillFiles() {
+		List<String> rval = new ArrayList<String>();
+		String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith("cleartool") && name.endsWith(".out")) {
+					rval.add(name);
+				}
+			}
+		}
+		return rval;
+	}
+
+	private static List<String> sh(String script) {
+		return Arrays.asList(SH.getPath(), "-c", script);
+	}
+}
@@ -0,0 +1,77 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the cleartool command statistics, does not require ClearCase.
+ */
+public class CleartoolMetricsTest extends TestCase {
+
+	private static final long MS = 1000000L;
+
+	public void testPercentilesUseBucketBounds() {
+		CleartoolMetrics metrics = new CleartoolMetrics();
+		for (int i = 0; i < 90; i++) {
+			metrics.record("lsbl", 4 * MS, 0, 10);
+		}
+		for (int i = 0; i < 10; i++) {
+			metrics.record("lsbl", 900 * MS, 1, 0);
+		}
+
+		assertEquals(100, metrics.getCount("lsbl"));
+		assertEquals(5, metrics.getP50Millis("lsbl"));
+		assertEquals(900, metrics.getP95Millis("lsbl"));
+		assertEquals(900, metrics.getMaxMillis("lsbl"));
+		assertEquals(9360, metrics.getTotalMillis("lsbl"));
+		assertEquals(900, metrics.getOutputBytes("lsbl"));
+		assertEquals("{0=90, 1=10}", metrics.getExitCodes("lsbl"));
+	}
+
+	public void testUnknownCommandIsEmpty() {
+		CleartoolMetrics metrics = new CleartoolMetrics();
+		assertEquals(0, metrics.getCount("describe"));
+		assertEquals(0, metrics.getP99Millis("describe"));
+		assertEquals(0, metrics.getCommandNames().length);
+	}
+
+	public void testRecordedAgainstCurrentPlan() {
+		CleartoolMetrics metrics = new CleartoolMetrics();
+		metrics.record("update", 10 * MS, 0, 0);
+		String previous = CleartoolMetrics.enterPlan("PRJ-PLAN");
+		try {
+			metrics.record("update", 20 * MS, 0, 0);
+			metrics.recordFailure("update");
+		} finally {
+			CleartoolMetrics.exitPlan(previous);
+		}
+		assertNull(CleartoolMetrics.getCurrentPlan());
+
+		assertEquals(2, metrics.getCount("update"));
+		assertEquals(1, metrics.getFailureCount("update"));
+		assertEquals(1, metrics.getPlanCount("PRJ-PLAN"));
+		assertEquals(20, metrics.getPlanTotalMillis("PRJ-PLAN"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getPlanNames().length);
+	}
+
+	public void testRegisteredWithJmxOnlyWhenStarted() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(CleartoolMetrics.OBJECT_NAME);
+		CleartoolMetrics.getInstance();
+		assertFalse(server.isRegistered(name));
+
+		CleartoolMetrics.start();
+		try {
+			assertTrue(server.isRegistered(name));
+		} finally {
+			CleartoolMetrics.shutdown();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,44 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.Arrays;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Commandline;
+
+import junit.framework.TestCase;
+
+/**
+ * Test queries create independent commands, does not require ClearCase.
+ */
+public class CleartoolQueryTest extends TestCase {
+
+	public void testCommandArguments() {
+		ClearToolListCommand cmd = CleartoolQuery.DESCRIBE_NAME.newCommand(
+				new Project(), null, null, "stream:int@/pvob");
+
+		assertEquals("[-fmt, %Xn, stream:int@/pvob]",
+				arguments(cmd));
+		assertTrue(cmd.getFailOnErr());
+	}
+
+	public void testCommandsNotShared() {
+		Project project = new Project();
+		CleartoolQuery query = CleartoolQuery.lsproject("%[istream]Xp");
+		ClearToolListCommand first = query.newCommand(project, null, null,
+				"project:a@/pvob");
+		ClearToolListCommand second = query.newCommand(project, null, null,
+				"project:b@/pvob");
+
+		assertTrue(first != second);
+		assertEquals("[-fmt, %[istream]Xp, project:a@/pvob]",
+				arguments(first));
+		assertEquals("[-fmt, %[istream]Xp, project:b@/pvob]",
+				arguments(second));
+	}
+
+	private static String arguments(ClearToolListCommand cmd) {
+		Commandline commandLine = new Commandline();
+		cmd.setupArguments(commandLine);
+		return Arrays.asList(commandLine.getArguments()).toString();
+	}
+}
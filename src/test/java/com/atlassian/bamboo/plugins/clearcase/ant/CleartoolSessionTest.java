@@ -0,0 +1,153 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the interactive session with a shell script standing in for
+ * <code>cleartool -status</code>, does not require ClearCase. Tests that run
+ * the script are skipped where there is no /bin/sh.
+ */
+public class CleartoolSessionTest extends TestCase {
+
+	private static final File SH = new File("/bin/sh");
+
+	/**
+	 * Answers each command line with its status sentinel, the way cleartool
+	 * does when started with -status.
+	 */
+	private static final String FAKE_CLEARTOOL = "#!/bin/sh\n"
+			+ "n=0\n"
+			+ "while read cmd arg; do\n"
+			+ "  n=$((n+1))\n"
+			+ "  case \"$cmd\" in\n"
+			+ "    fmt) printf 'cleartool> baseline:bl_1@/pvobCommand %d returned status 0\\n' $n ;;\n"
+			+ "    fail) echo 'cleartool: Error: Unable to find stream'; echo \"Command $n returned status -1\" ;;\n"
+			+ "    stale) echo 'Command 1 returned status 0' ;;\n"
+			+ "    cd) cd \"$arg\"; echo \"Command $n returned status $?\" ;;\n"
+			+ "    pwd) pwd; echo \"Command $n returned status 0\" ;;\n"
+			+ "    *) echo \"$cmd $arg\"; echo \"Command $n returned status 0\" ;;\n"
+			+ "  esac\n"
+			+ "done\n";
+
+	private File script;
+
+	protected void setUp() throws IOException {
+		script = File.createTempFile("cleartool", ".sh");
+		Writer writer = new FileWriter(script);
+		try {
+			writer.write(FAKE_CLEARTOOL);
+		} finally {
+			writer.close();
+		}
+		script.setExecutable(true);
+	}
+
+	protected void tearDown() {
+		script.delete();
+	}
+
+	public void testPlainArgumentsNotQuoted() {
+		assertEquals("lsstream -fmt %Xn stream:int@/pvob", CleartoolSession
+				.toCommandLine(new String[] { "lsstream", "-fmt", "%Xn",
+						"stream:int@/pvob" }));
+	}
+
+	public void testArgumentsWithSpacesQuoted() {
+		assertEquals("mkstream -c 'built by bamboo' ''", CleartoolSession
+				.toCommandLine(new String[] { "mkstream", "-c",
+						"built by bamboo", "" }));
+		assertEquals("desc -fmt '%Xn\t%u'", CleartoolSession
+				.toCommandLine(new String[] { "desc", "-fmt", "%Xn\t%u" }));
+	}
+
+	public void testArgumentsWithQuotesQuoted() {
+		assertEquals("mkbl -c 'say \"hi\"'", CleartoolSession
+				.toCommandLine(new String[] { "mkbl", "-c", "say \"hi\"" }));
+		assertEquals("mkbl -c \"it's \\\"done\\\"\"", CleartoolSession
+				.toCommandLine(new String[] { "mkbl", "-c", "it's \"done\"" }));
+	}
+
+	public void testLineBreaksNotSentToSession() {
+		assertTrue(CleartoolSession.canExecute(new String[] { "desc", "a b" }));
+		assertFalse(CleartoolSession.canExecute(new String[] { "mkbl", "-c",
+				"line 1\nline 2" }));
+	}
+
+	public void testStatusRead() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		CleartoolSession session = new CleartoolSession(script.getAbsolutePath());
+		try {
+			List<String> output = new ArrayList<String>();
+			assertEquals(0, session.execute(new String[] { "lsview", "build" },
+					null, output, 0));
+			assertEquals("[lsview build]", output.toString());
+
+			// -fmt output without a new line shares the status line
+			output.clear();
+			assertEquals(0, session.execute(new String[] { "fmt" }, null,
+					output, 0));
+			assertEquals("[baseline:bl_1@/pvob]", output.toString());
+
+			output.clear();
+			assertEquals(-1, session.execute(new String[] { "fail" }, null,
+					output, 0));
+			assertEquals("[cleartool: Error: Unable to find stream]", output
+					.toString());
+			assertTrue(session.isUsable());
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testCommandWithoutDirectoryRunsInStartDirectory()
+			throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		File dir = script.getParentFile();
+		CleartoolSession session = new CleartoolSession(script.getAbsolutePath());
+		try {
+			List<String> output = new ArrayList<String>();
+			session.execute(new String[] { "pwd" }, dir, output, 0);
+			assertEquals(dir.getCanonicalPath(), new File(output.get(0))
+					.getCanonicalPath());
+
+			// must not run in the directory of the previous command
+			output.clear();
+			session.execute(new String[] { "pwd" }, null, output, 0);
+			assertEquals(new File("").getCanonicalPath(), new File(output
+					.get(0)).getCanonicalPath());
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testOutOfSequenceStatusBreaksSession() throws IOException {
+		if (!SH.canExecute()) {
+			return;
+		}
+		CleartoolSession session = new CleartoolSession(script.getAbsolutePath());
+		try {
+			List<String> output = new ArrayList<String>();
+			session.execute(new String[] { "lsview" }, null, output, 0);
+			try {
+				session.execute(new String[] { "stale" }, null, output, 0);
+				fail("status of an earlier command accepted");
+			} catch (IOException e) {
+				// expected
+			}
+			assertFalse(session.isUsable());
+		} finally {
+			session.close();
+		}
+	}
+}
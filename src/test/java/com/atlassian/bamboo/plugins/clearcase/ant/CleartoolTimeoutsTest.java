@@ -0,0 +1,43 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the timeouts for cleartool commands, does not require ClearCase.
+ */
+public class CleartoolTimeoutsTest extends TestCase {
+
+	protected void tearDown() {
+		System.getProperties().remove(CleartoolTimeouts.PROP_QUERY);
+		System.getProperties().remove(CleartoolTimeouts.PROP_UPDATE);
+		System.getProperties().remove(CleartoolTimeouts.PROP_PREFIX + "lsbl");
+	}
+
+	public void testDefaultsByCommandClass() {
+		assertEquals(CleartoolTimeouts.DEFAULT_QUERY_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("describe"));
+		assertEquals(CleartoolTimeouts.DEFAULT_UPDATE_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("update"));
+		assertEquals(CleartoolTimeouts.DEFAULT_UPDATE_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("rebase"));
+		assertEquals(CleartoolTimeouts.DEFAULT_UPDATE_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("lshistory"));
+		assertEquals(CleartoolTimeouts.DEFAULT_UPDATE_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("diffbl"));
+	}
+
+	public void testCommandOverridesClass() {
+		System.setProperty(CleartoolTimeouts.PROP_QUERY, "30");
+		System.setProperty(CleartoolTimeouts.PROP_PREFIX + "lsbl", "90");
+		assertEquals(30000, CleartoolTimeouts.getTimeout("describe"));
+		assertEquals(90000, CleartoolTimeouts.getTimeout("lsbl"));
+	}
+
+	public void testZeroAndInvalidValues() {
+		System.setProperty(CleartoolTimeouts.PROP_UPDATE, "0");
+		System.setProperty(CleartoolTimeouts.PROP_QUERY, "soon");
+		assertEquals(0, CleartoolTimeouts.getTimeout("update"));
+		assertEquals(CleartoolTimeouts.DEFAULT_QUERY_SECONDS * 1000,
+				CleartoolTimeouts.getTimeout("describe"));
+	}
+}
@@ -0,0 +1,50 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the command output buffer, does not require ClearCase.
+ */
+public class CommandOutputTest extends TestCase {
+
+	private static final String LINE_SEP = System.getProperty("line.separator");
+
+	public void testLinesJoinedWithoutTrailingBreak() throws IOException {
+		CommandOutput output = new CommandOutput(1024);
+		output.write("first\r\nsecond\n\nlast\n".getBytes());
+		output.close();
+		assertEquals("first" + LINE_SEP + "second" + LINE_SEP + LINE_SEP
+				+ "last", output.toString());
+		assertFalse(output.isSpilled());
+	}
+
+	public void testEmptyOutput() {
+		assertEquals("", new CommandOutput().toString());
+	}
+
+	public void testSpillsToFileOverLimit() throws IOException {
+		CommandOutput output = new CommandOutput(16);
+		output.writeLine("0123456789");
+		assertFalse(output.isSpilled());
+		output.writeLine("abcdefghij");
+		assertTrue(output.isSpilled());
+		output.close();
+
+		assertEquals("0123456789" + LINE_SEP + "abcdefghij", output.toString());
+		InputStream in = output.getInputStream();
+		try {
+			byte[] bytes = new byte[(int) output.getSize()];
+			assertEquals(bytes.length, in.read(bytes));
+			assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+
+		output.dispose();
+		assertFalse(output.isSpilled());
+		assertEquals("", output.toString());
+	}
+}
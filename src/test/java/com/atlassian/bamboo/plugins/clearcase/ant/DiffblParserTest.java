@@ -0,0 +1,65 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the streaming diffbl parser, does not require ClearCase.
+ */
+public class DiffblParserTest extends TestCase {
+
+	private List<String> events = new ArrayList<String>();
+
+	private DiffblParser parser = new DiffblParser(new DiffblHandler() {
+		public void onActivity(String id, String headline) {
+			events.add("activity " + id + " [" + headline + "]");
+		}
+
+		public void onVersion(String element, String version) {
+			events.add("version " + element + " " + version);
+		}
+	});
+
+	public void testVersion7OutputSplitAcrossWrites() {
+		String output = "Comparing the following:\r\n"
+				+ "  bl_1@\\pvob (07/03/2008 11:20:31)\r\n"
+				+ "  bl_2@\\pvob (07/03/2008 13:10:02)\r\n"
+				+ "Differences:\r\n"
+				+ ">> fix_123@\\pvob \"Fix the build\"\r\n"
+				+ "  C:\\views\\build\\vob\\a.txt@@\\main\\int\\3\r\n"
+				+ "  C:\\views\\build\\vob\\b.txt@@\\main\\int\\1\r\n"
+				+ "<- deliver.dev.20080301 \r\n"
+				+ "  C:\\views\\build\\vob\\c.txt@@\\main\\int\\7";
+		byte[] bytes = output.getBytes();
+		// feed in small uneven chunks so lines and line ends are split
+		for (int i = 0; i < bytes.length; i += 5) {
+			parser.write(bytes, i, Math.min(5, bytes.length - i));
+		}
+		parser.close();
+
+		assertEquals("[activity fix_123@\\pvob [\"Fix the build\"], "
+				+ "version C:\\views\\build\\vob\\a.txt \\main\\int\\3, "
+				+ "version C:\\views\\build\\vob\\b.txt \\main\\int\\1, "
+				+ "activity deliver.dev.20080301 [], "
+				+ "version C:\\views\\build\\vob\\c.txt \\main\\int\\7]",
+				events.toString());
+		assertEquals(2, parser.getActivityCount());
+		assertEquals(3, parser.getVersionCount());
+		assertFalse(parser.isOneSided());
+	}
+
+	public void testVersionLinesWithoutActivityIgnored() {
+		parser.parseLine("  /vob/a.txt@@/main/1");
+		parser.parseLine("->act_1 first");
+		parser.parseLine("  not a version");
+		parser.parseLine("  /vob/b.txt@@/main/2@@extra");
+
+		assertEquals("[activity act_1 [first], version /vob/b.txt /main/2]",
+				events.toString());
+		parser.parseLine(">> act_2 second");
+		assertTrue(parser.isOneSided());
+		assertEquals('>', parser.getSide());
+	}
+}
@@ -0,0 +1,54 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+
+/**
+ * Test the stream and view existence cache, does not require ClearCase.
+ */
+public class ExistenceCacheTest extends BambooHomeTestCase {
+
+	private final String stream = "stream:build_" + System.nanoTime() + "@/pvob";
+
+	public void testStreamKnownOnceConfirmed() {
+		ExistenceCache cache = ExistenceCache.getInstance();
+		assertFalse(cache.isStreamKnown(stream));
+		cache.streamExists(stream);
+		assertTrue(cache.isStreamKnown(stream));
+	}
+
+	public void testViewNeedsViewDat() throws IOException {
+		ExistenceCache cache = ExistenceCache.getInstance();
+		File view = new File(getHome(), "view");
+		view.mkdirs();
+		cache.viewExists(stream, "build_view", view.getPath());
+		assertFalse(cache.isViewKnown(stream, "build_view", view.getPath()));
+
+		new File(view, ".view.dat").createNewFile();
+		assertTrue(cache.isViewKnown(stream, "build_view", view.getPath()));
+		assertFalse(cache.isViewKnown(stream, "other_view", view.getPath()));
+	}
+
+	public void testInvalidateForgetsStreamAndViews() throws IOException {
+		ExistenceCache cache = ExistenceCache.getInstance();
+		File view = new File(getHome(), "view");
+		view.mkdirs();
+		new File(view, ".view.dat").createNewFile();
+		cache.streamExists(stream);
+		cache.viewExists(stream, "build_view", view.getPath());
+
+		cache.invalidate(stream);
+		assertFalse(cache.isStreamKnown(stream));
+		assertFalse(cache.isViewKnown(stream, "build_view", view.getPath()));
+	}
+
+	public void testNotFoundFailures() {
+		assertTrue(ExistenceCache.isNotFound(new BuildException(
+				"Failed executing: cleartool rebase output[cleartool: Error: View tag not found: \"x\".]")));
+		assertFalse(ExistenceCache.isNotFound(new BuildException("Failed executing: cleartool update")));
+	}
+}
@@ -0,0 +1,64 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the streaming lshistory parser, does not require ClearCase.
+ */
+public class LsHistoryParserTest extends TestCase {
+
+	private static final String D = ClearCaseUtils.LSHISTORY_DELIM;
+	private static final String END = ClearCaseUtils.LSHISTORY_END_OF_RESULT_DELIM;
+
+	private List<LsHistoryEvent> events = new ArrayList<LsHistoryEvent>();
+
+	private LsHistoryParser parser = new LsHistoryParser(new LsHistoryHandler() {
+		public void onEvent(LsHistoryEvent event) {
+			events.add(event);
+		}
+	});
+
+	public void testEventsSplitAcrossWrites() {
+		String output = "20080102.030405" + D + "bob" + D + "/vob/a.txt" + D
+				+ "/main/3" + D + "checkin" + D + "first line\nsecond line" + END
+				+ "20080101.000000" + D + "jim" + D + "/vob/b.txt" + D
+				+ "/main/1" + D + "checkin" + D + END + "\n";
+		byte[] bytes = output.getBytes();
+		// feed in small uneven chunks so the end marker is split between writes
+		for (int i = 0; i < bytes.length; i += 7) {
+			parser.write(bytes, i, Math.min(7, bytes.length - i));
+		}
+		parser.close();
+
+		assertEquals("event count", 2, events.size());
+		assertEquals("parser count", 2, parser.getEventCount());
+
+		LsHistoryEvent first = events.get(0);
+		assertEquals("date", "20080102.030405", first.getDate());
+		assertEquals("user", "bob", first.getUser());
+		assertEquals("file", "/vob/a.txt", first.getFile());
+		assertEquals("version", "/main/3", first.getVersion());
+		assertEquals("operation", "checkin", first.getOperation());
+		assertEquals("comment", "first line\nsecond line", first.getComment());
+
+		assertEquals("user", "jim", events.get(1).getUser());
+		assertNull("no comment", events.get(1).getComment());
+	}
+
+	public void testUnterminatedResult() {
+		parser.write(("20080102.030405" + D + "bob" + D + "/vob/a.txt").getBytes(), 0, 32);
+		assertEquals("nothing until closed", 0, events.size());
+		parser.close();
+		assertEquals("flushed on close", 1, events.size());
+		assertNull("missing version", events.get(0).getVersion());
+	}
+
+	public void testEmptyOutput() {
+		parser.write("\r\n".getBytes(), 0, 2);
+		parser.close();
+		assertEquals("no events", 0, events.size());
+	}
+}
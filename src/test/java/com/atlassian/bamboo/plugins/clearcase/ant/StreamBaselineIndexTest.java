@@ -0,0 +1,144 @@
+package com.atlassian.bamboo.plugins.clearcase.ant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.Project;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+
+/**
+ * Test the stream baseline index with canned lsstream, desc and lsbl output,
+ * does not require ClearCase.
+ */
+public class StreamBaselineIndexTest extends BambooHomeTestCase {
+
+	private static final String STREAM = "stream:int@/pvob";
+
+	private static final String COMPONENT = "component:core@/pvob";
+
+	/** every baseline of the component on the stream, oldest first */
+	private final List<String> baselines = new ArrayList<String>();
+
+	/** the stream's latest baselines */
+	private final List<String> latestBls = new ArrayList<String>();
+
+	/** component|creation date by baseline selector */
+	private final Map<String, String> details = new HashMap<String, String>();
+
+	private final List<String> commands = new ArrayList<String>();
+
+	public void testSameComponentIgnoresKindAndMissingVob() {
+		assertTrue(StreamBaselineIndex.isSameComponent(COMPONENT,
+				"core@/pvob"));
+		assertTrue(StreamBaselineIndex.isSameComponent("core", COMPONENT));
+		assertFalse(StreamBaselineIndex.isSameComponent(COMPONENT,
+				"core@/other_pvob"));
+		assertFalse(StreamBaselineIndex.isSameComponent(COMPONENT,
+				"component:ui@/pvob"));
+	}
+
+	public void testStreamListedUntilIndexed() {
+		addBaseline("bl_1@/pvob", "core@/pvob", "100");
+		addBaseline("bl_2@/pvob", "core@/pvob", "200");
+
+		assertEquals("bl_2@/pvob", newIndex().getLatestBaseline(STREAM,
+				COMPONENT, new Project(), null));
+		assertEquals("[lsbl, describe bl_2@/pvob]", commands.toString());
+	}
+
+	public void testIndexedStreamUsesLatestBaselines() {
+		addBaseline("bl_1@/pvob", "core@/pvob", "100");
+		newIndex().getLatestBaseline(STREAM, COMPONENT, new Project(), null);
+		addBaseline("bl_2@/pvob", "core@/pvob", "200");
+		addBaseline("ui_1@/pvob", "ui@/pvob", "150");
+		latestBls.add("ui_1@/pvob");
+		latestBls.add("bl_2@/pvob");
+		commands.clear();
+
+		// the index is read back from storage by a new instance
+		assertEquals("bl_2@/pvob", newIndex().getLatestBaseline(STREAM,
+				COMPONENT, new Project(), null));
+		assertEquals("[lsstream, describe [ui_1@/pvob, bl_2@/pvob]]", commands
+				.toString());
+	}
+
+	public void testRemovedBaselineListsStream() {
+		addBaseline("bl_1@/pvob", "core@/pvob", "100");
+		addBaseline("bl_2@/pvob", "core@/pvob", "200");
+		StreamBaselineIndex index = newIndex();
+		index.getLatestBaseline(STREAM, COMPONENT, new Project(), null);
+
+		// bl_2 is removed, the latest baseline is older than the index
+		baselines.remove("bl_2@/pvob");
+		latestBls.add("bl_1@/pvob");
+		commands.clear();
+		assertEquals("bl_1@/pvob", index.getLatestBaseline(STREAM, COMPONENT,
+				new Project(), null));
+		assertEquals("[lsstream, describe [bl_1@/pvob], lsbl, describe bl_1@/pvob]",
+				commands.toString());
+	}
+
+	public void testComponentNotInLatestListsStream() {
+		addBaseline("bl_1@/pvob", "core@/pvob", "100");
+		StreamBaselineIndex index = newIndex();
+		index.getLatestBaseline(STREAM, COMPONENT, new Project(), null);
+		addBaseline("ui_1@/pvob", "ui@/pvob", "150");
+		baselines.remove("ui_1@/pvob");
+		latestBls.add("ui_1@/pvob");
+		commands.clear();
+
+		assertEquals("bl_1@/pvob", index.getLatestBaseline(STREAM, COMPONENT,
+				new Project(), null));
+		assertEquals("[lsstream, describe [ui_1@/pvob], lsbl, describe bl_1@/pvob]",
+				commands.toString());
+	}
+
+	public void testNoBaselines() {
+		assertNull(newIndex().getLatestBaseline(STREAM, COMPONENT,
+				new Project(), null));
+		assertEquals("[lsbl]", commands.toString());
+	}
+
+	private void addBaseline(String baseline, String component, String date) {
+		baselines.add(baseline);
+		details.put(baseline, component + "|" + date);
+	}
+
+	private StreamBaselineIndex newIndex() {
+		return new StreamBaselineIndex("stream-baselines-test") {
+			String runClearToolCommand(Project project, String command,
+					String selector, String format, String cleartoolHome) {
+				if (ClearToolListCommand.COMMAND_LSSTREAM.equals(command)) {
+					commands.add(command);
+					return StringUtils.join(latestBls.iterator(), " ");
+				}
+				commands.add(command + " " + selector);
+				String detail = details.get(selector);
+				return detail.substring(detail.indexOf('|') + 1) + "\n";
+			}
+
+			String describeBaselines(String[] selectors, Project project,
+					String cleartoolHome) {
+				commands.add(AbstractCleartoolCmd.COMMAND_DESC + " "
+						+ Arrays.asList(selectors));
+				StringBuilder output = new StringBuilder();
+				for (String selector : selectors) {
+					output.append(selector).append('|').append(
+							details.get(selector)).append('\n');
+				}
+				return output.toString();
+			}
+
+			List<String> listBaselines(String stream, String component,
+					Project project, String cleartoolHome) {
+				commands.add(AbstractCleartoolCmd.COMMAND_LSBL);
+				return new ArrayList<String>(baselines);
+			}
+		};
+	}
+}
@@ -0,0 +1,135 @@
+package com.atlassian.bamboo.plugins.clearcase.postbuild;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+
+/**
+ * Test the baseline promotion queue with a promoter that records commands,
+ * does not require ClearCase.
+ */
+public class PromotionQueueTest extends BambooHomeTestCase {
+
+	private final List<String> commands = new ArrayList<String>();
+
+	private String failing = null;
+
+	public void testPromotionsBatchedByLevel() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		queue.enqueue("bl_2@/pvob", "REJECTED", null);
+		queue.enqueue("bl_3@/pvob", "BUILT", null);
+
+		assertTrue(queue.drain());
+		assertEquals("[chbl BUILT [bl_1@/pvob, bl_3@/pvob], chbl REJECTED [bl_2@/pvob]]",
+				commands.toString());
+		assertEquals(0, queue.size());
+	}
+
+	public void testRepeatedPromotionCoalesced() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", "int@/pvob");
+		queue.enqueue("bl_1@/pvob", "REJECTED", null);
+
+		assertEquals(1, queue.size());
+		assertTrue(queue.drain());
+		assertEquals("[chbl REJECTED [bl_1@/pvob]]", commands.toString());
+	}
+
+	public void testOnlyLatestBaselineRecommended() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", "int@/pvob");
+		queue.enqueue("bl_2@/pvob", "BUILT", "int@/pvob");
+
+		assertTrue(queue.drain());
+		assertEquals("[chbl BUILT [bl_1@/pvob, bl_2@/pvob], chstream int@/pvob bl_2@/pvob]",
+				commands.toString());
+	}
+
+	public void testFailedPromotionKeptForRetry() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		queue.enqueue("bl_2@/pvob", "BUILT", null);
+		failing = "bl_2@/pvob";
+
+		assertFalse(queue.drain());
+		assertEquals(1, queue.size());
+
+		// a new queue reads the promotion left in storage
+		failing = null;
+		commands.clear();
+		PromotionQueue restarted = newQueue();
+		assertEquals(1, restarted.size());
+		assertTrue(restarted.drain());
+		assertEquals("[chbl BUILT [bl_2@/pvob]]", commands.toString());
+	}
+
+	public void testMissingBaselineDropped() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_gone@/pvob", "BUILT", null);
+		failing = "bl_gone@/pvob not found";
+
+		assertTrue(queue.drain());
+		assertEquals(0, queue.size());
+	}
+
+	public void testPromotionDroppedAfterMaxAttempts() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		failing = "bl_1@/pvob";
+
+		assertFalse(queue.drain());
+		assertFalse(queue.drain());
+		// the attempts are kept in storage
+		PromotionQueue restarted = newQueue();
+		assertEquals(1, restarted.size());
+		assertTrue(restarted.drain());
+		assertEquals(0, restarted.size());
+		assertEquals(0, newQueue().size());
+	}
+
+	public void testRequeuedPromotionAttemptsReset() {
+		PromotionQueue queue = newQueue();
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		failing = "bl_1@/pvob";
+		assertFalse(queue.drain());
+		assertFalse(queue.drain());
+
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		assertFalse(queue.drain());
+		assertEquals(1, queue.size());
+	}
+
+	public void testStoppedQueueKeepsPromotions() {
+		PromotionQueue queue = newQueue();
+		queue.stop();
+		queue.enqueue("bl_1@/pvob", "BUILT", null);
+		assertEquals(1, queue.size());
+
+		PromotionQueue restarted = newQueue();
+		assertTrue(restarted.drain());
+		assertEquals("[chbl BUILT [bl_1@/pvob]]", commands.toString());
+	}
+
+	private PromotionQueue newQueue() {
+		// long delays so only explicit drains apply promotions
+		return new PromotionQueue("promotion-queue-test", new Recorder(),
+				3600000L, 3600000L, 3);
+	}
+
+	private class Recorder implements PromotionQueue.Promoter {
+		public void promote(String level, List<String> baselines) {
+			if (failing != null && baselines.contains(failing.split(" ")[0])) {
+				throw new BuildException("cleartool: Error: " + failing);
+			}
+			commands.add("chbl " + level + " " + baselines);
+		}
+
+		public void recommend(String stream, String baseline) {
+			commands.add("chstream " + stream + " " + baseline);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.commit.CommitImpl;
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+import com.atlassian.bamboo.plugins.clearcase.ant.CcSelector;
+import com.atlassian.bamboo.repository.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test describing the activities reported by diffbl in batches, does not
+ * require ClearCase.
+ */
+public class ActivityDescribeTest extends BambooHomeTestCase {
+
+    private static final int ACTIVITIES = 121;
+
+    private final List<Integer> batches = new ArrayList<Integer>();
+
+    private final List<String> individual = new ArrayList<String>();
+
+    private final Map<String, List<CommitImpl>> activities =
+            new LinkedHashMap<String, List<CommitImpl>>();
+
+    private ActivityMetadataCache cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new ActivityMetadataCache("activity-describe-test", 1000, 0);
+        for (int i = 0; i < ACTIVITIES; i++) {
+            activities.put(selector(i), Collections.singletonList(new CommitImpl()));
+        }
+    }
+
+    public void testDescribedInBatches() throws RepositoryException {
+        // a cached activity is not described again
+        cache.putAll(Collections.singletonMap(selector(0),
+                new ActivityMetadataCache.Metadata("cached", new Date(1000L))));
+
+        new StubRepository().describeActivities(activities, cache);
+
+        assertEquals("[50, 50, 20]", batches.toString());
+        assertEquals(Collections.emptyList(), individual);
+        assertEquals("cached", owner(0));
+        assertEquals(new Date(1000L), commit(0).getDate());
+        assertEquals("owner_1", owner(1));
+        assertEquals(new Date(120000L), commit(120).getDate());
+        // complete entries are kept for the next build
+        assertEquals("owner_120", cache.get(selector(120)).getOwner());
+    }
+
+    public void testOutputMatchedByNormalisedSelector()
+            throws RepositoryException {
+        new StubRepository() {
+            String describeLine(String selector) {
+                // no kind, either VOB separator and padding still match
+                String name = selector.substring(selector.indexOf(':') + 1,
+                        selector.indexOf('@'));
+                return " " + name + "@\\pvob ";
+            }
+        }.describeActivities(activities, cache);
+
+        assertEquals(Collections.emptyList(), individual);
+        assertEquals("owner_7", owner(7));
+    }
+
+    public void testActivityMissingFromBatchDescribedAlone()
+            throws RepositoryException {
+        new StubRepository() {
+            String describeLine(String selector) {
+                if (selector.equals(selector(7)) || selector.equals(selector(101))) {
+                    return null;
+                }
+                return super.describeLine(selector);
+            }
+        }.describeActivities(activities, cache);
+
+        assertEquals("[" + selector(7) + ", " + selector(101) + "]",
+                individual.toString());
+        assertEquals("alone", owner(7));
+        assertEquals("owner_8", owner(8));
+        assertEquals("alone", owner(101));
+    }
+
+    private static String selector(int i) {
+        try {
+            return new CcSelector(CcSelector.KIND_ACTIVITY, "act_" + i + "@/pvob")
+                    .asSelector();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CommitImpl commit(int i) {
+        return activities.get(selector(i)).get(0);
+    }
+
+    private String owner(int i) {
+        return commit(i).getAuthor().getName();
+    }
+
+    /**
+     * Answers describe commands with the owner and date of each activity
+     * number, recording the size of each batch.
+     */
+    private class StubRepository extends CcRepository {
+        String describeBatch(List<String> selectors) {
+            batches.add(Integer.valueOf(selectors.size()));
+            StringBuilder output = new StringBuilder();
+            // an activity that was not asked for is ignored
+            output.append("activity:other@/pvob|owner_x|")
+                    .append(CC_DATE.format(0L)).append('\n');
+            for (String selector : selectors) {
+                String line = describeLine(selector);
+                if (line != null) {
+                    String number = selector.substring(selector.indexOf('_') + 1,
+                            selector.indexOf('@'));
+                    output.append(line).append("|owner_").append(number).append('|')
+                            .append(CC_DATE.format(Long.parseLong(number) * 1000L))
+                            .append('\n');
+                }
+            }
+            return output.toString();
+        }
+
+        String describeLine(String selector) {
+            return selector;
+        }
+
+        ActivityMetadataCache.Metadata describeActivity(String selector) {
+            individual.add(selector);
+            return new ActivityMetadataCache.Metadata("alone", new Date());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test the activity metadata cache, does not require ClearCase.
+ */
+public class ActivityMetadataCacheTest extends BambooHomeTestCase {
+
+    private long now = 1000000L;
+
+    public void testMetadataStoredBetweenRestarts() {
+        Map<String, ActivityMetadataCache.Metadata> described =
+                new HashMap<String, ActivityMetadataCache.Metadata>();
+        for (int i = 0; i < 100; i++) {
+            described.put("activity:act_" + i + "@/pvob",
+                    new ActivityMetadataCache.Metadata("DOMAIN\\user" + i, new Date(i * 1000L)));
+        }
+        newCache(10, 0).putAll(described);
+
+        ActivityMetadataCache restarted = newCache(10, 0);
+        Map<String, ActivityMetadataCache.Metadata> found = restarted.getAll(
+                Arrays.asList("activity:act_7@/pvob", "activity:act_99@/pvob",
+                        "activity:unknown@/pvob"));
+        assertEquals(2, found.size());
+        assertEquals("DOMAIN\\user7", found.get("activity:act_7@/pvob").getOwner());
+        assertEquals(new Date(99000L), found.get("activity:act_99@/pvob").getDate());
+    }
+
+    public void testMemoryBounded() {
+        ActivityMetadataCache cache = newCache(10, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.putAll(Collections.singletonMap("activity:act_" + i + "@/pvob",
+                    new ActivityMetadataCache.Metadata("user", new Date())));
+        }
+        assertEquals(10, cache.getMemorySize());
+        // evicted entries are still read from storage
+        assertNotNull(cache.get("activity:act_0@/pvob"));
+    }
+
+    public void testEntriesExpire() {
+        ActivityMetadataCache cache = newCache(10, 60000L);
+        cache.putAll(Collections.singletonMap("activity:act@/pvob",
+                new ActivityMetadataCache.Metadata("us|er", null)));
+
+        now += 60000L;
+        ActivityMetadataCache.Metadata metadata = cache.get("activity:act@/pvob");
+        assertEquals("us|er", metadata.getOwner());
+        assertNull(metadata.getDate());
+
+        now += 1;
+        assertNull(cache.get("activity:act@/pvob"));
+        assertNull(newCache(10, 60000L).get("activity:act@/pvob"));
+    }
+
+    private ActivityMetadataCache newCache(int maxEntries, long ttl) {
+        return new ActivityMetadataCache("activity-metadata-test", maxEntries, ttl) {
+            long now() {
+                return now;
+            }
+        };
+    }
+}
@@ -148,5 +148,18 @@ public class CcRepositoryTest extends ClearCaseTestCase {
 		repo.addChangeSummary(curentBL,newBL,changeList, "Test");
 		assertEquals("numbers of changes",2,changeList.size());
 	}
+
+	/**
+	 * Only baselines handed over by change detection are built without
+	 * listing the integration stream again.
+	 */
+	public void testBaselineRevision() {
+		assertTrue(CcRepository.isBaselineRevision("baseline:Rel5_070300_26_10_2007@\\Curam"));
+		assertTrue(CcRepository.isBaselineRevision("Rel5_070300@/vobs/pvob"));
+		assertFalse(CcRepository.isBaselineRevision("20071026.153012"));
+		assertFalse(CcRepository.isBaselineRevision("stream:build_ro_test1@\\pacis"));
+		assertFalse(CcRepository.isBaselineRevision(null));
+		assertFalse(CcRepository.isBaselineRevision(""));
+	}
 	
 }
@@ -0,0 +1,35 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the registry of checkout contexts, does not require ClearCase.
+ */
+public class CheckoutContextTest extends TestCase {
+
+    public void testContextRegisteredPerBuild() {
+        CheckoutContext context = new CheckoutContext("PRJ-PLAN", 7, "bl_7@/pvob",
+                "bl_7@/pvob", "stream:build@/pvob", "build", "/views/PRJ-PLAN/build");
+        CheckoutContext.register(context);
+        try {
+            assertSame(context, CheckoutContext.get("PRJ-PLAN", 7));
+            assertNull(CheckoutContext.get("PRJ-PLAN", 8));
+            assertNull(CheckoutContext.get("PRJ-OTHER", 7));
+        } finally {
+            CheckoutContext.remove("PRJ-PLAN", 7);
+        }
+        assertNull(CheckoutContext.get("PRJ-PLAN", 7));
+    }
+
+    public void testOldestContextsDropped() {
+        for (int i = 0; i < 1000; i++) {
+            CheckoutContext.register(new CheckoutContext("PRJ-LEAK", i, "rev", null,
+                    null, "view", "/views/view"));
+        }
+        assertNull(CheckoutContext.get("PRJ-LEAK", 0));
+        assertNotNull(CheckoutContext.get("PRJ-LEAK", 999));
+        for (int i = 0; i < 1000; i++) {
+            CheckoutContext.remove("PRJ-LEAK", i);
+        }
+    }
+}
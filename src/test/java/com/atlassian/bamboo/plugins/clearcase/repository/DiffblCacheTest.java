@@ -0,0 +1,211 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+import com.atlassian.bamboo.plugins.clearcase.ant.DiffblHandler;
+import com.atlassian.bamboo.plugins.clearcase.ant.DiffblParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the diffbl cache with recorded diffbl output, does not require
+ * ClearCase.
+ */
+public class DiffblCacheTest extends BambooHomeTestCase {
+
+    private final List<String> events = new ArrayList<String>();
+
+    private final DiffblHandler handler = new DiffblHandler() {
+        public void onActivity(String id, String headline) {
+            events.add(id);
+        }
+
+        public void onVersion(String element, String version) {
+            events.add(element + "@@" + version);
+        }
+    };
+
+    public void testDiffReplayedInOtherView() {
+        DiffblCache cache = newCache(10);
+        record(cache, "bl_1", "bl_2", "/views/PLAN-A",
+                ">> act_1@/pvob first",
+                "  /views/PLAN-A/vob/a.txt@@/main/int/3");
+        assertEquals("[act_1@/pvob, /views/PLAN-A/vob/a.txt@@/main/int/3]", events.toString());
+
+        events.clear();
+        newCache(10).get("bl_1", "bl_2").replay(handler, "/views/PLAN-B");
+        assertEquals("[act_1@/pvob, /views/PLAN-B/vob/a.txt@@/main/int/3]", events.toString());
+    }
+
+    public void testAdjacentDiffsComposed() {
+        DiffblCache cache = newCache(10);
+        record(cache, "bl_1", "bl_2", "/v",
+                ">> act_1 first",
+                "  /v/a.txt@@/main/1");
+        record(cache, "bl_2", "bl_3", "/v");
+        record(cache, "bl_3", "bl_4", "/v",
+                ">> act_1 first",
+                "  /v/a.txt@@/main/2",
+                "-> act_2 second",
+                "  /v/b.txt@@/main/1");
+        assertNull(cache.get("bl_2", "bl_1"));
+
+        events.clear();
+        DiffblCache.Diff diff = newCache(10).get("bl_1", "bl_4");
+        assertEquals(2, diff.getActivityCount());
+        diff.replay(handler, "/w");
+        assertEquals("[act_1, /w/a.txt@@/main/1, /w/a.txt@@/main/2, act_2, /w/b.txt@@/main/1]",
+                events.toString());
+    }
+
+    public void testDiffsInBothDirectionsNotComposed() {
+        DiffblCache cache = newCache(10);
+        record(cache, "bl_1", "bl_2", "/v",
+                ">> act_1 first",
+                "  /v/a.txt@@/main/1",
+                "<< act_0 removed",
+                "  /v/a.txt@@/main/0");
+        record(cache, "bl_2", "bl_3", "/v",
+                ">> act_2 second",
+                "  /v/b.txt@@/main/1");
+
+        assertNotNull(cache.get("bl_1", "bl_2"));
+        assertNull(cache.get("bl_1", "bl_3"));
+    }
+
+    public void testOldestPairsRemoved() {
+        DiffblCache cache = newCache(2);
+        record(cache, "bl_1", "bl_2", "/v");
+        record(cache, "bl_2", "bl_3", "/v");
+        record(cache, "bl_3", "bl_4", "/v");
+
+        DiffblCache restarted = newCache(2);
+        assertEquals(2, restarted.size());
+        assertNull(restarted.get("bl_1", "bl_2"));
+        assertNotNull(restarted.get("bl_2", "bl_4"));
+    }
+
+    public void testPairDiffedOnceWhileRunning() throws Exception {
+        final DiffblCache cache = newCache(10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final FutureTask<DiffblCache.Diff> first = newTask(new Callable<DiffblCache.Diff>() {
+            public DiffblCache.Diff call() throws Exception {
+                started.countDown();
+                finish.await();
+                return diff("/v", ">> act_1 first");
+            }
+        });
+        Thread thread = new Thread() {
+            public void run() {
+                cache.diff("bl_1", "bl_2", first);
+            }
+        };
+        thread.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the running diff is shared, another pair is diffed at once
+        assertSame(first, cache.diff("bl_1", "bl_2", newTask(diff("/v"))));
+        FutureTask<DiffblCache.Diff> other = newTask(diff("/v"));
+        assertSame(other, cache.diff("bl_2", "bl_3", other));
+
+        finish.countDown();
+        thread.join(10000);
+        assertEquals(1, first.get().getActivityCount());
+
+        // once done the pair comes from the cache
+        FutureTask<DiffblCache.Diff> again = newTask(diff("/v"));
+        FutureTask<DiffblCache.Diff> cached = cache.diff("bl_1", "bl_2", again);
+        assertTrue(cached != again);
+        assertEquals(1, cached.get().getActivityCount());
+    }
+
+    public void testFailedDiffNotCached() throws Exception {
+        DiffblCache cache = newCache(10);
+        FutureTask<DiffblCache.Diff> failed = newTask(new Callable<DiffblCache.Diff>() {
+            public DiffblCache.Diff call() throws Exception {
+                throw new IllegalStateException("diffbl failed");
+            }
+        });
+        assertSame(failed, cache.diff("bl_1", "bl_2", failed));
+        assertNull(cache.get("bl_1", "bl_2"));
+
+        FutureTask<DiffblCache.Diff> retry = newTask(diff("/v"));
+        assertSame(retry, cache.diff("bl_1", "bl_2", retry));
+        assertNotNull(cache.get("bl_1", "bl_2"));
+    }
+
+    public void testClearForgetsPairs() {
+        DiffblCache cache = newCache(10);
+        record(cache, "bl_1", "bl_2", "/v");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(newCache(10).get("bl_1", "bl_2"));
+    }
+
+    private DiffblCache.Diff diff(String viewPath, String... lines) {
+        DiffblCache.Recorder recorder = new DiffblCache.Recorder(handler, viewPath);
+        DiffblParser parser = new DiffblParser(recorder);
+        for (String line : lines) {
+            byte[] bytes = (line + "\n").getBytes();
+            parser.write(bytes, 0, bytes.length);
+        }
+        parser.close();
+        return recorder.toDiff(parser);
+    }
+
+    private static FutureTask<DiffblCache.Diff> newTask(final DiffblCache.Diff diff) {
+        return newTask(new Callable<DiffblCache.Diff>() {
+            public DiffblCache.Diff call() {
+                return diff;
+            }
+        });
+    }
+
+    private static FutureTask<DiffblCache.Diff> newTask(Callable<DiffblCache.Diff> call) {
+        return new FutureTask<DiffblCache.Diff>(call);
+    }
+
+    public void testMemoryBoundedByVersions() {
+        DiffblCache cache = new DiffblCache("diffbl-test", 10, 3);
+        record(cache, "bl_1", "bl_2", "/v",
+                ">> act_1 first",
+                "  /v/a.txt@@/main/1",
+                "  /v/b.txt@@/main/1");
+        record(cache, "bl_2", "bl_3", "/v",
+                ">> act_2 second",
+                "  /v/a.txt@@/main/2",
+                "  /v/b.txt@@/main/2");
+        // the older diff is dropped to make room
+        assertEquals(2, cache.getMemoryVersions());
+
+        record(cache, "bl_3", "bl_4", "/v",
+                ">> act_3 third",
+                "  /v/a.txt@@/main/3",
+                "  /v/b.txt@@/main/3",
+                "  /v/c.txt@@/main/1",
+                "  /v/d.txt@@/main/1");
+        assertEquals(2, cache.getMemoryVersions());
+
+        // too large to hold, read from disk each time
+        events.clear();
+        cache.get("bl_3", "bl_4").replay(handler, "/w");
+        assertEquals(5, events.size());
+        assertEquals(2, cache.getMemoryVersions());
+        assertEquals(1, cache.get("bl_1", "bl_2").getActivityCount());
+        assertEquals(2, cache.getMemoryVersions());
+    }
+
+    private void record(DiffblCache cache, String from, String to, String viewPath,
+                        String... lines) {
+        cache.put(from, to, diff(viewPath, lines));
+    }
+
+    private static DiffblCache newCache(int maxPairs) {
+        return new DiffblCache("diffbl-test", maxPairs, 1000);
+    }
+}
@@ -0,0 +1,121 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+
+import com.atlassian.bamboo.plugins.clearcase.ant.CleartoolTimeoutException;
+import com.atlassian.bamboo.plugins.clearcase.ant.LsHistoryEvent;
+import com.atlassian.bamboo.plugins.clearcase.ant.LsHistoryHandler;
+
+/**
+ * Test the concurrent lshistory scan of snapshot view directories, does not
+ * require ClearCase.
+ */
+public class HistoryScanTest extends TestCase {
+
+    private final File[] dirs = new File[] { new File("a"), new File("b"),
+            new File("c"), new File("d") };
+
+    private final List<String> received = new ArrayList<String>();
+
+    private final LsHistoryHandler collector = new LsHistoryHandler() {
+        public void onEvent(LsHistoryEvent event) {
+            received.add(event.getFile());
+        }
+    };
+
+    public void testResultsMergedInDirectoryOrder() {
+        CcRepository repo = new StubRepository() {
+            void scanDirectory(String since, File directory,
+                               LsHistoryHandler handler) {
+                // later directories finish first
+                pause(10 * ('d' - directory.getName().charAt(0)));
+                super.scanDirectory(since, directory, handler);
+            }
+        };
+        repo.setHistoryThreads(4);
+        assertEquals(8, repo.scanSubdirectories("since", dirs, collector));
+        assertEquals("[a/1, a/2, b/1, b/2, c/1, c/2, d/1, d/2]",
+                received.toString());
+    }
+
+    public void testFailingDirectorySkipped() {
+        CcRepository repo = new StubRepository() {
+            void scanDirectory(String since, File directory,
+                               LsHistoryHandler handler) {
+                if (directory.getName().equals("b")) {
+                    throw new BuildException("not a VOB directory");
+                }
+                super.scanDirectory(since, directory, handler);
+            }
+        };
+        assertEquals(6, repo.scanSubdirectories("since", dirs, collector));
+        assertEquals("[a/1, a/2, c/1, c/2, d/1, d/2]", received.toString());
+    }
+
+    public void testTimeoutRethrown() {
+        CcRepository repo = new StubRepository() {
+            void scanDirectory(String since, File directory,
+                               LsHistoryHandler handler) {
+                if (directory.getName().equals("c")) {
+                    throw new CleartoolTimeoutException("lshistory", 1000);
+                }
+                super.scanDirectory(since, directory, handler);
+            }
+        };
+        try {
+            repo.scanSubdirectories("since", dirs, collector);
+            fail("timeout taken for no changes");
+        } catch (CleartoolTimeoutException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentScansBounded() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        CcRepository repo = new StubRepository() {
+            void scanDirectory(String since, File directory,
+                               LsHistoryHandler handler) {
+                int now = running.incrementAndGet();
+                synchronized (peak) {
+                    peak.set(Math.max(peak.get(), now));
+                }
+                pause(50);
+                running.decrementAndGet();
+                super.scanDirectory(since, directory, handler);
+            }
+        };
+        repo.setHistoryThreads(2);
+        assertEquals(8, repo.scanSubdirectories("since", dirs, collector));
+        assertEquals(2, peak.get());
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Answers two changes for each directory.
+     */
+    private static class StubRepository extends CcRepository {
+        void scanDirectory(String since, File directory,
+                           LsHistoryHandler handler) {
+            for (int i = 1; i <= 2; i++) {
+                handler.onEvent(new LsHistoryEvent("date", "user",
+                        directory.getName() + "/" + i, "\\main\\" + i,
+                        "checkin", null));
+            }
+        }
+    }
+}
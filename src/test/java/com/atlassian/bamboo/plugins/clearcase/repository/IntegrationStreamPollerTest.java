@@ -0,0 +1,99 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import junit.framework.TestCase;
+import org.apache.tools.ant.BuildException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the shared integration stream poller, does not require ClearCase.
+ */
+public class IntegrationStreamPollerTest extends TestCase {
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    public void testResultSharedWithinTtl() {
+        IntegrationStreamPoller poller = new IntegrationStreamPoller(60000L, countingQuery());
+        String first = poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+        String second = poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+        assertEquals("bl_2", first);
+        assertEquals("bl_2", second);
+        assertEquals(1, queries.get());
+
+        poller.getLatestBaseline("stream:other@/pvob", "component:main@/pvob", null);
+        assertEquals(2, queries.get());
+    }
+
+    public void testExpiredResultQueriedAgain() {
+        IntegrationStreamPoller poller = new IntegrationStreamPoller(0L, countingQuery());
+        poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+        poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+        assertEquals(2, queries.get());
+    }
+
+    public void testFailureNotCached() {
+        IntegrationStreamPoller poller = new IntegrationStreamPoller(60000L,
+                new IntegrationStreamPoller.BaselineQuery() {
+                    public String getLatestBaseline(String stream, String component,
+                                                    String cleartoolHome) {
+                        if (queries.incrementAndGet() == 1) {
+                            throw new BuildException("lsbl failed");
+                        }
+                        return "bl_1";
+                    }
+                });
+        try {
+            poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+            fail("Expected BuildException");
+        } catch (BuildException e) {
+            assertEquals("lsbl failed", e.getMessage());
+        }
+        assertEquals("bl_1",
+                poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null));
+    }
+
+    public void testConcurrentRequestsCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IntegrationStreamPoller poller = new IntegrationStreamPoller(60000L,
+                new IntegrationStreamPoller.BaselineQuery() {
+                    public String getLatestBaseline(String stream, String component,
+                                                    String cleartoolHome) {
+                        queries.incrementAndGet();
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new BuildException(e);
+                        }
+                        return "bl_1";
+                    }
+                });
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    poller.getLatestBaseline("stream:int@/pvob", "component:main@/pvob", null);
+                }
+            };
+            threads[i].start();
+        }
+        started.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, queries.get());
+    }
+
+    private IntegrationStreamPoller.BaselineQuery countingQuery() {
+        return new IntegrationStreamPoller.BaselineQuery() {
+            public String getLatestBaseline(String stream, String component,
+                                            String cleartoolHome) {
+                queries.incrementAndGet();
+                return "bl_2";
+            }
+        };
+    }
+}
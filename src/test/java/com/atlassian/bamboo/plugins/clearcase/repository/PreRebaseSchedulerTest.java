@@ -0,0 +1,67 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the background rebase scheduling, does not require ClearCase.
+ */
+public class PreRebaseSchedulerTest extends TestCase {
+
+    private final AtomicInteger rebases = new AtomicInteger();
+
+    public void testSameBaselineScheduledOnce() throws Exception {
+        PreRebaseScheduler scheduler = new PreRebaseScheduler();
+        assertTrue(scheduler.schedule("PLAN", "bl_1", countingTask()));
+        assertFalse(scheduler.schedule("PLAN", "bl_1", countingTask()));
+        scheduler.await("PLAN", "bl_1");
+        assertFalse(scheduler.schedule("PLAN", "bl_1", countingTask()));
+        assertEquals(1, rebases.get());
+
+        assertTrue(scheduler.schedule("PLAN", "bl_2", countingTask()));
+        scheduler.await("PLAN", "bl_2");
+        assertEquals(2, rebases.get());
+    }
+
+    public void testAwaitWaitsForRunningRebase() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        PreRebaseScheduler scheduler = new PreRebaseScheduler();
+        scheduler.schedule("PLAN", "bl_1", new PreRebaseScheduler.RebaseTask() {
+            public void rebase() throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+                rebases.incrementAndGet();
+            }
+        });
+        // a different baseline does not wait
+        scheduler.await("PLAN", "bl_0");
+        assertEquals(0, rebases.get());
+
+        release.countDown();
+        scheduler.await("PLAN", "bl_1");
+        assertEquals(1, rebases.get());
+    }
+
+    public void testFailedRebaseScheduledAgain() throws Exception {
+        PreRebaseScheduler scheduler = new PreRebaseScheduler();
+        scheduler.schedule("PLAN", "bl_1", new PreRebaseScheduler.RebaseTask() {
+            public void rebase() throws Exception {
+                throw new Exception("rebase failed");
+            }
+        });
+        scheduler.await("PLAN", "bl_1");
+        assertTrue(scheduler.schedule("PLAN", "bl_1", countingTask()));
+        scheduler.await("PLAN", "bl_1");
+        assertEquals(1, rebases.get());
+    }
+
+    private PreRebaseScheduler.RebaseTask countingTask() {
+        return new PreRebaseScheduler.RebaseTask() {
+            public void rebase() {
+                rebases.incrementAndGet();
+            }
+        };
+    }
+}
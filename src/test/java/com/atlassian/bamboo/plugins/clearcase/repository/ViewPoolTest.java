@@ -0,0 +1,196 @@
+package com.atlassian.bamboo.plugins.clearcase.repository;
+
+import com.atlassian.bamboo.plugins.clearcase.BambooHomeTestCase;
+import com.atlassian.bamboo.repository.RepositoryException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test the snapshot view pool with views that are plain directories, does not
+ * require ClearCase.
+ */
+public class ViewPoolTest extends TestCase {
+
+    private File root;
+
+    private final List<String> calls = new CopyOnWriteArrayList<String>();
+
+    protected void setUp() throws IOException {
+        root = File.createTempFile("viewpool", "");
+        root.delete();
+        root.mkdirs();
+    }
+
+    protected void tearDown() {
+        BambooHomeTestCase.delete(root);
+    }
+
+    public void testSingleViewPoolWaitsForRelease() throws Exception {
+        ViewPool pool = new ViewPool(0, 0);
+        ViewPool.PooledView first = pool.lease("stream", "PLAN", 1, 1, new Manager());
+        assertEquals(0, first.getSlot());
+        assertSame(first, pool.getLease("PLAN", 1));
+        assertSame(first, pool.getLease("PLAN"));
+
+        pool.release("PLAN", 1);
+        assertNull(pool.getLease("PLAN", 1));
+        ViewPool.PooledView second = pool.lease("stream", "PLAN", 2, 1, new Manager());
+        assertSame(first, second);
+        waitFor("update 0");
+    }
+
+    public void testSecondViewPreparedWhileFirstLeased() throws Exception {
+        ViewPool pool = new ViewPool(0, 0);
+        ViewPool.PooledView first = pool.lease("stream", "PLAN", 1, 2, new Manager());
+        waitFor("prepare 1");
+
+        ViewPool.PooledView second = pool.lease("stream", "PLAN-2", 1, 2, new Manager());
+        assertEquals(1, second.getSlot());
+        assertEquals("stream_1", second.getStream());
+        assertSame(first, pool.getLease("PLAN", 1));
+        assertSame(second, pool.getLease("PLAN-2", 1));
+    }
+
+    public void testBuildsOfPlanHoldOwnViews() throws Exception {
+        final ViewPool pool = new ViewPool(0, 0);
+        ViewPool.PooledView first = pool.lease("stream", "PLAN", 1, 2, new Manager());
+        waitFor("prepare 1");
+
+        // a second build of the plan in another thread gets the other view
+        final ViewPool.PooledView[] leased = new ViewPool.PooledView[1];
+        Thread build = new Thread() {
+            public void run() {
+                try {
+                    leased[0] = pool.lease("stream", "PLAN", 2, 2, new Manager());
+                } catch (RepositoryException e) {
+                    // leased[0] stays null
+                }
+            }
+        };
+        build.start();
+        build.join(10000);
+        assertNotNull(leased[0]);
+        assertTrue(first != leased[0]);
+        assertSame(first, pool.getLease("PLAN", 1));
+        assertSame(leased[0], pool.getLease("PLAN", 2));
+        // without a build number only the lease of this thread is known
+        assertSame(first, pool.getLease("PLAN"));
+
+        pool.release("PLAN", 1);
+        assertNull(pool.getLease("PLAN", 1));
+        assertSame(leased[0], pool.getLease("PLAN", 2));
+        assertSame(leased[0], pool.getLease("PLAN"));
+    }
+
+    public void testLeaseTimesOut() throws Exception {
+        ViewPool pool = new ViewPool(0, 50);
+        pool.lease("stream", "PLAN", 1, 1, new Manager());
+        try {
+            pool.lease("stream", "PLAN-2", 1, 1, new Manager());
+            fail("lease did not time out");
+        } catch (RepositoryException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("Timed out") >= 0);
+        }
+    }
+
+    public void testLeaseOfEndedThreadReclaimed() throws Exception {
+        final ViewPool pool = new ViewPool(0, 10000);
+        Thread build = new Thread() {
+            public void run() {
+                try {
+                    pool.lease("stream", "PLAN", 1, 1, new Manager());
+                } catch (RepositoryException e) {
+                    // the view is not leased
+                }
+            }
+        };
+        build.start();
+        build.join(10000);
+        assertNotNull(pool.getLease("PLAN", 1));
+
+        // the build never released its view
+        pool.lease("stream", "PLAN", 2, 1, new Manager());
+        assertNull(pool.getLease("PLAN", 1));
+        assertNotNull(pool.getLease("PLAN", 2));
+    }
+
+    public void testBaselineKeptByStream() throws Exception {
+        ViewPool pool = new ViewPool(0, 0);
+        ViewPool.PooledView view = pool.lease("stream", "PLAN", 1, 1, new Manager());
+        pool.setBaseline(view.getStream(), "bl_1");
+
+        // released up to date, the next build finds the stream rebased
+        pool.release("PLAN", 1, false);
+        view = pool.lease("stream", "PLAN", 2, 1, new Manager());
+        assertEquals("bl_1", pool.getBaseline("stream"));
+
+        // updated after a build, the next build rebases again
+        pool.release("PLAN", 2);
+        assertNull(pool.getBaseline("stream"));
+        waitFor("update 0");
+    }
+
+    public void testIdleViewsEvictedOverBudget() throws Exception {
+        ViewPool pool = new ViewPool(1500, 0);
+        pool.lease("stream", "PLAN", 1, 2, new Manager());
+        waitFor("prepare 1");
+        pool.lease("stream", "PLAN-2", 1, 2, new Manager());
+        pool.release("PLAN-2", 1);
+        pool.release("PLAN", 1);
+
+        // each view holds 1000 bytes so only the first view is kept
+        waitFor("remove 1");
+        assertFalse(calls.contains("remove 0"));
+    }
+
+    private void waitFor(String call) throws InterruptedException {
+        for (int i = 0; i < 500 && !calls.contains(call); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(call + " not in " + calls, calls.contains(call));
+    }
+
+    private class Manager implements ViewPool.ViewManager {
+        public ViewPool.PooledView newView(int slot) {
+            File dir = new File(root, "view" + slot);
+            return new ViewPool.PooledView(slot, "tag_" + slot,
+                    slot == 0 ? "stream" : "stream_" + slot, dir.getAbsolutePath(),
+                    dir.getAbsolutePath() + ".vws", root.getAbsolutePath());
+        }
+
+        public void prepare(ViewPool.PooledView view) throws RepositoryException {
+            load(view);
+            calls.add("prepare " + view.getSlot());
+        }
+
+        public void update(ViewPool.PooledView view) throws RepositoryException {
+            load(view);
+            calls.add("update " + view.getSlot());
+        }
+
+        public void remove(ViewPool.PooledView view) {
+            BambooHomeTestCase.delete(new File(view.getLocation()));
+            calls.add("remove " + view.getSlot());
+        }
+
+        private void load(ViewPool.PooledView view) throws RepositoryException {
+            File dir = new File(view.getLocation());
+            dir.mkdirs();
+            try {
+                FileOutputStream out = new FileOutputStream(new File(dir, "file"));
+                try {
+                    out.write(new byte[1000]);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new RepositoryException(e.getMessage());
+            }
+        }
+    }
+}
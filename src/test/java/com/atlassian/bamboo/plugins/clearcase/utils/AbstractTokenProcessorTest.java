@@ -0,0 +1,104 @@
+package com.atlassian.bamboo.plugins.clearcase.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the token processor scanner against {@link String#split(String)}.
+ */
+public class AbstractTokenProcessorTest extends TestCase {
+
+	private static final String[] DELIMS = { null, "[\n\f\r]", "\\s",
+			"@#@#@#@#@", "#~#~#", "\\|", ",", "[,;]", "\\s+" };
+
+	private static final String ALPHABET = "ab \t\r\n\f,;|@#~";
+
+	public void testMatchesSplit() {
+		Random random = new Random(42);
+		for (String delim : DELIMS) {
+			for (int i = 0; i < 2000; i++) {
+				String data = randomData(random);
+				for (int flags = 0; flags < 4; flags++) {
+					boolean trim = (flags & 1) != 0;
+					boolean ignoreEmpty = (flags & 2) != 0;
+					assertEquals("delim [" + delim + "] data [" + data + "]",
+							split(data, delim, trim, ignoreEmpty),
+							tokens(data, delim, trim, ignoreEmpty));
+				}
+			}
+		}
+	}
+
+	public void testSimpleExpressionsScanned() {
+		assertEquals("\n\f\r", AbstractTokenProcessor.parseCharClass("[\n\f\r]"));
+		assertEquals("\n\r", AbstractTokenProcessor.parseCharClass("[\\n\\r]"));
+		assertEquals(" \t\n\u000B\f\r", AbstractTokenProcessor.parseCharClass("\\s"));
+		assertNull(AbstractTokenProcessor.parseCharClass("[a-z]"));
+		assertNull(AbstractTokenProcessor.parseCharClass("[^,]"));
+		assertEquals("@#@#@#@#@", AbstractTokenProcessor.parseLiteral("@#@#@#@#@"));
+		assertEquals("|", AbstractTokenProcessor.parseLiteral("\\|"));
+		assertNull(AbstractTokenProcessor.parseLiteral("\\s+"));
+		assertNull(AbstractTokenProcessor.parseLiteral("a|b"));
+	}
+
+	public void testTokensAreViews() {
+		final StringBuilder data = new StringBuilder("load /vobs/a\nelement * /main/LATEST\nload /vobs/b\n");
+		final List<String> loads = new ArrayList<String>();
+		new AbstractTokenProcessor(data) {
+			@Override
+			protected void processToken(CharSequence token) {
+				assertFalse(token instanceof String);
+				if (startsWith(token, "load ")) {
+					loads.add(token.subSequence(5, token.length()).toString());
+				}
+			}
+
+			@Override
+			protected void processToken(String token) {
+				fail("token copied to a String");
+			}
+		}.process();
+		assertEquals("[/vobs/a, /vobs/b]", loads.toString());
+	}
+
+	private static String randomData(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int length = random.nextInt(20);
+		for (int i = 0; i < length; i++) {
+			if (random.nextInt(10) == 0) {
+				sb.append("@#@#@#@#@");
+			} else {
+				sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The tokens the processor produced before it had its own scanner.
+	 */
+	private static List<String> split(String data, String delim, boolean trim,
+			boolean ignoreEmpty) {
+		List<String> rval = new ArrayList<String>();
+		for (String token : data.split(delim == null ? "[\n\f\r]" : delim)) {
+			if (trim) {
+				token = token.trim();
+			}
+			if (!ignoreEmpty || token.length() > 0) {
+				rval.add(token);
+			}
+		}
+		return rval;
+	}
+
+	private static List<String> tokens(String data, String delim, boolean trim,
+			boolean ignoreEmpty) {
+		StringSplitter splitter = new StringSplitter(data, delim, false);
+		splitter.setTrimLines(trim);
+		splitter.setIgnoreEmptyToken(ignoreEmpty);
+		return splitter.getItems();
+	}
+}
@@ -0,0 +1,62 @@
+package com.atlassian.bamboo.plugins.clearcase.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ClearCase numeric date parser against {@link SimpleDateFormat}.
+ */
+public class ClearCaseDateTest extends TestCase {
+
+	private static final String[] ZONES = { "UTC", "Australia/Sydney",
+			"America/New_York", "Europe/London" };
+
+	public void testMatchesSimpleDateFormat() throws ParseException {
+		Random random = new Random(42);
+		for (String zone : ZONES) {
+			TimeZone tz = TimeZone.getTimeZone(zone);
+			ClearCaseDate date = new ClearCaseDate(tz);
+			SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd.HHmmss");
+			sdf.setTimeZone(tz);
+			for (int i = 0; i < 2000; i++) {
+				// any second between 1990 and 2030
+				long millis = (631152000L + (long) (random.nextDouble() * 1262304000L)) * 1000L;
+				String expected = sdf.format(new Date(millis));
+				assertEquals(zone, expected, date.format(millis));
+				assertEquals(zone + " " + expected, sdf.parse(expected)
+						.getTime(), date.parseMillis(expected));
+			}
+		}
+	}
+
+	public void testHour24IsMidnight() throws ParseException {
+		ClearCaseDate date = new ClearCaseDate(TimeZone.getTimeZone("UTC"));
+		assertEquals(date.parseMillis("20080102.000000"), date
+				.parseMillis("20080102.240000"));
+	}
+
+	public void testIgnoresSurroundingText() throws ParseException {
+		ClearCaseDate date = new ClearCaseDate(TimeZone.getTimeZone("UTC"));
+		assertEquals("20080102.030405", date.format(date
+				.parse(" 20080102.030405\n")));
+	}
+
+	public void testInvalidDates() {
+		ClearCaseDate date = new ClearCaseDate(TimeZone.getTimeZone("UTC"));
+		String[] invalid = { null, "", "20080102", "20080102-030405",
+				"2008O102.030405", "20081302.030405", "20080102.036005" };
+		for (String text : invalid) {
+			try {
+				date.parseMillis(text);
+				fail("Expected ParseException for [" + text + "]");
+			} catch (ParseException e) {
+				// expected
+			}
+		}
+	}
+}